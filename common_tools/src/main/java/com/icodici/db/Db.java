@@ -52,15 +52,7 @@ public class Db implements Cloneable, AutoCloseable {
     public void close() {
         synchronized (connectionString) {
             if (connection != null) {
-                for (PreparedStatement s : cachedStatements.values()) {
-                    try {
-                        s.close();
-                    } catch (SQLException e) {
-                        // connection is closed, we ignore it
-//                        log.d("failure closing statemment: " + e);
-                    }
-                }
-                cachedStatements.clear();
+                closeCachedStatements();
                 try {
                     connection.close();
                 } catch (SQLException e) {
@@ -76,6 +68,29 @@ public class Db implements Cloneable, AutoCloseable {
         return connection == null;
     }
 
+    /**
+     * Check the connection is still alive, asking the database if need.
+     *
+     * @param timeoutSeconds maximum time to wait for the database reply
+     *
+     * @return true if the connection could be used
+     */
+    public boolean isValid(int timeoutSeconds) {
+        Connection c = connection;
+        try {
+            return c != null && c.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if {@link #transaction(Callable)} is being executed on this connection
+     */
+    public boolean isInTransaction() {
+        return isInTransaction;
+    }
+
     @Override
     protected void finalize() throws Throwable {
         close();
@@ -164,6 +179,8 @@ public class Db implements Cloneable, AutoCloseable {
         if (System.currentTimeMillis() - prevResetTime < 2000)
             return false;
         prevResetTime = System.currentTimeMillis();
+        // cached statements belong to the old connection
+        closeCachedStatements();
         try {
             if (this.properties != null)
                 this.connection = DriverManager.getConnection(connectionString, properties);
@@ -307,6 +324,70 @@ public class Db implements Cloneable, AutoCloseable {
 
     private HashMap<String, PreparedStatement> cachedStatements = new HashMap<>();
 
+    /**
+     * Maximum number of statements {@link #cachedStatement(String, Object...)} keeps open on the connection.
+     */
+    public static final int MAX_CACHED_STATEMENTS = 64;
+
+    private void closeCachedStatements() {
+        synchronized (cachedStatements) {
+            for (PreparedStatement s : cachedStatements.values()) {
+                try {
+                    s.close();
+                } catch (SQLException e) {
+                    // connection is closed, we ignore it
+//                        log.d("failure closing statemment: " + e);
+                }
+            }
+            cachedStatements.clear();
+        }
+    }
+
+    /**
+     * Get the prepared statement for the sql text, preparing it only once per connection, and set its parameters. Use
+     * it for frequently executed fixed sql texts (with '?' for all the varying values). Unlike {@link
+     * #statement(String, Object...)}, the caller must NOT close the returned statement, and must not use it after
+     * giving the connection to anybody else (e.g. returning it to the pool), as the statement will be reused.
+     * <p>
+     * The statement could have parameters and batch left from the previous use, all of them are cleared here.
+     *
+     * @param sqlText sql text string with '?' for parameters
+     * @param args    query parameters
+     *
+     * @return prepared statement
+     *
+     * @throws SQLException
+     */
+    public PreparedStatement cachedStatement(String sqlText, Object... args) throws SQLException {
+        try {
+            PreparedStatement statement;
+            synchronized (cachedStatements) {
+                statement = cachedStatements.get(sqlText);
+                if (statement == null || statement.isClosed()) {
+                    // statements are few and fixed, so simply start over if somebody caches the generated ones
+                    if (cachedStatements.size() >= MAX_CACHED_STATEMENTS)
+                        closeCachedStatements();
+                    synchronized (connection) {
+                        statement = connection.prepareStatement(sqlText);
+                    }
+                    cachedStatements.put(sqlText, statement);
+                } else {
+                    statement.clearParameters();
+                    statement.clearBatch();
+                }
+            }
+            int index = 1;
+            for (Object arg : args) {
+                statement.setObject(index, arg);
+                index++;
+            }
+            return statement;
+        } catch (SQLException se) {
+            reset();
+            throw se;
+        }
+    }
+
     public PreparedStatement statement(String sqlText, Object... args) throws SQLException {
         try {
 //        log.d("statement: |" + sqlText + "|  " + Arrays.toString(args));
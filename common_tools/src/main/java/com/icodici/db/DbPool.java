@@ -1,15 +1,80 @@
 package com.icodici.db;
 
+import net.sergeych.tools.Binder;
+import net.sergeych.tools.Histogram;
+
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Properties;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Pool of the database connections, each thread gets its own connection from {@link #db()} and returns it with {@link
+ * PooledDb#close()}.
+ * <p>
+ * The pool opens up to {@code maxConnections} connections. When all of them are in use, {@link #db()} waits for a
+ * connection to be returned for at most {@link #getMaxWait()} and then fails with {@link SQLException}, so the callers
+ * are never hung by the database overload. Idle connections are reused most recently returned first, the ones idle for
+ * longer than {@link #getMaxIdleTime()} are closed, and the ones idle for longer than {@link #getValidationInterval()}
+ * are checked to be alive before giving them out, so connections broken meanwhile are replaced with the new ones.
+ * Idle connections are closed by the timer too, so they do not stay open when no connection is returned for long.
+ */
 public class DbPool implements AutoCloseable {
 
+    /**
+     * Default time to wait for a free connection.
+     */
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+
+    /**
+     * Default time after which idle connection is closed.
+     */
+    public static final Duration DEFAULT_MAX_IDLE_TIME = Duration.ofMinutes(5);
+
+    /**
+     * Default time after which idle connection is validated before use.
+     */
+    public static final Duration DEFAULT_VALIDATION_INTERVAL = Duration.ofSeconds(5);
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    // idle connections are looked for at least that often, and no more often than MIN_EVICTION_INTERVAL_MILLIS
+    private static final long MAX_EVICTION_INTERVAL_MILLIS = 60_000;
+    private static final long MIN_EVICTION_INTERVAL_MILLIS = 100;
+
+    // one thread for all the pools, the eviction is quick
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "db-pool-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final String connectionString;
     private final Properties properties;
     private final int maximumConnections;
-    private volatile int total = 0;
+    // opened connections, including ones being opened right now
+    private final AtomicInteger total = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    private volatile long maxWaitNanos = DEFAULT_MAX_WAIT.toNanos();
+    private volatile long maxIdleNanos = DEFAULT_MAX_IDLE_TIME.toNanos();
+    private volatile long validationIntervalNanos = DEFAULT_VALIDATION_INTERVAL.toNanos();
+    private volatile int minIdle = 1;
+    private ScheduledFuture<?> evictionTask;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder brokenCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final Histogram waitMicros = new Histogram();
 
     /**
      * This the per-thread cache of the DB connection.
@@ -20,9 +85,17 @@ public class DbPool implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
+        closed = true;
+        synchronized (this) {
+            if (evictionTask != null) {
+                evictionTask.cancel(false);
+                evictionTask = null;
+            }
+        }
         threadDb.set(null);
-        while( !pool.isEmpty())
-            pool.take().destroy();
+        PooledDb db;
+        while ((db = pool.pollFirst()) != null)
+            discard(db);
     }
 
     public interface DbConsumer<R> {
@@ -37,47 +110,248 @@ public class DbPool implements AutoCloseable {
         this.connectionString = connectionString;
         this.properties = properties;
         this.maximumConnections = maxConnections;
+        scheduleEviction();
     }
 
-    private LinkedBlockingQueue<PooledDb> pool = new LinkedBlockingQueue<>();
+    // idle connections, the most recently returned first
+    private LinkedBlockingDeque<PooledDb> pool = new LinkedBlockingDeque<>();
 
     public PooledDb db() throws SQLException {
-        try {
-            PooledDb db = threadDb.get();
-            // One thread - one connection, e.g. transactions work with the same db and
-            // all other calls in the same thread use same pooled instance
-            if( db != null ) {
-                // TODO: uncomment the next assert line to spot every transaction-inside-transaction.
-                // This will definitely break some unit tests until the code is change to never cause
-                // transaction-inside-transaction DB access!
-                // assert !db.isInTransaction;
-                return db;
-            }
+        PooledDb db = threadDb.get();
+        // One thread - one connection, e.g. transactions work with the same db and
+        // all other calls in the same thread use same pooled instance
+        if( db != null ) {
+            // TODO: uncomment the next assert line to spot every transaction-inside-transaction.
+            // This will definitely break some unit tests until the code is change to never cause
+            // transaction-inside-transaction DB access!
+            // assert !db.isInTransaction;
+            return db;
+        }
+        acquireCount.increment();
+        PooledDb pdb = acquire();
+        threadDb.set(pdb);
+        return pdb;
+    }
 
-            PooledDb pdb = total >= maximumConnections ? pool.take() : pool.poll();
-            if( pdb != null ) {
-//                System.out.println("take left " + pool.size() + " total " + total + " cached " + cached);
-            } else {
-                pdb = new PooledDb(this, connectionString, properties);
-                total++;
-//                System.out.println("new  left " + pool.size() + " total " + total + " cached " + cached);
+    private PooledDb acquire() throws SQLException {
+        long waitStarted = 0;
+        try {
+            while (true) {
+                if (closed)
+                    throw new SQLException("connection pool is closed");
+                PooledDb pdb = pool.pollFirst();
+                if (pdb == null) {
+                    pdb = tryOpen();
+                    if (pdb != null)
+                        return pdb;
+                    // all the connections are in use, wait for someone to return one
+                    if (waitStarted == 0) {
+                        waitStarted = System.nanoTime();
+                        waitCount.increment();
+                    }
+                    long left = waitStarted + maxWaitNanos - System.nanoTime();
+                    if (left <= 0) {
+                        timeoutCount.increment();
+                        throw new SQLException("timed out waiting for a database connection, all " +
+                                maximumConnections + " are in use");
+                    }
+                    // connection could be discarded meanwhile letting us to open the new one, so we recheck it often
+                    pdb = pool.pollFirst(Math.min(left, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+                    if (pdb == null)
+                        continue;
+                }
+                if (isAlive(pdb))
+                    return pdb;
+                brokenCount.increment();
+                discard(pdb);
             }
-            threadDb.set(pdb);
-            return pdb;
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new SQLException("Pooled operation interrupted");
+        } finally {
+            if (waitStarted != 0)
+                waitMicros.update((System.nanoTime() - waitStarted) / 1000);
+        }
+    }
+
+    /**
+     * Open the new connection if the limit allows.
+     *
+     * @return new connection or null if there are already maximum connections open
+     */
+    private PooledDb tryOpen() throws SQLException {
+        int current;
+        do {
+            current = total.get();
+            if (current >= maximumConnections)
+                return null;
+        } while (!total.compareAndSet(current, current + 1));
+        try {
+            PooledDb pdb = new PooledDb(this, connectionString, properties);
+            createdCount.increment();
+            return pdb;
         } catch (Exception e) {
-            throw new SQLException("Pooled operation interrupted: " + e.getMessage());
+            total.decrementAndGet();
+            throw new SQLException("Pooled operation failed: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isAlive(PooledDb pdb) {
+        if (pdb.isClosed())
+            return false;
+        // recently used connection is most likely ok, do not bother the database
+        if (System.nanoTime() - pdb.returnedAt < validationIntervalNanos)
+            return true;
+        return pdb.isValid(VALIDATION_TIMEOUT_SECONDS);
+    }
+
+    private void discard(PooledDb pdb) {
+        total.decrementAndGet();
+        try {
+            pdb.destroy();
+        } catch (Exception e) {
+            // we are dropping it anyway
+        }
+    }
+
+    /**
+     * Close connections that are idle too long, starting from the least recently used ones at the tail of the pool.
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        PooledDb oldest;
+        while (pool.size() > minIdle && (oldest = pool.peekLast()) != null && now - oldest.returnedAt > maxIdleNanos) {
+            if (pool.removeLastOccurrence(oldest)) {
+                evictedCount.increment();
+                discard(oldest);
+            }
         }
     }
 
+    private synchronized void scheduleEviction() {
+        if (evictionTask != null)
+            evictionTask.cancel(false);
+        if (closed)
+            return;
+        long interval = Math.max(MIN_EVICTION_INTERVAL_MILLIS,
+                Math.min(MAX_EVICTION_INTERVAL_MILLIS, TimeUnit.NANOSECONDS.toMillis(maxIdleNanos)));
+        evictionTask = evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check that calling thread has a connection with a transaction in progress. Everything the thread does with
+     * {@link #db()} in that case goes to the transaction.
+     *
+     * @return true if the calling thread is inside the transaction
+     */
+    public boolean isInTransaction() {
+        PooledDb db = threadDb.get();
+        return db != null && db.isInTransaction();
+    }
+
+    /**
+     * Check that calling thread holds a connection taken with {@link #db()} and not yet returned, in a transaction or
+     * not.
+     *
+     * @return true if the calling thread has a connection
+     */
+    public boolean hasThreadConnection() {
+        return threadDb.get() != null;
+    }
+
     void returnToPool(PooledDb db) {
+        // the connection should stay with the thread until the transaction is finished, otherwise nested
+        // db() calls will get other connections and run outside of the transaction
+        if(db.isInTransaction())
+            return;
         if(db.equals(threadDb.get())) {
             threadDb.set(null);
-            pool.add(db);
+            if (closed) {
+                discard(db);
+                return;
+            }
+            db.returnedAt = System.nanoTime();
+            pool.addFirst(db);
+            evictIdle();
         }
     }
 
+    /**
+     * @return maximum time {@link #db()} waits for a free connection
+     */
+    public Duration getMaxWait() {
+        return Duration.ofNanos(maxWaitNanos);
+    }
+
+    public void setMaxWait(Duration maxWait) {
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * @return time after which idle connection is closed
+     */
+    public Duration getMaxIdleTime() {
+        return Duration.ofNanos(maxIdleNanos);
+    }
+
+    /**
+     * @param maxIdleTime time after which idle connection is closed
+     * @param minIdle     number of idle connections to keep open anyway
+     */
+    public void setMaxIdleTime(Duration maxIdleTime, int minIdle) {
+        this.maxIdleNanos = maxIdleTime.toNanos();
+        this.minIdle = minIdle;
+        scheduleEviction();
+    }
+
+    /**
+     * @return time after which idle connection is checked to be alive before use
+     */
+    public Duration getValidationInterval() {
+        return Duration.ofNanos(validationIntervalNanos);
+    }
+
+    public void setValidationInterval(Duration validationInterval) {
+        this.validationIntervalNanos = validationInterval.toNanos();
+    }
+
+    /**
+     * @return number of open connections, in use and idle
+     */
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    /**
+     * @return number of idle connections in the pool
+     */
+    public int getIdleConnections() {
+        return pool.size();
+    }
+
+    /**
+     * @return connections usage, connection wait times (in microseconds) and number of connections opened, found
+     * broken and closed as idle
+     */
+    public Binder getStats() {
+        int totalNow = total.get();
+        int idle = pool.size();
+        int inUse = Math.max(0, totalNow - idle);
+        return Binder.of(
+                "maxConnections", maximumConnections,
+                "total", totalNow,
+                "inUse", inUse,
+                "idle", idle,
+                "utilization", maximumConnections > 0 ? (double) inUse / maximumConnections : 0.0,
+                "acquired", acquireCount.sum(),
+                "waited", waitCount.sum(),
+                "timeouts", timeoutCount.sum(),
+                "waitMicros", waitMicros.toBinder(),
+                "created", createdCount.sum(),
+                "broken", brokenCount.sum(),
+                "evicted", evictedCount.sum()
+        );
+    }
 
     public <T> T execute(DbConsumer<T> consumer) throws Exception {
         try (PooledDb pdb = db()) { return consumer.accept(pdb); }
@@ -7,6 +7,8 @@ import java.util.concurrent.Callable;
 public class PooledDb extends Db implements AutoCloseable {
     private final DbPool dbPool;
     volatile boolean isInTransaction = false;
+    // System.nanoTime() when the connection was returned to the pool last time
+    volatile long returnedAt = System.nanoTime();
 
     private static final boolean assertionsEnabled;
     static {
@@ -22,6 +22,8 @@ import java.io.*;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -140,16 +142,14 @@ public class Boss {
      * @return binary data as plain array
      */
     public static byte[] dumpToArray(Object first, Object... objects) {
+        BufferWriter w = BufferWriter.pooled();
         try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            Writer w = new Writer(bos);
             w.writeObject(first);
             for (Object o : objects)
                 w.writeObject(o);
-            w.close();
-            return bos.toByteArray();
-        } catch (IOException ex) {
-            throw new IllegalArgumentException("Boss can't dump this object", ex);
+            return w.toByteArray();
+        } finally {
+            w.release();
         }
     }
 
@@ -192,6 +192,22 @@ public class Boss {
         }
     }
 
+    /**
+     * Load boss-encoded object with {@link BufferReader}, without copying binary data and decoding the whole tree. See
+     * {@link BufferReader} for the types of the returned objects.
+     *
+     * @param data binary data to decode, its position is not changed
+     *
+     * @return root object
+     */
+    static public <T> T loadLazy(ByteBuffer data) {
+        try {
+            return new BufferReader(data).read();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
     /**
      * Load boss-encoded object and cast ti to {@link Binder}.
      *
@@ -430,7 +446,16 @@ public class Boss {
             if (obj instanceof Bytes)
                 obj = ((Bytes) obj).toArray();
             else if (obj instanceof ByteBuffer) {
-                obj = ((ByteBuffer) obj).array();
+                ByteBuffer buffer = (ByteBuffer) obj;
+                if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+                        buffer.remaining() == buffer.array().length)
+                    obj = buffer.array();
+                else {
+                    // slices and read-only buffers, e.g. ones returned by BufferReader
+                    byte[] bb = new byte[buffer.remaining()];
+                    buffer.duplicate().get(bb);
+                    obj = bb;
+                }
             }
             if (obj instanceof byte[]) {
                 byte[] bb = (byte[]) obj;
@@ -584,6 +609,396 @@ public class Boss {
         }
     }
 
+    /**
+     * Tree mode BOSS serializer encoding into its own growable array, for packing in memory. Produces exactly the same
+     * bytes as {@link Writer} in tree mode does, but:
+     * <pre>
+     *  - dispatches on the class of the value with the table filled once per class, instead of the instanceof chain
+     *  - writes directly to the array, no streams, no intermediate {@link Bytes} for texts and numbers
+     *  - can be reused with {@link #reset()}, keeping the array and the cache table, see {@link #pooled()}
+     * </pre>
+     * Not thread safe.
+     */
+    static public class BufferWriter {
+
+        /**
+         * Capacity the writer returned to the pool may keep, larger arrays are released.
+         */
+        static public final int MAX_POOLED_CAPACITY = 0x40000;
+
+        private static final int K_NULL = 0;
+        private static final int K_INT = 1;
+        private static final int K_BIGINT = 2;
+        private static final int K_BIGDECIMAL = 3;
+        private static final int K_DOUBLE = 4;
+        private static final int K_TEXT = 5;
+        private static final int K_BYTES = 6;
+        private static final int K_BYTEBUFFER = 7;
+        private static final int K_BINARY = 8;
+        private static final int K_ARRAY = 9;
+        private static final int K_BOOLEAN = 10;
+        private static final int K_DATE = 11;
+        private static final int K_ZONED = 12;
+        private static final int K_MAP = 13;
+        private static final int K_COLLECTION = 14;
+        private static final int K_UNKNOWN = 15;
+
+        // the same order of checks as Writer.put has, computed once for each class
+        private static final ClassValue<Integer> kinds = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                if (Number.class.isAssignableFrom(type)) {
+                    if (type == Integer.class || type == Long.class)
+                        return K_INT;
+                    if (BigInteger.class.isAssignableFrom(type))
+                        return K_BIGINT;
+                    if (BigDecimal.class.isAssignableFrom(type))
+                        return K_BIGDECIMAL;
+                    return K_DOUBLE;
+                }
+                if (CharSequence.class.isAssignableFrom(type))
+                    return K_TEXT;
+                if (Bytes.class.isAssignableFrom(type))
+                    return K_BYTES;
+                if (ByteBuffer.class.isAssignableFrom(type))
+                    return K_BYTEBUFFER;
+                if (type == byte[].class)
+                    return K_BINARY;
+                if (Object[].class.isAssignableFrom(type))
+                    return K_ARRAY;
+                if (type == Boolean.class)
+                    return K_BOOLEAN;
+                if (Date.class.isAssignableFrom(type))
+                    return K_DATE;
+                if (type == ZonedDateTime.class)
+                    return K_ZONED;
+                if (Map.class.isAssignableFrom(type))
+                    return K_MAP;
+                if (Collection.class.isAssignableFrom(type))
+                    return K_COLLECTION;
+                return K_UNKNOWN;
+            }
+        };
+
+        private static final ThreadLocal<BufferWriter> pool = new ThreadLocal<>();
+
+        private final BiSerializer biSerializer;
+        private byte[] buffer;
+        private int size;
+        private HashMap<Object, Integer> cache = new HashMap<>();
+        private boolean pooled;
+
+        /**
+         * @param capacityHint expected size of the packed data, the array grows as needed anyway
+         * @param biSerializer to serialize objects with, as {@link Writer#writeObject(Object)} does, or null
+         */
+        public BufferWriter(int capacityHint, BiSerializer biSerializer) {
+            buffer = new byte[Math.max(capacityHint, 64)];
+            this.biSerializer = biSerializer;
+            cache.put(null, 0);
+        }
+
+        public BufferWriter(int capacityHint) {
+            this(capacityHint, BossBiMapper.newSerializer());
+        }
+
+        public BufferWriter() {
+            this(1024);
+        }
+
+        /**
+         * Get the writer of the current thread, with the default serializer, that should be returned with {@link
+         * #release()} when the result is taken. If the writer of the thread is in use already (packing from inside the
+         * serialization), the new one is returned.
+         *
+         * @return empty writer
+         */
+        static public BufferWriter pooled() {
+            BufferWriter w = pool.get();
+            if (w == null) {
+                w = new BufferWriter();
+            } else
+                pool.set(null);
+            w.pooled = true;
+            return w;
+        }
+
+        /**
+         * Return the writer got with {@link #pooled()} to the pool of the current thread. It should not be used after
+         * it.
+         */
+        public void release() {
+            if (!pooled)
+                return;
+            pooled = false;
+            if (buffer.length > MAX_POOLED_CAPACITY)
+                buffer = new byte[1024];
+            reset();
+            pool.set(this);
+        }
+
+        /**
+         * Drop packed data and references cache, keeping allocated space, to pack the new tree.
+         *
+         * @return this instance
+         */
+        public BufferWriter reset() {
+            size = 0;
+            if (cache.size() > 1024)
+                cache = new HashMap<>();
+            else
+                cache.clear();
+            cache.put(null, 0);
+            return this;
+        }
+
+        /**
+         * Make sure the given number of bytes more could be written without growing the array.
+         *
+         * @param extra number of bytes
+         */
+        public void ensureCapacity(int extra) {
+            int required = size + extra;
+            if (required < 0)
+                throw new OutOfMemoryError("packed data are too large");
+            if (required > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length + (buffer.length >> 1)));
+        }
+
+        /**
+         * Serialize the object and write it, the same way {@link Writer#writeObject(Object)} does.
+         *
+         * @param obj the root object to encode
+         *
+         * @return this instance to allow chaining calls
+         */
+        public BufferWriter writeObject(Object obj) {
+            if (biSerializer != null && !(
+                    obj instanceof Number || obj instanceof String || obj instanceof ZonedDateTime
+                            || obj instanceof Boolean
+            ))
+                put(biSerializer.serialize(obj));
+            else
+                put(obj);
+            return this;
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return copy of the packed data
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        /**
+         * @return read-only view of the packed data, valid until the writer is reset or reused
+         */
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buffer, 0, size).slice().asReadOnlyBuffer();
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(buffer, 0, size);
+        }
+
+        private void put(Object obj) {
+            int kind = obj == null ? K_NULL : kinds.get(obj.getClass());
+            switch (kind) {
+                case K_NULL:
+                    // Null is CREF #0
+                    writeHeader(TYPE_CREF, 0);
+                    return;
+                case K_INT: {
+                    long value = ((Number) obj).longValue();
+                    if (value >= 0)
+                        writeHeader(TYPE_INT, value);
+                    else
+                        writeHeader(TYPE_NINT, -value);
+                    return;
+                }
+                case K_BIGINT: {
+                    BigInteger bi = (BigInteger) obj;
+                    if (bi.signum() >= 0)
+                        writeHeader(TYPE_INT, bi);
+                    else
+                        writeHeader(TYPE_NINT, bi.negate());
+                    return;
+                }
+                case K_BIGDECIMAL:
+                case K_TEXT:
+                    writeString(obj.toString());
+                    return;
+                case K_DOUBLE: {
+                    double d = ((Number) obj).doubleValue();
+                    if (d == 0)
+                        writeHeader(TYPE_EXTRA, XT_DZERO);
+                    else if (d == -1.0)
+                        writeHeader(TYPE_EXTRA, XT_DMINUSONE);
+                    else if (d == 1.0)
+                        writeHeader(TYPE_EXTRA, XT_DONE);
+                    else {
+                        writeHeader(TYPE_EXTRA, XT_DOUBLE);
+                        writeLittleEndian(Double.doubleToLongBits(d), 8);
+                    }
+                    return;
+                }
+                case K_BYTES:
+                    writeBinary(((Bytes) obj).toArray());
+                    return;
+                case K_BYTEBUFFER: {
+                    ByteBuffer bb = (ByteBuffer) obj;
+                    if (bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0 &&
+                            bb.remaining() == bb.array().length)
+                        writeBinary(bb.array());
+                    else {
+                        byte[] data = new byte[bb.remaining()];
+                        bb.duplicate().get(data);
+                        writeBinary(data);
+                    }
+                    return;
+                }
+                case K_BINARY:
+                    writeBinary((byte[]) obj);
+                    return;
+                case K_ARRAY: {
+                    Object[] array = (Object[]) obj;
+                    if (!tryWriteReference(array)) {
+                        writeHeader(TYPE_LIST, array.length);
+                        for (Object x : array)
+                            put(x);
+                    }
+                    return;
+                }
+                case K_BOOLEAN:
+                    writeHeader(TYPE_EXTRA, ((Boolean) obj) ? XT_TTRUE : XT_FALSE);
+                    return;
+                case K_DATE:
+                    writeHeader(TYPE_EXTRA, XT_TIME);
+                    writeEncoded(((Date) obj).getTime() / 1000);
+                    return;
+                case K_ZONED:
+                    writeHeader(TYPE_EXTRA, XT_TIME);
+                    writeEncoded(((ZonedDateTime) obj).toEpochSecond());
+                    return;
+                case K_MAP:
+                    if (!tryWriteReference(obj)) {
+                        Map<?, ?> map = (Map<?, ?>) obj;
+                        writeHeader(TYPE_DICT, map.size());
+                        for (Map.Entry<?, ?> e : map.entrySet()) {
+                            put(e.getKey());
+                            put(e.getValue());
+                        }
+                    }
+                    return;
+                case K_COLLECTION: {
+                    Collection<?> collection = (Collection<?>) obj;
+                    if (!tryWriteReference(collection)) {
+                        writeHeader(TYPE_LIST, collection.size());
+                        for (Object x : collection)
+                            put(x);
+                    }
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("unknown type: " + obj.getClass());
+        }
+
+        private void writeString(String s) {
+            if (tryWriteReference(s))
+                return;
+            int length = s.length();
+            int i = 0;
+            while (i < length && s.charAt(i) < 0x80)
+                i++;
+            if (i == length) {
+                // plain ASCII, encoded as is
+                writeHeader(TYPE_TEXT, length);
+                ensureCapacity(length);
+                for (i = 0; i < length; i++)
+                    buffer[size++] = (byte) s.charAt(i);
+            } else {
+                byte[] bb = s.getBytes(StandardCharsets.UTF_8);
+                writeHeader(TYPE_TEXT, bb.length);
+                writeBytes(bb);
+            }
+        }
+
+        private void writeBinary(byte[] bb) {
+            if (!tryWriteReference(bb)) {
+                writeHeader(TYPE_BIN, bb.length);
+                writeBytes(bb);
+            }
+        }
+
+        private boolean tryWriteReference(Object obj) {
+            Integer index = cache.putIfAbsent(obj, cache.size());
+            if (index != null) {
+                writeHeader(TYPE_CREF, index);
+                return true;
+            }
+            return false;
+        }
+
+        private void writeBytes(byte[] bb) {
+            ensureCapacity(bb.length);
+            System.arraycopy(bb, 0, buffer, size, bb.length);
+            size += bb.length;
+        }
+
+        private void writeByte(int b) {
+            if (size == buffer.length)
+                ensureCapacity(1);
+            buffer[size++] = (byte) b;
+        }
+
+        private void writeLittleEndian(long value, int n) {
+            ensureCapacity(n);
+            while (n-- > 0) {
+                buffer[size++] = (byte) value;
+                value >>>= 8;
+            }
+        }
+
+        private void writeHeader(int code, BigInteger value) {
+            writeByte(code | 0xF8);
+            byte[] bb = value.toByteArray();
+            writeEncoded(bb.length);
+            ensureCapacity(bb.length);
+            for (int i = bb.length - 1; i >= 0; i--)
+                buffer[size++] = bb[i];
+        }
+
+        private void writeHeader(int code, long value) {
+            if (value < 23)
+                writeByte(code | ((int) value << 3));
+            else {
+                int n = Writer.sizeInBytes(value);
+                if (n < 9) {
+                    writeByte(code | ((n + 22) << 3));
+                } else {
+                    writeByte(code | 0xF8);
+                    writeEncoded(n);
+                }
+                writeLittleEndian(value, n);
+            }
+        }
+
+        private void writeEncoded(long value) {
+            while (value > 0x7f) {
+                writeByte(((int) value) & 0x7f);
+                value >>= 7;
+            }
+            writeByte(((int) value) | 0x80);
+        }
+    }
+
     // private static final Charset utf8 = Charset.forName("utf8");
 
     // private static void log(String s,Object... args) {
@@ -885,6 +1300,449 @@ public class Boss {
             return n.longValue();
         }
     }
-}
 
+    /**
+     * BOSS decoder reading from a {@link ByteBuffer} without copying binary data and decoding the tree only as far as
+     * it is accessed. It is intended to pick few fields from the large packed structures, like the "data" and
+     * "signatures" of the sealed contract.
+     * <p>
+     * Unlike {@link Reader}, returns:
+     * <pre>
+     *  - binary data as read-only {@link ByteBuffer} slices of the source buffer (position 0, limit is the size)
+     *  - lists as unmodifiable {@link List} decoding its items on access
+     *  - dictionaries as unmodifiable {@link Map} decoding its keys on first access and values on access
+     * </pre>
+     * Other types are the same as {@link Reader} returns, references are restored to the same instances. No {@link
+     * BiDeserializer} is applied. Stream mode is not supported.
+     * <p>
+     * Reading the object only scans its structure once, to find the objects the references could point to, so the
+     * cost of the read is not proportional to the size of binary data in it. Returned views refer to the source buffer,
+     * the changes made to it are visible through them. Not thread safe, including the returned views. Broken data
+     * found by the views is reported with {@link IllegalArgumentException}.
+     */
+    static public class BufferReader {
+
+        private static final Object NOT_DECODED = new Object();
+
+        private final ByteBuffer buffer;
+        // start of the next root object
+        private int next;
+        // decoding cursor
+        private int pos;
+        private int code;
+        private long value;
+        private BigInteger bigValue;
+        // offsets of the objects references could point to, in the order Reader caches them, and decoded ones
+        private int[] cacheOffsets = new int[16];
+        private Object[] cached = new Object[16];
+        private int cacheSize;
+
+        /**
+         * @param source buffer to read from its position to its limit, the position of the source is not changed
+         */
+        public BufferReader(ByteBuffer source) {
+            buffer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        public BufferReader(byte[] data) {
+            this(ByteBuffer.wrap(data));
+        }
+
+        /**
+         * @return true if there are more objects to read
+         */
+        public boolean hasMore() {
+            return next < buffer.limit();
+        }
+
+        /**
+         * Read next object from the buffer
+         *
+         * @param <T> expected object type
+         *
+         * @return next object casted to (T)
+         *
+         * @throws IOException if the object data are broken
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T read() throws IOException {
+            int start = next;
+            pos = start;
+            skip(true);
+            next = pos;
+            return (T) decodeAt(start);
+        }
+
+        private int readByte() throws IOException {
+            if (pos >= buffer.limit())
+                throw new EOFException();
+            return buffer.get(pos++) & 0xFF;
+        }
+
+        private void advance(long length) throws IOException {
+            if (length < 0 || length > buffer.limit() - pos)
+                throw new EOFException();
+            pos += (int) length;
+        }
+
+        private long readEncodedLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int n = readByte();
+                value |= ((long) n & 0x7F) << shift;
+                if ((n & 0x80) != 0)
+                    return value;
+                shift += 7;
+            }
+        }
+
+        private void readHeader(boolean decodeBig) throws IOException {
+            int b = readByte();
+            code = b & 7;
+            int v = b >>> 3;
+            bigValue = null;
+            if (v >= 31) {
+                long length = readEncodedLong();
+                advance(length);
+                if (decodeBig) {
+                    byte[] bb = new byte[(int) length];
+                    for (int i = 0; i < bb.length; i++)
+                        bb[i] = buffer.get(pos - 1 - i);
+                    bigValue = new BigInteger(bb);
+                }
+                value = -1;
+            } else if (v > 22) {
+                // up to 8 bytes, e.g. long
+                int n = v - 22;
+                long res = 0;
+                for (int shift = 0; n-- > 0; shift += 8)
+                    res |= ((long) readByte()) << shift;
+                value = res;
+            } else
+                value = v;
+        }
+
+        /**
+         * @return size of the text, binary or collection from the last header, checked to fit the buffer
+         */
+        private int size() throws IOException {
+            // any item takes at least one byte, so it is enough to check collections too
+            if (value < 0 || value > buffer.limit() - pos)
+                throw new EOFException();
+            return (int) value;
+        }
+
+        /**
+         * Move the cursor over the object, optionally remembering the objects references could point to.
+         */
+        private void skip(boolean index) throws IOException {
+            int start = pos;
+            readHeader(false);
+            switch (code) {
+                case TYPE_INT:
+                case TYPE_NINT:
+                case TYPE_CREF:
+                    return;
+                case TYPE_TEXT:
+                case TYPE_BIN:
+                    if (index)
+                        addCacheOffset(start);
+                    advance(size());
+                    return;
+                case TYPE_LIST:
+                case TYPE_DICT: {
+                    if (index)
+                        addCacheOffset(start);
+                    int n = size();
+                    if (code == TYPE_DICT)
+                        n *= 2;
+                    for (int i = 0; i < n; i++)
+                        skip(index);
+                    return;
+                }
+                case TYPE_EXTRA:
+                    switch ((int) value) {
+                        case XT_TIME:
+                            readEncodedLong();
+                            return;
+                        case XT_DOUBLE:
+                            advance(8);
+                            return;
+                        case XT_DZERO:
+                        case XT_DONE:
+                        case XT_DMINUSONE:
+                        case XT_TTRUE:
+                        case XT_FALSE:
+                            return;
+                        case XT_STREAM_MODE:
+                            throw new IOException("Boss: stream mode is not supported by BufferReader");
+                    }
+                    throw new IOException(String.format("Unknown extra code: %d", value));
+            }
+            throw new IOException("Bad BOSS header");
+        }
+
+        private void addCacheOffset(int offset) {
+            if (cacheSize == cacheOffsets.length) {
+                cacheOffsets = Arrays.copyOf(cacheOffsets, cacheSize * 2);
+                cached = Arrays.copyOf(cached, cacheSize * 2);
+            }
+            cacheOffsets[cacheSize++] = offset;
+        }
+
+        private Object decodeAt(int offset) throws IOException {
+            int saved = pos;
+            pos = offset;
+            try {
+                return decode();
+            } finally {
+                pos = saved;
+            }
+        }
+
+        private Object decode() throws IOException {
+            int start = pos;
+            readHeader(true);
+            switch (code) {
+                case TYPE_INT:
+                    return smallestNumber(false);
+                case TYPE_NINT:
+                    return smallestNumber(true);
+                case TYPE_TEXT:
+                case TYPE_BIN:
+                case TYPE_LIST:
+                case TYPE_DICT: {
+                    int index = Arrays.binarySearch(cacheOffsets, 0, cacheSize, start);
+                    if (index < 0)
+                        throw new IOException("Boss: object is out of the scanned data");
+                    Object x = cached[index];
+                    if (x == null) {
+                        x = create(size());
+                        cached[index] = x;
+                    }
+                    return x;
+                }
+                case TYPE_CREF: {
+                    if (bigValue != null || value > cacheSize)
+                        throw new IOException("Boss: bad reference");
+                    int i = (int) value;
+                    if (i == 0)
+                        return null;
+                    Object x = cached[i - 1];
+                    return x != null ? x : decodeAt(cacheOffsets[i - 1]);
+                }
+                case TYPE_EXTRA:
+                    switch ((int) value) {
+                        case XT_DZERO:
+                            return 0.0;
+                        case XT_DONE:
+                            return 1.0;
+                        case XT_DMINUSONE:
+                            return -1.0;
+                        case XT_TTRUE:
+                            return true;
+                        case XT_FALSE:
+                            return false;
+                        case XT_TIME:
+                            long seconds = readEncodedLong();
+                            return useOldDates ? new Date(seconds * 1000) : Instant.ofEpochSecond(seconds).atZone(ZoneId.systemDefault());
+                        case XT_DOUBLE:
+                            advance(8);
+                            return buffer.getDouble(pos - 8);
+                    }
+                    throw new IOException(String.format("Unknown extra code: %d", value));
+            }
+            throw new IOException("Bad BOSS header");
+        }
+
+        private Object smallestNumber(boolean negative) {
+            if (bigValue != null)
+                return negative ? bigValue.negate() : bigValue;
+            if (Math.abs(value) <= 0x7FFFffff)
+                return negative ? (int) -value : (int) value;
+            return negative ? -value : value;
+        }
+
+        private Object create(int size) throws IOException {
+            switch (code) {
+                case TYPE_TEXT: {
+                    advance(size);
+                    if (buffer.hasArray())
+                        return new String(buffer.array(), buffer.arrayOffset() + pos - size, size, StandardCharsets.UTF_8);
+                    byte[] bb = new byte[size];
+                    ByteBuffer b = buffer.duplicate();
+                    b.position(pos - size);
+                    b.get(bb);
+                    return new String(bb, StandardCharsets.UTF_8);
+                }
+                case TYPE_BIN: {
+                    advance(size);
+                    ByteBuffer b = buffer.duplicate();
+                    b.position(pos - size);
+                    b.limit(pos);
+                    return b.slice().asReadOnlyBuffer();
+                }
+                case TYPE_LIST:
+                    return new LazyList(pos, size);
+                default:
+                    return new LazyDictionary(pos, size);
+            }
+        }
+
+        /**
+         * Offsets of the given number of sequential objects, to decode them later.
+         */
+        private int[] offsetsOf(int offset, int count) throws IOException {
+            int saved = pos;
+            pos = offset;
+            try {
+                int[] offsets = new int[count];
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = pos;
+                    skip(false);
+                }
+                return offsets;
+            } finally {
+                pos = saved;
+            }
+        }
+
+        private Object decodeView(int offset) {
+            try {
+                return decodeAt(offset);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Boss: can't parse data", e);
+            }
+        }
+
+        private final class LazyList extends AbstractList<Object> implements RandomAccess {
+            private final int start;
+            private final int size;
+            private int[] offsets;
+            private Object[] items;
+
+            private LazyList(int start, int size) {
+                this.start = start;
+                this.size = size;
+            }
+
+            @Override
+            public Object get(int index) {
+                if (index < 0 || index >= size)
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                if (items == null) {
+                    try {
+                        offsets = offsetsOf(start, size);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Boss: can't parse data", e);
+                    }
+                    items = new Object[size];
+                    Arrays.fill(items, NOT_DECODED);
+                }
+                Object x = items[index];
+                if (x == NOT_DECODED) {
+                    x = decodeView(offsets[index]);
+                    items[index] = x;
+                }
+                return x;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        }
+
+        private final class LazyDictionary extends AbstractMap<Object, Object> {
+            private final int start;
+            private final int size;
+            // key to the index of its value
+            private LinkedHashMap<Object, Integer> keys;
+            private int[] offsets;
+            private Object[] values;
+
+            private LazyDictionary(int start, int size) {
+                this.start = start;
+                this.size = size;
+            }
 
+            private void index() {
+                if (keys != null)
+                    return;
+                int[] all;
+                try {
+                    all = offsetsOf(start, size * 2);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Boss: can't parse data", e);
+                }
+                LinkedHashMap<Object, Integer> index = new LinkedHashMap<>(size * 4 / 3 + 1);
+                offsets = new int[size];
+                values = new Object[size];
+                Arrays.fill(values, NOT_DECODED);
+                for (int i = 0; i < size; i++) {
+                    // the later value of the same key wins, as it does in the map Reader fills
+                    index.put(decodeView(all[i * 2]), i);
+                    offsets[i] = all[i * 2 + 1];
+                }
+                keys = index;
+            }
+
+            private Object valueAt(int i) {
+                Object x = values[i];
+                if (x == NOT_DECODED) {
+                    x = decodeView(offsets[i]);
+                    values[i] = x;
+                }
+                return x;
+            }
+
+            @Override
+            public Object get(Object key) {
+                index();
+                Integer i = keys.get(key);
+                return i == null ? null : valueAt(i);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                index();
+                return keys.containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                index();
+                return keys.size();
+            }
+
+            @Override
+            public Set<Entry<Object, Object>> entrySet() {
+                index();
+                return new AbstractSet<Entry<Object, Object>>() {
+                    @Override
+                    public Iterator<Entry<Object, Object>> iterator() {
+                        Iterator<Entry<Object, Integer>> it = keys.entrySet().iterator();
+                        return new Iterator<Entry<Object, Object>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return it.hasNext();
+                            }
+
+                            @Override
+                            public Entry<Object, Object> next() {
+                                Entry<Object, Integer> e = it.next();
+                                return new SimpleImmutableEntry<>(e.getKey(), valueAt(e.getValue()));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return keys.size();
+                    }
+                };
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ */
+
+package net.sergeych.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long samples with power-of-two buckets. Memory usage does not depend on the
+ * number of samples, recording is O(1) and never blocks, so it is suitable to measure hot paths from many threads.
+ * Percentiles are approximate: they return the upper bound of the bucket where the percentile falls, so the error is
+ * less than 2x.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * add sample value
+     *
+     * @param value to add, negative values are counted as zero
+     */
+    public void update(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while ((m = max.get()) < value && !max.compareAndSet(m, value)) ;
+    }
+
+    /**
+     * @return number of samples
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return maximum sample value or 0 if there are no samples
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return average of samples or 0 if there are no samples
+     */
+    public double average() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /**
+     * Approximate percentile.
+     *
+     * @param p percentile, 0 to 100
+     *
+     * @return upper bound of the bucket containing the percentile, but not more than {@link #max()}
+     */
+    public long percentile(double p) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(n * p / 100.0);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear all samples.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return binder with count, avg, p50, p90, p99 and max values
+     */
+    public Binder toBinder() {
+        return Binder.of(
+                "count", count(),
+                "avg", average(),
+                "p50", percentile(50),
+                "p90", percentile(90),
+                "p99", percentile(99),
+                "max", max()
+        );
+    }
+
+    @Override
+    public String toString() {
+        return toBinder().toString();
+    }
+
+    private static int bucketOf(long value) {
+        // bucket 0 holds 0, bucket i holds [2^(i-1), 2^i - 1]
+        return value == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
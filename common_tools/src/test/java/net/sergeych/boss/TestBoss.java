@@ -21,6 +21,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
@@ -357,6 +358,117 @@ public class TestBoss {
         assertEquals("buzz", res.getBinderOrThrow("c").getStringOrThrow("bar"));
     }
 
+    @Test
+    public void bufferReader() throws Exception {
+        byte[] blob = Bytes.random(1000).toArray();
+        Binder nested = Binder.fromKeysValues("foo", "bar", "blob", blob);
+        Binder root = Binder.fromKeysValues(
+                "type", "unicapsule",
+                "int", 17, "neg", -100000, "long", 1L << 40,
+                "big", new BigInteger("123456789012345678901234567890"),
+                "dbl", 0.25, "one", 1.0, "yes", true, "no", false, "nothing", null,
+                "when", ZonedDateTime.now().withNano(0),
+                "list", asList("bar", blob, 3),
+                "a", nested, "b", nested
+        );
+        byte[] packed = Boss.pack(root);
+
+        ByteBuffer source = ByteBuffer.allocate(packed.length + 10);
+        source.position(10);
+        source.put(packed);
+        source.position(10);
+        Boss.BufferReader r = new Boss.BufferReader(source);
+        Map<String, Object> res = r.read();
+        assertFalse(r.hasMore());
+        assertEquals(10, source.position());
+
+        Binder expected = Boss.unpack(packed);
+        assertEquals(expected.keySet(), res.keySet());
+        for (String k : asList("type", "int", "neg", "long", "big", "dbl", "one", "yes", "no", "when"))
+            assertEquals(k, expected.get(k), res.get(k));
+        assertNull(res.get("nothing"));
+        assertTrue(res.containsKey("nothing"));
+
+        List<Object> list = (List<Object>) res.get("list");
+        assertEquals(3, list.size());
+        assertEquals(3, list.get(2));
+        // the text is cached, so the reference resolves to the same instance
+        assertSame(list.get(0), ((Map) res.get("a")).get("foo"));
+
+        // binaries are read-only slices of the source buffer
+        ByteBuffer slice = (ByteBuffer) list.get(1);
+        assertTrue(slice.isReadOnly());
+        assertEquals(blob.length, slice.remaining());
+        assertEquals(ByteBuffer.wrap(blob), slice);
+        int at = 0;
+        while (!ByteBuffer.wrap(packed, at, blob.length).equals(ByteBuffer.wrap(blob)))
+            at++;
+        source.put(10 + at, (byte) (blob[0] + 1));
+        assertEquals(blob[0] + 1, slice.get(0));
+
+        // references to the same dictionary give the same instance
+        assertSame(res.get("a"), res.get("b"));
+
+        // slices are written back as binary data
+        assertArrayEquals(blob, Boss.unpack(Boss.pack(Binder.of("x", ByteBuffer.wrap(blob))))
+                .getBinaryOrThrow("x"));
+    }
+
+    @Test
+    public void bufferReaderSequence() throws Exception {
+        byte[] packed = Boss.dumpToArray("The string", "The string", asList(1, 2), 3);
+        Boss.BufferReader r = new Boss.BufferReader(packed);
+        String a = r.read();
+        String b = r.read();
+        assertSame(a, b);
+        assertEquals(asList(1, 2), r.read());
+        assertEquals(3, (int) r.read());
+        assertFalse(r.hasMore());
+
+        try {
+            Boss.<List>loadLazy(ByteBuffer.wrap(Boss.pack(asList("foo", "bar")), 0, 5)).get(1);
+            fail("broken data must be reported");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void bufferWriter() throws Exception {
+        byte[] blob = Bytes.random(300).toArray();
+        Binder nested = Binder.fromKeysValues("foo", "bar", "blob", blob, "text", "Юникод \uD83D\uDE00");
+        List<Object> list = asList("bar", blob, 3, -3, 1L << 40, -(1L << 50), 0.0, 1.0, -1.0, 0.125, true, false,
+                                   null, new Date(), ZonedDateTime.now(), new BigInteger("-123456789012345678901234567890"),
+                                   new java.math.BigDecimal("1.25"), new Bytes(blob), ByteBuffer.wrap(blob, 1, 10),
+                                   new Object[]{"bar", nested}, Bytes.random(100).toHex());
+        Binder root = Binder.fromKeysValues("list", list, "a", nested, "b", nested.clone(), "c", blob);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(bos);
+        w.writeObject(root);
+        w.writeObject("bar");
+        w.close();
+        byte[] expected = bos.toByteArray();
+
+        assertArrayEquals(expected, Boss.dumpToArray(root, "bar"));
+        Boss.BufferWriter bw = new Boss.BufferWriter(16);
+        bw.writeObject(root).writeObject("bar");
+        assertArrayEquals(expected, bw.toByteArray());
+        assertEquals(ByteBuffer.wrap(expected), bw.toByteBuffer());
+        // reuse gives the same result
+        bw.reset();
+        bw.writeObject(root).writeObject("bar");
+        assertArrayEquals(expected, bw.toByteArray());
+
+        try {
+            Boss.pack(asList(new Object() {
+            }));
+            fail("unknown type must be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+        // the pooled writer is still usable after the failure
+        assertArrayEquals(expected, Boss.dumpToArray(root, "bar"));
+    }
+
 //	@Test
 //	public void testBadCase1() {
 //		Bytes src = Bytes.fromBase64("L0t0aW1lc3RhbXB5IFdfEYVDaG9zdG5hbWUzZG8tMDAxU3N0YXJ0ZWRfYXR5\nbExdEYVbY29ubmVjdGlvbnPwo25vdGlmaWNhdGlvbnNfcGFzc2VkOA==");
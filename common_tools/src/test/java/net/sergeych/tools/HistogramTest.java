@@ -0,0 +1,25 @@
+package net.sergeych.tools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void percentiles() throws Exception {
+        Histogram h = new Histogram();
+        assertEquals(0, h.percentile(50));
+        for (int i = 1; i <= 100; i++)
+            h.update(i);
+        assertEquals(100, h.count());
+        assertEquals(100, h.max());
+        assertEquals(50.5, h.average(), 0.0001);
+        long p50 = h.percentile(50);
+        assertTrue(p50 >= 50 && p50 < 100);
+        assertEquals(100, h.percentile(99));
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.max());
+    }
+}
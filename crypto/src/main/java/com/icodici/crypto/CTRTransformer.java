@@ -95,15 +95,30 @@ class CTRTransformer {
     }
 
 
-//    /**
-//     * Transforms in place data block
-//     * @param source
-//     * @throws EncryptionError
-//     */
-//    public void transform(byte[] source, int offset, int length) throws EncryptionError {
-//        for (int i = 0; i < source.length; i++)
-//            source[i] ^= nextByte();
-//    }
+    /**
+     * Transform the data block, a keystream block at a time. Source and destination could be the same array and
+     * offset, to transform in place.
+     *
+     * @param src       data to transform
+     * @param srcOffset of the first byte to transform
+     * @param dst       array to write the result to
+     * @param dstOffset where to write the first transformed byte
+     * @param length    number of bytes to transform
+     *
+     * @throws EncryptionError
+     */
+    public void transform(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) throws EncryptionError {
+        int done = 0;
+        while (done < length) {
+            if (index >= blockSize)
+                prepareBlock();
+            int n = Math.min(blockSize - index, length - done);
+            for (int i = 0; i < n; i++)
+                dst[dstOffset + done + i] = (byte) (src[srcOffset + done + i] ^ source[index + i]);
+            index += n;
+            done += n;
+        }
+    }
 
     /**
      * Transform next byte
@@ -22,19 +22,48 @@ import net.sergeych.utils.Ut;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by sergeych on 02/12/16.
+ * <p>
+ * Key components, fingerprint and hash code are computed once when the key is set, so keys are cheap to use in hash
+ * maps and to compare. Keys decoded from many contracts could share one instance, see {@link #intern(byte[])}.
  */
 public class PublicKey extends AbstractKey {
     private final RSAOAEPPublicKey publicKey;
     private final AtomicBoolean unpacked = new AtomicBoolean(false);
     private byte[] cachedHint;
     private boolean publicExponent;
+    private volatile Components components;
+
+    /**
+     * Immutable unsigned big-endian key components with values derived from them.
+     */
+    private static final class Components {
+        private final byte[] e;
+        private final byte[] n;
+        private final byte[] fingerprint;
+        private final int hashCode;
+
+        private Components(byte[] e, byte[] n) {
+            this.e = e;
+            this.n = n;
+            fingerprint = new byte[33];
+            fingerprint[0] = (byte) FINGERPRINT_SHA256;
+            System.arraycopy(new Sha256().update(e).update(n).digest(), 0, fingerprint, 1, 32);
+            // fingerprint is uniformly distributed, unlike the leading bytes of the modulus
+            hashCode = ((fingerprint[1] & 0xFF) << 24) | ((fingerprint[2] & 0xFF) << 16) |
+                    ((fingerprint[3] & 0xFF) << 8) | (fingerprint[4] & 0xFF);
+        }
+    }
 
     public PublicKey(AbstractPublicKey publicKey) {
         this.publicKey = (RSAOAEPPublicKey) publicKey;
@@ -95,6 +124,7 @@ public class PublicKey extends AbstractKey {
             error.printStackTrace();
             throw new EncryptionError("failed to parse public key", error);
         }
+        components();
         if (info == null)
             setupInfo(bytes);
         else
@@ -110,6 +140,18 @@ public class PublicKey extends AbstractKey {
     private void setComponents(Binder pp) throws Hashable.Error {
         publicKey.updateFromHash(pp);
         cachedHint = null;
+        components = null;
+    }
+
+    private Components components() {
+        Components c = components;
+        if (c == null) {
+            // concurrent callers could compute it twice, but the result is the same
+            Map<String, Object> params = publicKey.toHash();
+            c = new Components((byte[]) params.get("e"), (byte[]) params.get("n"));
+            components = c;
+        }
+        return c;
     }
 
     private AtomicBoolean inUse = new AtomicBoolean();
@@ -144,11 +186,11 @@ public class PublicKey extends AbstractKey {
 //    }
 
     public byte[] pack() {
-        Map<String, Object> params = publicKey.toHash();
+        Components c = components();
         return Boss.dumpToArray(new Object[]{
                 TYPE_PUBLIC,
-                params.get("e"),
-                params.get("n")
+                c.e,
+                c.n
         });
     }
 
@@ -166,52 +208,97 @@ public class PublicKey extends AbstractKey {
      */
     @Override
     public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
         if (obj instanceof PublicKey) {
-            PublicKey k = (PublicKey) obj;
-            Map<String, Object> a = publicKey
-                    .toHash();
-            Map<String, Object> b = k.publicKey
-                    .toHash();
-            return Arrays.equals((byte[]) a.get("e"), (byte[]) b.get("e")) &&
-                    Arrays.equals((byte[]) a.get("n"), (byte[]) b.get("n"));
+            Components a = components();
+            Components b = ((PublicKey) obj).components();
+            return a.hashCode == b.hashCode && Arrays.equals(a.n, b.n) && Arrays.equals(a.e, b.e);
         }
         return super.equals(obj);
     }
 
     @Override
     public int hashCode() {
-        Map<String, Object> a = publicKey
-                .toHash();
-        byte[] key = (byte[]) a.get("n");
-        return key[0] + (key[1] << 8) + (key[2] << 16) + (key[3] << 24);
+        return components().hashCode;
     }
 
-    private byte[] _fingerprint;
-
     @Override
     public byte[] fingerprint() {
-        synchronized (publicKey) {
-            if (_fingerprint == null) {
-                _fingerprint = new byte[33];
-                _fingerprint[0] = (byte) FINGERPRINT_SHA256;
-                System.arraycopy(
-                        updateDigestWithKeyComponents(new Sha256()).digest(),
-                        0,
-                        _fingerprint,
-                        1,
-                        32);
-            }
-            return _fingerprint;
-        }
+        return components().fingerprint;
     }
 
     @Override
     public Digest updateDigestWithKeyComponents(Digest digest) {
-        Map<String, Object> a = publicKey.toHash();
-        digest.update((byte[]) a.get("e")).update((byte[]) a.get("n"));
+        Components c = components();
+        digest.update(c.e).update(c.n);
         return digest;
     }
 
+    private static final ConcurrentHashMap<Bytes, InternedKey> interned = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<PublicKey> collectedKeys = new ReferenceQueue<>();
+
+    private static final class InternedKey extends WeakReference<PublicKey> {
+        private final Bytes packed;
+
+        private InternedKey(Bytes packed, PublicKey key) {
+            super(key, collectedKeys);
+            this.packed = packed;
+        }
+    }
+
+    /**
+     * Get the key unpacked from the packed form, sharing the instance with all other callers that have interned the
+     * same packed key while it is in use, so the same keys found in many contracts are unpacked only once and do not
+     * occupy memory many times. The instance is held weakly, so the keys no longer in use are released.
+     * <p>
+     * The shared instance must not be altered by the callers, e.g. with {@link #setTag(String)}.
+     *
+     * @param packed key, as {@link #pack()} returns
+     *
+     * @return shared key instance
+     *
+     * @throws EncryptionError if the packed key is not valid
+     */
+    public static PublicKey intern(byte[] packed) throws EncryptionError {
+        expungeInterned();
+        InternedKey ref = interned.get(new Bytes(packed));
+        PublicKey key = ref != null ? ref.get() : null;
+        if (key != null)
+            return key;
+        PublicKey fresh = new PublicKey(packed);
+        // own copy, so the caller could not alter the map key
+        Bytes id = new Bytes(packed.clone());
+        InternedKey freshRef = new InternedKey(id, fresh);
+        while (true) {
+            ref = interned.putIfAbsent(id, freshRef);
+            if (ref == null)
+                return fresh;
+            key = ref.get();
+            if (key != null)
+                return key;
+            // collected meanwhile, replace it
+            if (interned.replace(id, ref, freshRef))
+                return fresh;
+        }
+    }
+
+    /**
+     * @return number of interned keys currently known, some of them could be already unused
+     */
+    public static int getInternedCount() {
+        expungeInterned();
+        return interned.size();
+    }
+
+    private static void expungeInterned() {
+        Reference<? extends PublicKey> ref;
+        while ((ref = collectedKeys.poll()) != null) {
+            InternedKey k = (InternedKey) ref;
+            interned.remove(k.packed, k);
+        }
+    }
+
     public static final BiAdapter PUBLIC_KEY_BI_ADAPTER = new BiAdapter() {
 
         @Override
@@ -223,7 +310,7 @@ public class PublicKey extends AbstractKey {
         @Override
         public Object deserialize(Binder binder, BiDeserializer deserializer) {
             try {
-                return new PublicKey(binder.getBinaryOrThrow("packed"));
+                return intern(binder.getBinaryOrThrow("packed"));
             } catch (EncryptionError encryptionError) {
                 return null;
             }
@@ -240,8 +327,7 @@ public class PublicKey extends AbstractKey {
     }
 
     public long getPublicExponent() {
-        Map<String, Object> params = publicKey.toHash();
-        byte[] arr = (byte[]) params.get("e");
+        byte[] arr = components().e;
         long e = 0;
         for (int i = 0; i < arr.length; i++)
             e = (e << 8) | arr[i];
@@ -213,6 +213,15 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
 
     private BlockCipher cipher = null;
 
+    // the cipher keeps the state of the block being transformed, so the offset versions of etaEncrypt/etaDecrypt,
+    // that are called on the shared keys, give each thread its own one
+    private transient volatile ThreadLocal<BlockCipher> threadCipher = null;
+
+    /**
+     * Size of the SHA256-based HMAC record of the AE (EtA) data
+     */
+    private static final int ETA_HMAC_LENGTH = 32;
+
     /**
      * Create random symmetric key (AES256, CTR)
      */
@@ -232,6 +241,7 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
 
     public void setKey(byte[] key) {
         cipher = null;
+        threadCipher = null;
         this.key = key;
     }
 
@@ -265,6 +275,27 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
         return cipher;
     }
 
+    /**
+     * @return cipher of the calling thread, created once per thread like {@link #getCipher()}
+     */
+    private BlockCipher getThreadCipher() {
+        ThreadLocal<BlockCipher> tc = threadCipher;
+        if (tc == null) {
+            synchronized (this) {
+                tc = threadCipher;
+                if (tc == null) {
+                    tc = ThreadLocal.withInitial(() -> {
+                        BlockCipher c = new AES256();
+                        c.initialize(BlockCipher.Direction.ENCRYPT, this);
+                        return c;
+                    });
+                    threadCipher = tc;
+                }
+            }
+        }
+        return tc.get();
+    }
+
     public byte[] encrypt(byte[] plaintext) throws EncryptionError {
         return EncryptingStream.encrypt(getCipher(), plaintext);
     }
@@ -338,15 +369,45 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
      * @throws EncryptionError
      */
     public byte[] etaEncrypt(byte[] data) throws EncryptionError {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            final EtaEncryptingStream s = etaEncryptStream(bos);
-            s.write(data);
-            s.end();
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOError", e);
-        }
+        byte[] result = new byte[data.length + getEtaOverhead()];
+        etaEncrypt(data, 0, data.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Encrypt part of the array using AE (EtA) with HMAC based on SHA256, writing the result directly to the given
+     * array. The result is the same as of {@link #etaEncrypt(byte[])}: IV, encrypted data and HMAC, exactly {@link
+     * #getEtaOverhead()} bytes longer than the data. Each thread uses its own cipher, so one key could encrypt and
+     * decrypt this way in several threads at once.
+     *
+     * @param data      source data
+     * @param offset    of the first byte to encrypt
+     * @param length    number of bytes to encrypt
+     * @param out       array to write the encrypted data to
+     * @param outOffset where to start writing
+     *
+     * @return number of bytes written to out
+     *
+     * @throws EncryptionError
+     */
+    public int etaEncrypt(byte[] data, int offset, int length, byte[] out, int outOffset) throws EncryptionError {
+        CTRTransformer transformer = new CTRTransformer(getThreadCipher(), null);
+        byte[] iv = transformer.getIV();
+        System.arraycopy(iv, 0, out, outOffset, iv.length);
+        int dataOffset = outOffset + iv.length;
+        transformer.transform(data, offset, out, dataOffset, length);
+        HMAC hmac = new HMAC(key);
+        hmac.update(out, dataOffset, length);
+        byte[] mac = hmac.digest();
+        System.arraycopy(mac, 0, out, dataOffset + length, mac.length);
+        return iv.length + length + mac.length;
+    }
+
+    /**
+     * @return how much longer is the result of {@link #etaEncrypt(byte[])} than the source data (IV and HMAC sizes)
+     */
+    public int getEtaOverhead() {
+        return getThreadCipher().getBlockSize() + ETA_HMAC_LENGTH;
     }
 
     /**
@@ -385,13 +446,48 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
      *         if the authentication record does not match the data.
      */
     public byte[] etaDecrypt(byte[] data) throws EncryptionError, AuthenticationFailed {
-        try {
-            return Do.read(etaDecryptStream(new ByteArrayInputStream(data)));
-        } catch (AuthenticationFailed e) {
-            throw e;
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOError", e);
-        }
+        byte[] result = new byte[Math.max(0, data.length - getEtaOverhead())];
+        etaDecrypt(data, 0, data.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Decrypt part of the array encrypted with {@link #etaEncrypt(byte[])}, writing the result directly to the given
+     * array. HMAC is checked before decryption, so nothing is written to out if the data are corrupted. Each thread
+     * uses its own cipher, so one key could encrypt and decrypt this way in several threads at once.
+     *
+     * @param data      encrypted data
+     * @param offset    of the first byte of encrypted data (IV)
+     * @param length    of the encrypted data, including IV and HMAC
+     * @param out       array to write decrypted data to, should have room for {@code length - getEtaOverhead()}
+     *                  bytes
+     * @param outOffset where to start writing
+     *
+     * @return number of decrypted bytes written to out
+     *
+     * @throws EncryptionError
+     * @throws AuthenticationFailed
+     *         if the authentication record does not match the data.
+     */
+    public int etaDecrypt(byte[] data, int offset, int length, byte[] out, int outOffset)
+            throws EncryptionError, AuthenticationFailed {
+        BlockCipher cipher = getThreadCipher();
+        int ivLength = cipher.getBlockSize();
+        int size = length - ivLength - ETA_HMAC_LENGTH;
+        if (size < 0)
+            throw new AuthenticationFailed("data corrupted: too short to contain IV and HMAC");
+        int dataOffset = offset + ivLength;
+        HMAC hmac = new HMAC(key);
+        hmac.update(data, dataOffset, size);
+        byte[] mac = hmac.digest();
+        int diff = 0;
+        for (int i = 0; i < mac.length; i++)
+            diff |= mac[i] ^ data[dataOffset + size + i];
+        if (diff != 0)
+            throw new AuthenticationFailed("HMAC authentication failed, data corrupted");
+        CTRTransformer transformer = new CTRTransformer(cipher, Arrays.copyOfRange(data, offset, dataOffset));
+        transformer.transform(data, dataOffset, out, outOffset, size);
+        return size;
     }
 
     public static byte[] xor(byte[] src, int value) {
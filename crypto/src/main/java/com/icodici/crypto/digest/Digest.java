@@ -11,6 +11,7 @@ import net.sergeych.utils.Bytes;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Abstract base class for all MAC funtions (sha1, crc32 and so on). Provides utility interface to
@@ -122,6 +123,36 @@ public abstract class Digest {
         return digest();
     }
 
+    /**
+     * Update digest with the remaining bytes of the buffer. The buffer position is not changed. Can not be executed
+     * after any {@link #digest()} call.
+     *
+     * @param data
+     *         buffer to process from its position to its limit
+     *
+     * @return self
+     */
+    public Digest update(ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            // read-only and direct buffers have no accessible array
+            ByteBuffer src = data.duplicate();
+            byte[] chunk = new byte[Math.min(src.remaining(), 0x2000)];
+            while (src.hasRemaining()) {
+                int size = Math.min(src.remaining(), chunk.length);
+                src.get(chunk, 0, size);
+                update(chunk, 0, size);
+            }
+        }
+        return this;
+    }
+
+    public byte[] digest(ByteBuffer data) {
+        update(data);
+        return digest();
+    }
+
     public String hexDigest() {
         return new Bytes(digest()).toHex(false);
     }
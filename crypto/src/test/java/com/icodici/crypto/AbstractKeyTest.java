@@ -43,4 +43,24 @@ public class AbstractKeyTest {
         assertFalse(k1.matchAnonymousId(id2));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void publicKeyEqualityAndInterning() throws Exception {
+        PublicKey k1 = TestKeys.privateKey(0).getPublicKey();
+        byte[] packed = k1.pack();
+        PublicKey k2 = new PublicKey(packed);
+        PublicKey other = TestKeys.privateKey(1).getPublicKey();
+
+        assertEquals(k1, k2);
+        assertEquals(k1.hashCode(), k2.hashCode());
+        assertArrayEquals(k1.fingerprint(), k2.fingerprint());
+        assertFalse(k1.equals(other));
+        assertArrayEquals(packed, k2.pack());
+
+        PublicKey i1 = PublicKey.intern(packed);
+        PublicKey i2 = PublicKey.intern(packed.clone());
+        assertTrue(i1 == i2);
+        assertEquals(k1, i1);
+        assertFalse(i1 == PublicKey.intern(other.pack()));
+        assertTrue(PublicKey.getInternedCount() >= 2);
+    }
+}
@@ -13,9 +13,17 @@ import com.icodici.crypto.digest.Sha512;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import net.sergeych.tools.Do;
 import org.bouncycastle.util.encoders.Hex;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -43,6 +51,28 @@ public class SymmetricKeyTest {
         k.etaDecrypt(cipherText);
     }
 
+    @Test
+    public void etaEncryptInPlace() throws Exception {
+        SymmetricKey k = new SymmetricKey();
+        byte[] plainText = "Hello, world! Some text longer than the single AES block.".getBytes();
+        byte[] buffer = new byte[plainText.length + k.getEtaOverhead() + 10];
+        int length = k.etaEncrypt(plainText, 0, plainText.length, buffer, 3);
+        assertEquals(16 + 32 + plainText.length, length);
+
+        // compatible with the array and stream versions
+        byte[] cipherText = Arrays.copyOfRange(buffer, 3, 3 + length);
+        assertArrayEquals(plainText, k.etaDecrypt(cipherText));
+        assertArrayEquals(plainText, Do.read(k.etaDecryptStream(new ByteArrayInputStream(cipherText))));
+
+        byte[] decrypted = new byte[plainText.length + 5];
+        assertEquals(plainText.length, k.etaDecrypt(k.etaEncrypt(plainText), 0, length, decrypted, 5));
+        assertArrayEquals(plainText, Arrays.copyOfRange(decrypted, 5, decrypted.length));
+
+        exception.expect(SymmetricKey.AuthenticationFailed.class);
+        buffer[3 + 20] += 1;
+        k.etaDecrypt(buffer, 3, length, decrypted, 0);
+    }
+
     @Test
     public void testHashes() throws Exception {
         byte[] valid = Hex.decode("ba7816bf 8f01cfea 414140de 5dae2223 b00361a3 96177a9c b410ff61" +
@@ -109,6 +139,36 @@ public class SymmetricKeyTest {
         assertArrayEquals(valid, data);
     }
 
+    @Test
+    public void etaConcurrently() throws Exception {
+        SymmetricKey k = new SymmetricKey();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        byte[] data = Do.randomBytes(1 + i % 2000);
+                        byte[] encrypted = new byte[data.length + k.getEtaOverhead()];
+                        k.etaEncrypt(data, 0, data.length, encrypted, 0);
+                        byte[] decrypted = new byte[data.length];
+                        // fails with AuthenticationFailed if the other thread has spoiled the cipher state
+                        k.etaDecrypt(encrypted, 0, encrypted.length, decrypted, 0);
+                        if (!Arrays.equals(data, decrypted))
+                            return false;
+                        if (!Arrays.equals(data, k.etaDecrypt(k.etaEncrypt(data))))
+                            return false;
+                    }
+                    return true;
+                });
+            }
+            for (Future<Boolean> f : pool.invokeAll(tasks))
+                assertEquals(true, f.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void xor() throws Exception {
         byte[] test = new byte[]{0, 0x55, (byte) 0xFF};
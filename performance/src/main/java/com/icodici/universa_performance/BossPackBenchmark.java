@@ -0,0 +1,67 @@
+package com.icodici.universa_performance;
+
+import com.icodici.crypto.PrivateKey;
+import com.icodici.universa.contract.Contract;
+import net.sergeych.biserializer.BossBiMapper;
+import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares packing real contract structures with the stream {@link Boss.Writer} and with the pooled {@link
+ * Boss.BufferWriter} that {@link Boss#pack(Object)} uses. Run with {@code gradle :performance:jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BossPackBenchmark {
+
+    /**
+     * contract - serialized sealed contract with new items, transactionPack - its unpacked transaction pack.
+     */
+    @Param({"contract", "transactionPack"})
+    public String payload;
+
+    @Param({"3"})
+    public int subcontracts;
+
+    private Binder tree;
+
+    @Setup
+    public void setup() throws Exception {
+        PrivateKey key = new PrivateKey(2048);
+        Contract contract = MainClass.createComplexConctract(key, subcontracts, 1);
+        if (payload.equals("contract"))
+            tree = BossBiMapper.serialize(contract);
+        else
+            tree = Boss.unpack(contract.getPackedTransaction());
+    }
+
+    @Benchmark
+    public byte[] streamWriter() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(bos);
+        w.writeObject(tree);
+        w.close();
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] bufferWriter() {
+        return Boss.pack(tree);
+    }
+
+    @Benchmark
+    public byte[] bufferWriterPresized() {
+        Boss.BufferWriter w = new Boss.BufferWriter(0x10000);
+        w.writeObject(tree);
+        return w.toByteArray();
+    }
+}
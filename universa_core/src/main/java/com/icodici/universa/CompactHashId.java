@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa;
+
+import java.util.Arrays;
+
+/**
+ * Immutable {@link HashId} digest packed into big-endian longs, e.g. the 96 bytes composite digest takes 12 longs.
+ * Equality and ordering compare 8 bytes at once, and the ordering is the same as {@link HashId#compareTo(HashId)}
+ * gives (unsigned bytes, lexicographically). The words could be copied to any long-based storage, see {@link
+ * #getWords(long[], int)}.
+ * <p>
+ * Digests of any length are supported, the last word is padded with zero bytes, so the length is kept separately.
+ */
+public final class CompactHashId implements Comparable<CompactHashId> {
+
+    private final long[] words;
+    private final int length;
+    private final int hash;
+
+    private CompactHashId(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+        int h = length;
+        for (long w : words)
+            h = 31 * h + (int) (w ^ (w >>> 32));
+        this.hash = h;
+    }
+
+    /**
+     * @param id to pack
+     *
+     * @return compact id with the same digest
+     */
+    public static CompactHashId of(HashId id) {
+        return of(id.getDigest());
+    }
+
+    /**
+     * @param digest to pack, is not referenced after the call
+     *
+     * @return compact id with the given digest
+     */
+    public static CompactHashId of(byte[] digest) {
+        long[] words = new long[wordsFor(digest.length)];
+        for (int i = 0; i < digest.length; i++)
+            words[i >>> 3] |= (digest[i] & 0xFFL) << (56 - ((i & 7) << 3));
+        return new CompactHashId(words, digest.length);
+    }
+
+    /**
+     * @param length of the digest in bytes
+     *
+     * @return number of longs needed to hold the digest of the given length
+     */
+    public static int wordsFor(int length) {
+        return (length + 7) >>> 3;
+    }
+
+    /**
+     * @return digest length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Copy packed words to the given array.
+     *
+     * @param destination array to copy to
+     * @param offset      position in the destination to copy to, {@link #wordsFor(int)} longs are copied
+     */
+    public void getWords(long[] destination, int offset) {
+        System.arraycopy(words, 0, destination, offset, words.length);
+    }
+
+    /**
+     * @return digest bytes
+     */
+    public byte[] getDigest() {
+        byte[] digest = new byte[length];
+        for (int i = 0; i < length; i++)
+            digest[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        return digest;
+    }
+
+    /**
+     * @return {@link HashId} with the same digest
+     */
+    public HashId toHashId() {
+        return HashId.withDigest(getDigest());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj instanceof CompactHashId) {
+            CompactHashId other = (CompactHashId) obj;
+            return hash == other.hash && length == other.length && Arrays.equals(words, other.words);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(CompactHashId other) {
+        int n = Math.min(words.length, other.words.length);
+        for (int i = 0; i < n; i++) {
+            // big-endian words compared unsigned give the same order as unsigned bytes do
+            int c = Long.compareUnsigned(words[i], other.words[i]);
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(length, other.length);
+    }
+
+    @Override
+    public String toString() {
+        return toHashId().toString();
+    }
+}
@@ -17,7 +17,11 @@ import net.sergeych.tools.Do;
 import net.sergeych.utils.Base64;
 import net.sergeych.utils.Base64u;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Hash-based identity v3.
@@ -64,15 +68,33 @@ public class HashId implements Comparable<HashId> {
 
     @Override
     public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
         // Faster than compareTo:
-        if (obj instanceof HashId)
-            return Arrays.equals(digest, ((HashId) obj).digest);
+        if (obj instanceof HashId) {
+            HashId other = (HashId) obj;
+            // differing cached hashes spare us scanning the bytes
+            if (hash != 0 && other.hash != 0 && hash != other.hash)
+                return false;
+            return Arrays.equals(digest, other.digest);
+        }
         return false;
     }
 
+    /**
+     * Hash code is calculated once, the digest is never changed after initialization.
+     */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(digest);
+        int h = hash;
+        if (h == 0 && !hashIsZero) {
+            h = Arrays.hashCode(digest);
+            if (h == 0)
+                hashIsZero = true;
+            else
+                hash = h;
+        }
+        return h;
     }
 
     /**
@@ -95,6 +117,10 @@ public class HashId implements Comparable<HashId> {
 
     protected byte[] digest;
 
+    // cached hash code, like in String: zero means not calculated yet unless hashIsZero is set
+    private int hash;
+    private boolean hashIsZero;
+
     @Override
     public int compareTo(HashId other) {
         if (digest.length != other.digest.length)
@@ -144,6 +170,15 @@ public class HashId implements Comparable<HashId> {
         return id;
     }
 
+    /**
+     * Get the compact representation of this id, see {@link CompactHashId}.
+     *
+     * @return compact id with the same digest
+     */
+    public CompactHashId toCompact() {
+        return CompactHashId.of(this);
+    }
+
     public String toBase64String() {
         assert (digest != null);
         return Base64u.encodeCompactString(digest);
@@ -159,6 +194,78 @@ public class HashId implements Comparable<HashId> {
         return new HashId(data);
     }
 
+    /**
+     * Return new HashId calculating composite digest hash of the remaining bytes of the buffer. The buffer position is
+     * not changed.
+     *
+     * @param data for hashing
+     * @return HashId instance corresponding to the data
+     */
+    public static HashId of(ByteBuffer data) {
+        CompositeDigest digest = new CompositeDigest();
+        if (data.hasArray()) {
+            digest.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            ByteBuffer source = data.duplicate();
+            byte[] chunk = new byte[Math.min(source.remaining(), CompositeDigest.STREAM_CHUNK_SIZE)];
+            while (source.hasRemaining()) {
+                int size = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, size);
+                digest.update(chunk, 0, size);
+            }
+        }
+        return withDigest(digest.digest());
+    }
+
+    /**
+     * Return new HashId calculating composite digest hash of all the data of the stream. Large streams are read and
+     * hashed at the same time, see {@link CompositeDigest#PARALLEL_THRESHOLD}. The stream is not closed.
+     *
+     * @param in data for hashing
+     * @return HashId instance corresponding to the data
+     * @throws IOException if the stream could not be read
+     */
+    public static HashId of(InputStream in) throws IOException {
+        CompositeDigest digest = new CompositeDigest();
+        byte[] current = new byte[CompositeDigest.STREAM_CHUNK_SIZE];
+        byte[] next = null;
+        ForkJoinTask<?> hashing = null;
+        try {
+            int size;
+            while ((size = readChunk(in, current)) > 0) {
+                if (hashing != null)
+                    hashing.join();
+                if (!CompositeDigest.PARALLEL || (hashing == null && size < current.length)) {
+                    // nothing to overlap with
+                    digest.update(current, 0, size);
+                    hashing = null;
+                    continue;
+                }
+                byte[] chunk = current;
+                int chunkSize = size;
+                hashing = ForkJoinTask.adapt(() -> digest.update(chunk, 0, chunkSize)).fork();
+                // read the next chunk while this one is hashed
+                current = next != null ? next : new byte[chunk.length];
+                next = chunk;
+            }
+        } finally {
+            if (hashing != null)
+                hashing.join();
+        }
+        return withDigest(digest.digest());
+    }
+
+    private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int size = 0;
+        while (size < buffer.length) {
+            int n = in.read(buffer, size, buffer.length - size);
+            if (n < 0)
+                break;
+            size += n;
+        }
+        return size;
+    }
+
     static {
         DefaultBiMapper.registerAdapter(HashId.class, new BiAdapter() {
             @Override
@@ -204,19 +311,40 @@ public class HashId implements Comparable<HashId> {
      * <p>
      * The classic usage scenatio is packed data of {@link Approvable} documents.
      * <p>
+     * Updates of {@link #PARALLEL_THRESHOLD} bytes and more are processed with the 3 algorithms concurrently in the
+     * common fork-join pool, smaller ones are processed in the calling thread.
+     * <p>
      * Created by sergeych on 16/07/2017.
      */
     public static class CompositeDigest extends Digest {
 
+        /**
+         * Minimal update size to calculate 3 hashes concurrently, for smaller ones it does not pay off.
+         */
+        public static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+        static final int STREAM_CHUNK_SIZE = 1024 * 1024;
+
+        static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
         private Sha512_256 sha2Digest = new Sha512_256();
         private Sha3_256 sha3Digest = new Sha3_256();
         private Gost3411_2012_256 gostDigest = new Gost3411_2012_256();
 
         @Override
         protected void _update(byte[] data, int offset, int size) {
-            sha2Digest.update(data, offset, size);
-            sha3Digest.update(data, offset, size);
-            gostDigest.update(data, offset, size);
+            if (PARALLEL && size >= PARALLEL_THRESHOLD) {
+                // algorithms only read the data, so they could share it
+                ForkJoinTask<?> sha3 = ForkJoinTask.adapt(() -> sha3Digest.update(data, offset, size)).fork();
+                ForkJoinTask<?> gost = ForkJoinTask.adapt(() -> gostDigest.update(data, offset, size)).fork();
+                sha2Digest.update(data, offset, size);
+                gost.join();
+                sha3.join();
+            } else {
+                sha2Digest.update(data, offset, size);
+                sha3Digest.update(data, offset, size);
+                gostDigest.update(data, offset, size);
+            }
         }
 
         @Override
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Map keyed by {@link HashId} with open addressing: keys, their hash codes and values are kept in plain arrays, so
+ * there are no per-entry objects, and a lookup compares the stored hash codes before it ever compares the digests.
+ * <p>
+ * Not thread safe, like {@link java.util.HashMap}, and does not support null keys. Iterators are fail-fast and support
+ * removal.
+ *
+ * @param <V> type of values
+ */
+public class HashIdMap<V> extends AbstractMap<HashId, V> {
+
+    // marks the slot of the removed entry, so the probe sequences going through it are not broken
+    private static final HashId REMOVED = HashId.withDigest(new byte[0]);
+
+    private HashId[] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int size;
+    // live and removed slots, the table is rebuilt when it exceeds the threshold
+    private int used;
+    private int threshold;
+    private int modCount;
+
+    public HashIdMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries the map could hold without resizing
+     */
+    public HashIdMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public HashIdMap(Map<HashId, ? extends V> source) {
+        this(source.size());
+        putAll(source);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 8;
+        // keep the load under 2/3, so probe sequences stay short
+        while (capacity * 2 / 3 < expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new HashId[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        threshold = capacity * 2 / 3;
+        used = size;
+    }
+
+    private static int slotOf(int hash, int mask) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof HashId))
+            return -1;
+        int h = key.hashCode();
+        int mask = keys.length - 1;
+        int i = slotOf(h, mask);
+        HashId k;
+        while ((k = keys[i]) != null) {
+            if (k != REMOVED && hashes[i] == h && k.equals(key))
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? (V) values[i] : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(HashId key, V value) {
+        if (key == null)
+            throw new NullPointerException("HashIdMap does not support null keys");
+        int h = key.hashCode();
+        int mask = keys.length - 1;
+        int i = slotOf(h, mask);
+        int free = -1;
+        HashId k;
+        while ((k = keys[i]) != null) {
+            if (k == REMOVED) {
+                if (free < 0)
+                    free = i;
+            } else if (hashes[i] == h && k.equals(key)) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        if (free < 0) {
+            free = i;
+            used++;
+        }
+        keys[free] = key;
+        hashes[free] = h;
+        values[free] = value;
+        size++;
+        modCount++;
+        if (used > threshold)
+            // grow only if live entries take the place, otherwise just sweep out the removed slots
+            rehash(size > threshold / 2 ? keys.length << 1 : keys.length);
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V old = (V) values[i];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        keys[i] = REMOVED;
+        values[i] = null;
+        size--;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+        used = 0;
+        modCount++;
+    }
+
+    private void rehash(int capacity) {
+        HashId[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            HashId k = oldKeys[j];
+            if (k == null || k == REMOVED)
+                continue;
+            int i = slotOf(oldHashes[j], mask);
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = k;
+            hashes[i] = oldHashes[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super HashId, ? super V> action) {
+        int expectedModCount = modCount;
+        for (int i = 0; i < keys.length; i++) {
+            HashId k = keys[i];
+            if (k != null && k != REMOVED)
+                action.accept(k, (V) values[i]);
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Set<Entry<HashId, V>> entrySet() {
+        return new AbstractSet<Entry<HashId, V>>() {
+            @Override
+            public Iterator<Entry<HashId, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                HashIdMap.this.clear();
+            }
+        };
+    }
+
+    private final class Slot implements Entry<HashId, V> {
+        private final int index;
+        private final HashId key;
+
+        private Slot(int index) {
+            this.index = index;
+            this.key = keys[index];
+        }
+
+        @Override
+        public HashId getKey() {
+            return key;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V) values[index];
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = getValue();
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            V v = getValue();
+            return key.equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            V v = getValue();
+            return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<HashId, V>> {
+        private int next = -1;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                next++;
+            } while (next < keys.length && (keys[next] == null || keys[next] == REMOVED));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        @Override
+        public Entry<HashId, V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next >= keys.length)
+                throw new NoSuchElementException();
+            last = next;
+            advance();
+            return new Slot(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            // removal only marks the slot, so the iteration order is not affected
+            removeAt(last);
+            expectedModCount = modCount;
+            last = -1;
+        }
+    }
+}
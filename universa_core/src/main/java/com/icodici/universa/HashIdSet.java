@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Set of {@link HashId} backed by {@link HashIdMap}, so it has no per-element objects. Not thread safe and does not
+ * support nulls.
+ */
+public class HashIdSet extends AbstractSet<HashId> {
+
+    private static final Object PRESENT = Boolean.TRUE;
+
+    private final HashIdMap<Object> map;
+
+    public HashIdSet() {
+        map = new HashIdMap<>();
+    }
+
+    /**
+     * @param expectedSize number of elements the set could hold without resizing
+     */
+    public HashIdSet(int expectedSize) {
+        map = new HashIdMap<>(expectedSize);
+    }
+
+    public HashIdSet(Collection<? extends HashId> source) {
+        map = new HashIdMap<>(source.size());
+        addAll(source);
+    }
+
+    @Override
+    public boolean add(HashId id) {
+        return map.put(id, PRESENT) == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return map.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return map.remove(o) != null;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public Iterator<HashId> iterator() {
+        return map.keySet().iterator();
+    }
+}
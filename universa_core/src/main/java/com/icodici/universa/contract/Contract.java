@@ -38,12 +38,17 @@ import javax.script.ScriptException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.chrono.ChronoZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
@@ -698,9 +703,67 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
      * @throws Quantiser.QuantiserException when quantas limit was reached during check
      */
     public void verifySealedKeys(boolean isQuantise) throws Quantiser.QuantiserException {
+        SealedKeysVerification v = prepareSealedKeysVerification(isQuantise);
+        if (v != null) {
+            for (SignatureCheck sc : v.checks)
+                sc.verify();
+            v.complete();
+        }
+    }
+
+    /**
+     * Signature of the sealed contract to verify with a key found for it.
+     */
+    private static final class SignatureCheck {
+        private final PublicKey key;
+        private final byte[] signature;
+        private final ByteBuffer contractBytes;
+        private ExtendedSignature result;
+
+        private SignatureCheck(PublicKey key, byte[] signature, ByteBuffer contractBytes) {
+            this.key = key;
+            this.signature = signature;
+            this.contractBytes = contractBytes;
+        }
+
+        private Void verify() {
+            result = ExtendedSignature.verify(key, signature, contractBytes);
+            return null;
+        }
+    }
+
+    /**
+     * Signatures of the contract to verify. Verification could be done in any order and by any threads, then the
+     * results should be applied to the contract with {@link #complete()}.
+     */
+    private final class SealedKeysVerification {
+        private final List<SignatureCheck> checks = new ArrayList<>();
+
+        private void complete() {
+            for (SignatureCheck sc : checks) {
+                if (sc.result != null) {
+                    sealedByKeys.put(sc.key, sc.result);
+                } else
+                    addError(Errors.BAD_SIGNATURE, "keytag:" + sc.key.info().getBase64Tag(), "the signature is broken");
+            }
+            isNeedVerifySealedKeys = false;
+        }
+    }
+
+    /**
+     * Find keys for the signatures of the sealed contract and add signature check quanta (if needed), in the same order
+     * as {@link #verifySealedKeys(boolean)} does, but without verifying signatures.
+     *
+     * @param isQuantise if needed quantisation verifying signatures
+     *
+     * @return signatures to verify or null if there is nothing to verify
+     *
+     * @throws Quantiser.QuantiserException when quantas limit was reached
+     */
+    private SealedKeysVerification prepareSealedKeysVerification(boolean isQuantise) throws Quantiser.QuantiserException {
 
         if (sealedBinary == null)
-            return;
+            return null;
 
         if (!isNeedVerifySealedKeys) {
             if (isQuantise)
@@ -708,18 +771,23 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
                 for (PublicKey key : sealedByKeys.keySet())
                     if (key != null)
                         verifySignatureQuantized(key);
-            return;
+            return null;
         }
 
-        Binder data = Boss.unpack(sealedBinary);
-        if (!data.getStringOrThrow("type").equals("unicapsule"))
+        // only few fields are needed, so the contract data are neither copied nor decoded here
+        Map data = Boss.loadLazy(ByteBuffer.wrap(sealedBinary));
+        if (!"unicapsule".equals(data.get("type")))
             throw new IllegalArgumentException("wrong object type, unicapsule required");
 
-        List signatures = (List) data.getOrThrow("signatures");
+        List signatures = (List) data.get("signatures");
+        if (signatures == null)
+            throw new IllegalArgumentException("missing signatures");
         if(signatures.size() == 0)
-            return;
+            return null;
 
-        byte[] contractBytes = data.getBinaryOrThrow("data");
+        Object contractBytes = data.get("data");
+        if (!(contractBytes instanceof ByteBuffer))
+            throw new IllegalArgumentException("missing data");
 
         // fill sealedByKeys from signatures matching with roles
         HashMap<Bytes, PublicKey> keys = new HashMap<Bytes, PublicKey>();
@@ -758,9 +826,11 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
         roles.values().forEach(extractKeys);
         state.roles.values().forEach(extractKeys);
 
-        // verify signatures
+        SealedKeysVerification result = new SealedKeysVerification();
         for (Object signature : signatures) {
-            byte[] s = ((Bytes) signature).toArray();
+            ByteBuffer sb = (ByteBuffer) signature;
+            byte[] s = new byte[sb.remaining()];
+            sb.duplicate().get(s);
 
             PublicKey key = ExtendedSignature.extractPublicKey(s);
             if (key == null) {
@@ -772,15 +842,10 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
                 if (isQuantise)
                     verifySignatureQuantized(key);
 
-                ExtendedSignature es = ExtendedSignature.verify(key, s, contractBytes);
-                if (es != null) {
-                    sealedByKeys.put(key, es);
-                } else
-                    addError(Errors.BAD_SIGNATURE, "keytag:" + key.info().getBase64Tag(), "the signature is broken");
+                result.checks.add(new SignatureCheck(key, s, (ByteBuffer) contractBytes));
             }
         }
-
-        isNeedVerifySealedKeys = false;
+        return result;
     }
 
     /**
@@ -790,13 +855,44 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
      * @throws Quantiser.QuantiserException when quantas limit was reached during check
      */
     private void verifySignatures() throws Quantiser.QuantiserException {
+        ForkJoinPool pool = signatureVerifier != null ? signatureVerifier : defaultSignatureVerifier;
+        if (pool == null) {
+            verifySignaturesSequentially();
+            return;
+        }
+        // keys and quanta are processed in the tree order, exactly as sequential verification does, so quanta limit
+        // is reached at the same point; only signature verification is done in parallel. If the limit is reached, the
+        // check fails anyway, so the exception is thrown before anything is verified
+        List<SealedKeysVerification> verifications = new ArrayList<>();
+        prepareSignaturesVerification(verifications);
+
+        List<SignatureCheck> checks = new ArrayList<>();
+        verifications.forEach(v -> checks.addAll(v.checks));
+        if (checks.size() > 1) {
+            for (Future<Void> f : pool.invokeAll(checks.stream().map(sc -> (Callable<Void>) sc::verify).collect(Collectors.toList()))) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("signature verification interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("signature verification failed", e.getCause());
+                }
+            }
+        } else
+            checks.forEach(SignatureCheck::verify);
+        // errors are added in the same order as sequential verification does
+        verifications.forEach(SealedKeysVerification::complete);
+    }
+
+    private void verifySignaturesSequentially() throws Quantiser.QuantiserException {
 
         verifySealedKeys(true);
 
         // verify signatures of new items
         for (Contract c: newItems) {
             c.setQuantiser(getQuantiser());
-            c.verifySignatures();
+            c.verifySignaturesSequentially();
         }
 
         // verify signatures of revoking items
@@ -806,6 +902,65 @@ public class Contract implements Approvable, BiSerializable, Cloneable {
         }
     }
 
+    private void prepareSignaturesVerification(List<SealedKeysVerification> verifications) throws Quantiser.QuantiserException {
+        SealedKeysVerification v = prepareSealedKeysVerification(true);
+        if (v != null)
+            verifications.add(v);
+
+        for (Contract c: newItems) {
+            c.setQuantiser(getQuantiser());
+            c.prepareSignaturesVerification(verifications);
+        }
+
+        for (Contract c: revokingItems) {
+            c.setQuantiser(getQuantiser());
+            v = c.prepareSealedKeysVerification(true);
+            if (v != null)
+                verifications.add(v);
+        }
+    }
+
+    private static volatile ForkJoinPool defaultSignatureVerifier = null;
+    private ForkJoinPool signatureVerifier = null;
+
+    /**
+     * Set the pool {@link #check(String)} uses to verify signatures of the contract and all its sub-items in parallel,
+     * so a transaction with many signed sub-contracts is verified in about the time of the slowest signature. Quanta
+     * are calculated exactly as with sequential verification, and, unless the quanta limit is reached, errors are
+     * reported the same way too.
+     *
+     * @param pool to verify signatures in, null to verify them sequentially in the calling thread (default)
+     */
+    public static void setDefaultSignatureVerifier(ForkJoinPool pool) {
+        defaultSignatureVerifier = pool;
+    }
+
+    /**
+     * @return pool to verify signatures in, or null if they are verified sequentially
+     */
+    public static ForkJoinPool getDefaultSignatureVerifier() {
+        return defaultSignatureVerifier;
+    }
+
+    /**
+     * Same as {@link #check(String)}, but verifies signatures of the contract and all its sub-items in parallel in the
+     * given pool rather than in the default one set with {@link #setDefaultSignatureVerifier(ForkJoinPool)}.
+     *
+     * @param prefix is included in errors text. Used to differ errors found in contract from errors of subcontracts (revoking,new)
+     * @param signatureVerifier pool to verify signatures in
+     * @throws Quantiser.QuantiserException when quantas limit was reached during check
+     * @return if check was successful
+     */
+    public boolean check(String prefix, ForkJoinPool signatureVerifier) throws Quantiser.QuantiserException {
+        ForkJoinPool saved = this.signatureVerifier;
+        this.signatureVerifier = signatureVerifier;
+        try {
+            return check(prefix);
+        } finally {
+            this.signatureVerifier = saved;
+        }
+    }
+
 
     /**
      * Check contract for errors. This includes checking contract state modification, checking new items, revoke permissions and references acceptance.
@@ -14,6 +14,7 @@ import net.sergeych.boss.Boss;
 import net.sergeych.tools.Binder;
 import net.sergeych.utils.Bytes;
 
+import java.nio.ByteBuffer;
 import java.time.ZonedDateTime;
 
 /**
@@ -165,7 +166,7 @@ public class ExtendedSignature {
         Binder b = Boss.unpack(exts);
         try {
             byte[] publicKeyBytes = b.getBinaryOrThrow("pub_key");
-            publicKey = new PublicKey(publicKeyBytes);
+            publicKey = PublicKey.intern(publicKeyBytes);
         } catch (EncryptionError e) {
             publicKey = null;
         } catch (IllegalArgumentException e) {
@@ -176,6 +177,31 @@ public class ExtendedSignature {
     }
 
 
+    /**
+     * Default number of the valid signatures remembered by {@link #verify(PublicKey, byte[], byte[])}.
+     */
+    public static final int DEFAULT_VERIFIED_CACHE_SIZE = 10_000;
+
+    private static volatile VerifiedSignatureCache verifiedCache = new VerifiedSignatureCache(DEFAULT_VERIFIED_CACHE_SIZE);
+
+    /**
+     * Set the number of signatures {@link #verify(PublicKey, byte[], byte[])} remembers as valid, to not verify them
+     * again for the same key and the same data. The cache is dropped.
+     *
+     * @param size maximum number of the cached signatures, 0 to not cache them
+     */
+    public static void setVerifiedCacheSize(int size) {
+        verifiedCache = size > 0 ? new VerifiedSignatureCache(size) : null;
+    }
+
+    /**
+     * @return size and hit rate of the verified signatures cache, or null if the cache is disabled
+     */
+    public static Binder getVerifiedCacheStats() {
+        VerifiedSignatureCache cache = verifiedCache;
+        return cache != null ? cache.getStats() : null;
+    }
+
     private byte[] signature;
     public byte[] getSignature() {
         return signature;
@@ -184,6 +210,9 @@ public class ExtendedSignature {
     /**
      * Unpack and the extended signature. On success, returns instance of the {@link ExtendedSignature} with a decoded
      * timestamp, {@link #getCreatedAt()}
+     * <p>
+     * Valid signatures are remembered (see {@link #setVerifiedCacheSize(int)}), and the same signature of the same data
+     * is not checked again, the same instance is returned instead.
      *
      * @param key       to verify signature with
      * @param signature the binary extended signature
@@ -192,6 +221,35 @@ public class ExtendedSignature {
      * @return null if the signature is invalud, {@link ExtendedSignature} instance on success.
      */
     public static ExtendedSignature verify(PublicKey key, byte[] signature, byte[] data) {
+        return verify(key, signature, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Verify the extended signature of the data held by the buffer, e.g. the slice of the packed contract, so it need
+     * not be copied. See {@link #verify(PublicKey, byte[], byte[])}.
+     *
+     * @param key       to verify signature with
+     * @param signature the binary extended signature
+     * @param data      signed data from its position to its limit, the position is not changed
+     *
+     * @return null if the signature is invalud, {@link ExtendedSignature} instance on success.
+     */
+    public static ExtendedSignature verify(PublicKey key, byte[] signature, ByteBuffer data) {
+        byte[] dataSha512 = new Sha512().digest(data);
+        VerifiedSignatureCache cache = verifiedCache;
+        if (cache == null)
+            return verify(key, signature, data, dataSha512);
+        Bytes cacheKey = VerifiedSignatureCache.keyOf(key, signature, dataSha512);
+        ExtendedSignature es = cache.get(cacheKey);
+        if (es == null) {
+            es = verify(key, signature, data, dataSha512);
+            if (es != null)
+                cache.put(cacheKey, es);
+        }
+        return es;
+    }
+
+    private static ExtendedSignature verify(PublicKey key, byte[] signature, ByteBuffer data, byte[] dataSha512) {
         try {
             Binder src = Boss.unpack(signature);
             ExtendedSignature es = new ExtendedSignature();
@@ -226,12 +284,12 @@ public class ExtendedSignature {
                 es.publicKey = null;
                 try {
                     byte[] publicKeyBytes = b.getBinaryOrThrow("pub_key");
-                    es.publicKey = new PublicKey(publicKeyBytes);
+                    es.publicKey = PublicKey.intern(publicKeyBytes);
                 } catch (IllegalArgumentException e) {
                     es.publicKey = null;
                 }
                 Bytes hash = b.getBytesOrThrow("sha512");
-                Bytes dataHash = new Bytes(new Sha512().digest(data));
+                Bytes dataHash = new Bytes(dataSha512);
                 boolean isHashValid = hash.equals(dataHash);
                 Bytes hash2 = null;
                 boolean isHash2Valid = true;
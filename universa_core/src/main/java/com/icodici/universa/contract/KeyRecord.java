@@ -55,12 +55,12 @@ public class KeyRecord extends Binder implements BiSerializable {
             } else if (x instanceof PrivateKey) {
                 publicKey = ((PrivateKey) x).getPublicKey();
             } else if (x instanceof String) {
-                publicKey = new PublicKey(Base64u.decodeCompactString((String) x));
+                publicKey = PublicKey.intern(Base64u.decodeCompactString((String) x));
             } else {
                 if (x instanceof Bytes)
                     x = ((Bytes) x).toArray();
                 if (x instanceof byte[]) {
-                    publicKey = new PublicKey((byte[]) x);
+                    publicKey = PublicKey.intern((byte[]) x);
                 } else {
                     throw new IllegalArgumentException("unsupported key object: " + x.getClass().getName());
                 }
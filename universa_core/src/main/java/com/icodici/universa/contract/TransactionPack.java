@@ -267,7 +267,7 @@ public class TransactionPack implements BiSerializable {
                     if (x instanceof Bytes)
                         x = ((Bytes) x).toArray();
                     if (x instanceof byte[]) {
-                        keysForPack.add(new PublicKey((byte[]) x));
+                        keysForPack.add(PublicKey.intern((byte[]) x));
                     } else {
                         throw new IllegalArgumentException("unsupported key object: " + x.getClass().getName());
                     }
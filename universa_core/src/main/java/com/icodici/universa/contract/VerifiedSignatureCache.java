@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa.contract;
+
+import com.icodici.crypto.PublicKey;
+import com.icodici.crypto.digest.Digest;
+import com.icodici.crypto.digest.Sha256;
+import net.sergeych.tools.Binder;
+import net.sergeych.utils.Bytes;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of the signatures already proven valid, so the same signature of the same data is not verified with
+ * RSA again. The entry is keyed by the digest of the key fingerprint, the packed signature and the data digest, so it
+ * is found only for exactly the same bytes. Only valid signatures are cached.
+ * <p>
+ * When the cache is full, an arbitrary part of the entries is dropped, so the cache takes no locks on lookup.
+ */
+final class VerifiedSignatureCache {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Bytes, ExtendedSignature> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    VerifiedSignatureCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key        signature is verified with
+     * @param signature  packed extended signature
+     * @param dataSha512 SHA-512 digest of the signed data
+     *
+     * @return the cache key
+     */
+    static Bytes keyOf(PublicKey key, byte[] signature, byte[] dataSha512) {
+        Digest d = new Sha256();
+        d.update(key.fingerprint());
+        d.update(signature);
+        d.update(dataSha512);
+        return new Bytes(d.digest());
+    }
+
+    ExtendedSignature get(Bytes cacheKey) {
+        ExtendedSignature es = entries.get(cacheKey);
+        if (es != null)
+            hitCount.increment();
+        else
+            missCount.increment();
+        return es;
+    }
+
+    void put(Bytes cacheKey, ExtendedSignature es) {
+        entries.put(cacheKey, es);
+        if (entries.size() > maxSize)
+            evict();
+    }
+
+    private void evict() {
+        if (!evictionLock.tryLock())
+            return;
+        try {
+            // drop 1/8 at once so we do not come here on every put
+            int target = maxSize - maxSize / 8;
+            Iterator<Bytes> it = entries.keySet().iterator();
+            while (entries.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictionCount.increment();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    Binder getStats() {
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+        return Binder.of(
+                "size", entries.size(),
+                "maxSize", maxSize,
+                "hits", hits,
+                "misses", misses,
+                "hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0,
+                "evictions", evictionCount.sum()
+        );
+    }
+}
@@ -2,22 +2,24 @@ package com.icodici.universa.contract.jsapi;
 
 import com.icodici.universa.HashId;
 import com.icodici.universa.contract.Contract;
-import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import net.sergeych.tools.Binder;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
+import javax.script.Bindings;
 import javax.script.ScriptException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client javascript executed in the context of the contract. Scripts are run by {@link JSApiScriptExecutor} workers,
+ * which reuse their engines and compiled scripts, each execution has its own global bindings kept here to call the
+ * script events later.
+ */
 public class JSApiEnvironment {
 
     private Contract currentContract;
     private JSApiScriptParameters scriptParameters;
     private JSApi jsApi;
-    private ScriptEngine scriptEngine;
+    private Bindings bindings;
     private Object result;
     private String handlerMethodName;
     private HashId slotId;
@@ -57,7 +59,7 @@ public class JSApiEnvironment {
         if (scriptBinder == null)
             scriptBinder = JSApiHelpers.findScriptBinder(stateScripts, jsFileHashId);
         if (scriptBinder != null) {
-            return execJSImpl(execOptions, jsFileContent, currentContract, scriptBinder, params);
+            return execJSImpl(execOptions, jsFileContent, jsFileHashId, currentContract, scriptBinder, params);
         } else {
             throw new IllegalArgumentException("error: cant exec javascript, script hash not found in contract.");
         }
@@ -71,7 +73,7 @@ public class JSApiEnvironment {
             scriptBinder = JSApiHelpers.findScriptBinder(stateScripts, jsFileHashId);
         if (scriptBinder != null) {
             byte[] jsFileContent = scriptBinder.getBinaryOrThrow("file_content");
-            return execJSImpl(execOptions, jsFileContent, currentContract, scriptBinder, params);
+            return execJSImpl(execOptions, jsFileContent, null, currentContract, scriptBinder, params);
         } else {
             throw new IllegalArgumentException("error: cant exec javascript, script hash not found in contract.");
         }
@@ -85,7 +87,7 @@ public class JSApiEnvironment {
             scriptBinder = JSApiHelpers.findScriptBinderByFileName(stateScripts, jsFileName);
         if (scriptBinder != null) {
             byte[] jsFileContent = scriptBinder.getBinaryOrThrow("file_content");
-            JSApiEnvironment res = execJSImpl(execOptions, jsFileContent, currentContract, scriptBinder, params);
+            JSApiEnvironment res = execJSImpl(execOptions, jsFileContent, null, currentContract, scriptBinder, params);
             res.jsFileName = jsFileName;
             return res;
         } else {
@@ -93,48 +95,43 @@ public class JSApiEnvironment {
         }
     }
 
-    private static JSApiEnvironment execJSImpl(JSApiExecOptions execOptions, byte[] jsFileContent, Contract currentContract,
-                                               Binder scriptBinder, String... params) throws Exception {
+    /**
+     * @param jsFileHashId hash of the jsFileContent if it is already calculated, or null. It could not be taken from
+     *                     the script binder, as nothing guarantees the content there matches it, while the compiled
+     *                     script is cached by it
+     */
+    private static JSApiEnvironment execJSImpl(JSApiExecOptions execOptions, byte[] jsFileContent, HashId jsFileHashId,
+                                               Contract currentContract, Binder scriptBinder, String... params) throws Exception {
         JSApiEnvironment environment = new JSApiEnvironment();
         environment.currentContract = currentContract;
         environment.scriptParameters = JSApiScriptParameters.fromBinder(scriptBinder);
-        environment.scriptEngine = new NashornScriptEngineFactory().getScriptEngine(s -> false);
         environment.jsApi = new JSApi(currentContract, execOptions, environment.scriptParameters);
-        environment.scriptEngine.put("jsApi", environment.jsApi);
         String[] stringParams = new String[params.length];
         for (int i = 0; i < params.length; ++i)
             stringParams[i] = params[i].toString();
-        environment.scriptEngine.put("jsApiParams", stringParams);
         environment.stringParams = stringParams;
-        String jsString = JSApiHelpers.unpackJSString(scriptBinder, jsFileContent);
-        List<Exception> exceptionsFromEval = new ArrayList<>();
-        Thread evalThread = new Thread(()-> {
-            try {
-                environment.scriptEngine.eval(jsString);
-            } catch (Exception e) {
-                exceptionsFromEval.add(e);
-            }
-        });
-        evalThread.start();
-        if (environment.scriptParameters.timeLimitMillis == 0) {
-            evalThread.join();
-        } else {
-            try {
-                evalThread.join(environment.scriptParameters.timeLimitMillis);
-                if (evalThread.isAlive())
-                    throw new InterruptedException("error: client javascript time limit is up (limit=" + environment.scriptParameters.timeLimitMillis + "ms)");
-            } catch (InterruptedException e) {
-                throw new InterruptedException("error: client javascript was interrupted (limit=" + environment.scriptParameters.timeLimitMillis + "ms)");
-            }
-        }
-        if (exceptionsFromEval.size() > 0) {
-            Exception e = exceptionsFromEval.get(0);
-            throw e;
-        }
-        environment.result = environment.scriptEngine.get("result");
+        Map<String, Object> globals = new HashMap<>();
+        globals.put("jsApi", environment.jsApi);
+        globals.put("jsApiParams", stringParams);
+        HashId scriptId = jsFileHashId != null ? jsFileHashId : HashId.of(jsFileContent);
+        int timeLimitMillis = environment.scriptParameters.timeLimitMillis;
+        environment.bindings = JSApiScriptExecutor.run(
+                () -> JSApiScriptExecutor.evaluate(scriptId, environment.scriptParameters.isCompressed,
+                        () -> JSApiHelpers.unpackJSString(scriptBinder, jsFileContent), globals),
+                timeLimitMillis,
+                "error: client javascript time limit is up (limit=" + timeLimitMillis + "ms)",
+                "error: client javascript was interrupted (limit=" + timeLimitMillis + "ms)");
+        environment.result = environment.bindings.get("result");
         return environment;
     }
 
+    /**
+     * @return script workers, compiled scripts cache usage and number of executions over the time limit
+     */
+    public static Binder getExecutorStats() {
+        return JSApiScriptExecutor.getStats();
+    }
+
     public void updateThisEnvironmentByName(Contract newContract, JSApiExecOptions execOptions) throws Exception {
         JSApiEnvironment env = execJSByName(
                 newContract.getDefinition().getData().getBinder(Contract.JSAPI_SCRIPT_FIELD, null),
@@ -145,56 +142,42 @@ public class JSApiEnvironment {
                 stringParams
         );
         this.jsApi = env.jsApi;
-        this.scriptEngine = env.scriptEngine;
+        this.bindings = env.bindings;
         this.currentContract = env.currentContract;
         this.result = env.result;
     }
 
     public Object callEvent(String eventName, Boolean silently, Object... params) throws InterruptedException {
-        ConcurrentLinkedQueue<Object> mainResContainer = new ConcurrentLinkedQueue<>();
-        Thread evalThread = new Thread(()-> {
-            try {
-                Object jsApiEvents = scriptEngine.get("jsApiEvents");
-                if (jsApiEvents == null) {
-                    if (!silently)
-                        System.err.println("JSApiHttpServer error: jsApiEvents object not found in client javascript");
-                    if (result != null)
-                        mainResContainer.add(result);
-                } else {
-                    Invocable invocable = (Invocable) scriptEngine;
-                    Object mainRes = invocable.invokeMethod(
-                            jsApiEvents,
-                            eventName,
-                            params
-                    );
-                    if (mainRes != null)
-                        mainResContainer.add(mainRes);
-                }
-            } catch (NoSuchMethodException e) {
-                if (!silently)
-                    System.err.println("JSApiEnvironment error(NoSuchMethodException) -  " + eventName + ": " + e);
-                if (result != null)
-                    mainResContainer.add(result);
-            } catch (ScriptException e) {
-                System.err.println("JSApiEnvironment error: " + e);
-                e.printStackTrace();
-            }
-        });
-        evalThread.start();
-        if (scriptParameters.timeLimitMillis == 0) {
-            evalThread.join();
-        } else {
-            try {
-                evalThread.join(scriptParameters.timeLimitMillis);
-                if (evalThread.isAlive())
-                    throw new InterruptedException("error: client javascript (eventName:"+eventName+") time limit is up (limit=" + scriptParameters.timeLimitMillis + "ms)");
-            } catch (InterruptedException e) {
-                throw new InterruptedException("error: client javascript (eventName:"+eventName+") was interrupted (limit=" + scriptParameters.timeLimitMillis + "ms)");
-            }
-        }
-        if (mainResContainer.isEmpty())
+        try {
+            return JSApiScriptExecutor.run(() -> {
+                        try {
+                            if (bindings.get("jsApiEvents") == null) {
+                                if (!silently)
+                                    System.err.println("JSApiHttpServer error: jsApiEvents object not found in client javascript");
+                                return result;
+                            }
+                            return JSApiScriptExecutor.invoke(bindings, "jsApiEvents", eventName, params);
+                        } catch (NoSuchMethodException e) {
+                            if (!silently)
+                                System.err.println("JSApiEnvironment error(NoSuchMethodException) -  " + eventName + ": " + e);
+                            return result;
+                        } catch (ScriptException e) {
+                            System.err.println("JSApiEnvironment error: " + e);
+                            e.printStackTrace();
+                            return null;
+                        }
+                    },
+                    scriptParameters.timeLimitMillis,
+                    "error: client javascript (eventName:" + eventName + ") time limit is up (limit=" + scriptParameters.timeLimitMillis + "ms)",
+                    "error: client javascript (eventName:" + eventName + ") was interrupted (limit=" + scriptParameters.timeLimitMillis + "ms)");
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // unexpected failure of the event handler gives no result, as it always did
+            System.err.println("JSApiEnvironment error: " + e);
+            e.printStackTrace();
             return null;
-        return mainResContainer.poll();
+        }
     }
 
 }
@@ -0,0 +1,195 @@
+package com.icodici.universa.contract.jsapi;
+
+import com.icodici.universa.HashId;
+import jdk.nashorn.api.scripting.JSObject;
+import jdk.nashorn.api.scripting.NashornException;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import net.sergeych.tools.Binder;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs client javascripts on the reused worker threads. Each worker holds its own Nashorn engine, created once, and the
+ * cache of the scripts compiled with it, so executions neither create engines and threads nor parse the same script
+ * again. Every execution gets its own global bindings, so scripts never see the state of each other.
+ * <p>
+ * There are at most {@link #MAX_WORKERS} workers. Nashorn can't stop a running script, so the script that is over its
+ * time limit is interrupted (which stops it in any blocking call) and left to finish in its worker, and when all the
+ * workers are busy this way, the execution gets a thread of its own as it was before.
+ */
+final class JSApiScriptExecutor {
+
+    static final int MAX_WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Compiled scripts cached by each worker.
+     */
+    static final int COMPILED_CACHE_SIZE = 64;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadFactory threadFactory = r -> {
+        Thread t = new Thread(r, "jsapi-" + threadCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    };
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(), MAX_WORKERS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), threadFactory,
+            (task, pool) -> threadFactory.newThread(task).start());
+
+    private static final ThreadLocal<Worker> worker = ThreadLocal.withInitial(Worker::new);
+
+    private static final LongAdder compiledHits = new LongAdder();
+    private static final LongAdder compiledMisses = new LongAdder();
+    private static final LongAdder timeouts = new LongAdder();
+
+    private JSApiScriptExecutor() {
+    }
+
+    private static final class Worker {
+        private final ScriptEngine engine = new NashornScriptEngineFactory().getScriptEngine(s -> false);
+        private final Map<HashId, CachedScript> compiled = new LinkedHashMap<HashId, CachedScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HashId, CachedScript> eldest) {
+                return size() > COMPILED_CACHE_SIZE;
+            }
+        };
+    }
+
+    private static final class CachedScript {
+        private final boolean compressed;
+        private final CompiledScript script;
+
+        private CachedScript(boolean compressed, CompiledScript script) {
+            this.compressed = compressed;
+            this.script = script;
+        }
+    }
+
+    /**
+     * Evaluate the script in the fresh bindings in the calling thread, which should be the worker.
+     *
+     * @param scriptId   hash of the script file content, the compiled script is cached by it
+     * @param compressed true if the file content is compressed, the same content means different script then
+     * @param source     provides script source if it is not compiled yet
+     * @param globals    variables to put into bindings before evaluation
+     *
+     * @return bindings the script is evaluated in
+     */
+    static Bindings evaluate(HashId scriptId, boolean compressed, Supplier<String> source,
+                              Map<String, Object> globals) throws Exception {
+        Worker w = worker.get();
+        CachedScript cs = w.compiled.get(scriptId);
+        if (cs == null || cs.compressed != compressed) {
+            compiledMisses.increment();
+            cs = new CachedScript(compressed, ((Compilable) w.engine).compile(source.get()));
+            w.compiled.put(scriptId, cs);
+        } else {
+            compiledHits.increment();
+        }
+        Bindings bindings = w.engine.createBindings();
+        bindings.putAll(globals);
+        cs.script.eval(bindings);
+        return bindings;
+    }
+
+    /**
+     * Call the method of the object the evaluated script has put into its bindings, in the calling thread, which should
+     * be the worker. The engine of the worker that evaluated the script is not touched: the call runs in the script own
+     * global, as the engine of the other worker can't call the objects of the foreign one.
+     *
+     * @param bindings   returned by {@link #evaluate(HashId, boolean, Supplier, Map)}
+     * @param objectName name of the object in the bindings
+     * @param methodName method to call
+     * @param params     method parameters
+     *
+     * @return result of the method
+     *
+     * @throws NoSuchMethodException if there is no such object or its method
+     * @throws ScriptException       if the method failed
+     */
+    static Object invoke(Bindings bindings, String objectName, String methodName, Object... params)
+            throws NoSuchMethodException, ScriptException {
+        Object object = bindings.get(objectName);
+        if (!(object instanceof JSObject))
+            throw new NoSuchMethodException("no object " + objectName);
+        Object method = ((JSObject) object).getMember(methodName);
+        if (!(method instanceof JSObject) || !((JSObject) method).isFunction())
+            throw new NoSuchMethodException("no method " + objectName + "." + methodName);
+        try {
+            return ((JSObject) method).call(object, params);
+        } catch (NashornException e) {
+            ScriptException se = new ScriptException(e.getMessage(), e.getFileName(), e.getLineNumber(), e.getColumnNumber());
+            se.initCause(e);
+            throw se;
+        }
+    }
+
+    /**
+     * Run the task in the worker and wait for it no longer than the time limit.
+     *
+     * @param task               to run
+     * @param timeLimitMillis    maximum time to wait, 0 for no limit
+     * @param timeLimitMessage   message of {@link InterruptedException} thrown when time is up
+     * @param interruptedMessage message of {@link InterruptedException} thrown when the caller is interrupted
+     *
+     * @return task result
+     *
+     * @throws Exception thrown by the task
+     */
+    static <T> T run(Callable<T> task, int timeLimitMillis, String timeLimitMessage, String interruptedMessage)
+            throws Exception {
+        Future<T> future = executor.submit(task);
+        try {
+            if (timeLimitMillis == 0)
+                return future.get();
+            return future.get(timeLimitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            future.cancel(true);
+            throw new InterruptedException(timeLimitMessage);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new InterruptedException(interruptedMessage);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * @return workers, compiled scripts cache usage and number of executions over the time limit
+     */
+    static Binder getStats() {
+        return Binder.of(
+                "workers", executor.getPoolSize(),
+                "activeWorkers", executor.getActiveCount(),
+                "maxWorkers", MAX_WORKERS,
+                "compiledHits", compiledHits.sum(),
+                "compiledMisses", compiledMisses.sum(),
+                "timeouts", timeouts.sum()
+        );
+    }
+}
@@ -71,6 +71,22 @@ public class Config {
         config.maxDownloadOnApproveTime = maxDownloadOnApproveTime;
         config.declinedItemExpiration = declinedItemExpiration;
         config.maxCacheAge = maxCacheAge;
+        config.maxItemCacheWeight = maxItemCacheWeight;
+        config.itemCacheFrequencyAdmission = itemCacheFrequencyAdmission;
+        config.ledgerFlushWindow = ledgerFlushWindow;
+        config.ledgerMaxBatchSize = ledgerMaxBatchSize;
+        config.ledgerBatchLockTimeout = ledgerBatchLockTimeout;
+        config.ledgerCacheSize = ledgerCacheSize;
+        config.ledgerCleanupInterval = ledgerCleanupInterval;
+        config.ledgerCleanupChunkSize = ledgerCleanupChunkSize;
+        config.ledgerCleanupTimeBudget = ledgerCleanupTimeBudget;
+        config.ledgerCleanupChunkPause = ledgerCleanupChunkPause;
+        config.ledgerItemsPartitionSpan = ledgerItemsPartitionSpan;
+        config.ledgerItemsCompression = ledgerItemsCompression;
+        config.notificationBatchWindow = notificationBatchWindow;
+        config.notificationMaxBatchSize = notificationMaxBatchSize;
+        config.signatureVerificationThreads = signatureVerificationThreads;
+        config.verifiedSignatureCacheSize = verifiedSignatureCacheSize;
         config.maxNameCacheAge = maxNameCacheAge;
         config.maxGetItemTime = maxGetItemTime;
         config.statsIntervalSmall = statsIntervalSmall;
@@ -195,6 +211,23 @@ public class Config {
 
     private Duration declinedItemExpiration = Duration.ofDays(10);
     private Duration maxCacheAge = Duration.ofMinutes(20);
+    private long maxItemCacheWeight = 256L * 1024 * 1024;
+    private boolean itemCacheFrequencyAdmission = false;
+    private Duration ledgerFlushWindow = Duration.ZERO;
+    private int ledgerMaxBatchSize = 256;
+    private Duration ledgerBatchLockTimeout = Duration.ofMillis(50);
+    private int ledgerCacheSize = 100_000;
+    private Duration ledgerCleanupInterval = Duration.ofMinutes(1);
+    private int ledgerCleanupChunkSize = 1000;
+    private Duration ledgerCleanupTimeBudget = Duration.ofSeconds(10);
+    private Duration ledgerCleanupChunkPause = Duration.ofMillis(20);
+    private Duration ledgerItemsPartitionSpan = Duration.ZERO;
+    private boolean ledgerItemsCompression = true;
+    private Duration notificationBatchWindow = Duration.ofMillis(2);
+    private int notificationMaxBatchSize = 32;
+    private int signatureVerificationThreads = Runtime.getRuntime().availableProcessors() > 1 ?
+            Math.min(8, Runtime.getRuntime().availableProcessors()) : 0;
+    private int verifiedSignatureCacheSize = 10_000;
     private Duration maxDiskCacheAge = Duration.ofMinutes(40);
     private Duration maxNameCacheAge = Duration.ofMinutes(5);
     private Duration statsIntervalSmall = Duration.ofSeconds(30);
@@ -345,6 +378,222 @@ public class Config {
         this.maxCacheAge = maxCacheAge;
     }
 
+    /**
+     * Get maximum total weight of the items kept in the node item cache. The weight of an item is estimated by the size
+     * of its packed transaction.
+     *
+     * @return maximum weight in bytes
+     */
+    public long getMaxItemCacheWeight() {
+        return maxItemCacheWeight;
+    }
+
+    public void setMaxItemCacheWeight(long maxItemCacheWeight) {
+        this.maxItemCacheWeight = maxItemCacheWeight;
+    }
+
+    /**
+     * Whether item cache should use frequency based (TinyLFU) admission when it is full, instead of plain LRU. Note that
+     * with TinyLFU a fresh item could be rejected by the full cache while it is still being voted on, so other nodes
+     * would have to download it again.
+     *
+     * @return true if frequency admission is enabled
+     */
+    public boolean isItemCacheFrequencyAdmission() {
+        return itemCacheFrequencyAdmission;
+    }
+
+    public void setItemCacheFrequencyAdmission(boolean itemCacheFrequencyAdmission) {
+        this.itemCacheFrequencyAdmission = itemCacheFrequencyAdmission;
+    }
+
+    /**
+     * Get time the ledger collects concurrent record writes before sending them to the database as one batch. Zero
+     * means only writes queued while the previous batch was executing are batched together.
+     *
+     * @return flush window
+     */
+    public Duration getLedgerFlushWindow() {
+        return ledgerFlushWindow;
+    }
+
+    public void setLedgerFlushWindow(Duration ledgerFlushWindow) {
+        this.ledgerFlushWindow = ledgerFlushWindow;
+    }
+
+    /**
+     * Get maximum number of record writes the ledger sends to the database in one batch.
+     *
+     * @return maximum batch size, 0 means batching is disabled
+     */
+    public int getLedgerMaxBatchSize() {
+        return ledgerMaxBatchSize;
+    }
+
+    public void setLedgerMaxBatchSize(int ledgerMaxBatchSize) {
+        this.ledgerMaxBatchSize = ledgerMaxBatchSize;
+    }
+
+    /**
+     * Get how long the batch of record writes waits for the row locks, then it is rolled back and its writes are
+     * performed one by one by their callers.
+     *
+     * @return lock timeout of the batch
+     */
+    public Duration getLedgerBatchLockTimeout() {
+        return ledgerBatchLockTimeout;
+    }
+
+    public void setLedgerBatchLockTimeout(Duration ledgerBatchLockTimeout) {
+        this.ledgerBatchLockTimeout = ledgerBatchLockTimeout;
+    }
+
+    /**
+     * Get maximum number of ledger records the node keeps in memory.
+     *
+     * @return records cache size
+     */
+    public int getLedgerCacheSize() {
+        return ledgerCacheSize;
+    }
+
+    public void setLedgerCacheSize(int ledgerCacheSize) {
+        this.ledgerCacheSize = ledgerCacheSize;
+    }
+
+    /**
+     * Get how often the node runs the incremental cleanup of the expired ledger data.
+     *
+     * @return cleanup interval
+     */
+    public Duration getLedgerCleanupInterval() {
+        return ledgerCleanupInterval;
+    }
+
+    public void setLedgerCleanupInterval(Duration ledgerCleanupInterval) {
+        if (ledgerCleanupInterval.toMillis() <= 0)
+            throw new IllegalArgumentException("ledger cleanup interval should be positive: " + ledgerCleanupInterval);
+        this.ledgerCleanupInterval = ledgerCleanupInterval;
+    }
+
+    /**
+     * Get maximum number of rows the ledger cleanup deletes in one transaction.
+     *
+     * @return chunk size
+     */
+    public int getLedgerCleanupChunkSize() {
+        return ledgerCleanupChunkSize;
+    }
+
+    public void setLedgerCleanupChunkSize(int ledgerCleanupChunkSize) {
+        this.ledgerCleanupChunkSize = ledgerCleanupChunkSize;
+    }
+
+    /**
+     * Get maximum time one run of the ledger cleanup works. What is left is deleted by the next runs.
+     *
+     * @return time budget, zero means the run deletes everything expired
+     */
+    public Duration getLedgerCleanupTimeBudget() {
+        return ledgerCleanupTimeBudget;
+    }
+
+    public void setLedgerCleanupTimeBudget(Duration ledgerCleanupTimeBudget) {
+        this.ledgerCleanupTimeBudget = ledgerCleanupTimeBudget;
+    }
+
+    /**
+     * Get pause the ledger cleanup makes between the chunks, so it leaves the database to the live writes.
+     *
+     * @return pause between the chunks
+     */
+    public Duration getLedgerCleanupChunkPause() {
+        return ledgerCleanupChunkPause;
+    }
+
+    public void setLedgerCleanupChunkPause(Duration ledgerCleanupChunkPause) {
+        this.ledgerCleanupChunkPause = ledgerCleanupChunkPause;
+    }
+
+    /**
+     * Get keepTill range of one partition of the ledger items table. Expired items are then dropped with their partition
+     * rather than deleted one by one.
+     *
+     * @return partition span, zero means items table is not partitioned
+     */
+    public Duration getLedgerItemsPartitionSpan() {
+        return ledgerItemsPartitionSpan;
+    }
+
+    public void setLedgerItemsPartitionSpan(Duration ledgerItemsPartitionSpan) {
+        this.ledgerItemsPartitionSpan = ledgerItemsPartitionSpan;
+    }
+
+    /**
+     * Get whether the ledger compresses packed transactions it stores. Compressed ones are read in any case.
+     *
+     * @return true if stored items are compressed
+     */
+    public boolean isLedgerItemsCompression() {
+        return ledgerItemsCompression;
+    }
+
+    public void setLedgerItemsCompression(boolean ledgerItemsCompression) {
+        this.ledgerItemsCompression = ledgerItemsCompression;
+    }
+
+    /**
+     * Get time the node collects notifications to the same node before sending them together in one datagram.
+     *
+     * @return batching window, zero means each notification is sent at once in its own datagram
+     */
+    public Duration getNotificationBatchWindow() {
+        return notificationBatchWindow;
+    }
+
+    public void setNotificationBatchWindow(Duration notificationBatchWindow) {
+        this.notificationBatchWindow = notificationBatchWindow;
+    }
+
+    /**
+     * Get maximum number of notifications sent to the node in one datagram.
+     *
+     * @return maximum batch size
+     */
+    public int getNotificationMaxBatchSize() {
+        return notificationMaxBatchSize;
+    }
+
+    public void setNotificationMaxBatchSize(int notificationMaxBatchSize) {
+        this.notificationMaxBatchSize = notificationMaxBatchSize;
+    }
+
+    /**
+     * Get number of threads used to verify signatures of the contract and its sub-items in parallel.
+     *
+     * @return number of threads, 0 means signatures are verified sequentially by the checking thread
+     */
+    public int getSignatureVerificationThreads() {
+        return signatureVerificationThreads;
+    }
+
+    public void setSignatureVerificationThreads(int signatureVerificationThreads) {
+        this.signatureVerificationThreads = signatureVerificationThreads;
+    }
+
+    /**
+     * Get number of valid signatures remembered to not verify them again when the same contract is checked again.
+     *
+     * @return cache size, 0 means signatures are always verified
+     */
+    public int getVerifiedSignatureCacheSize() {
+        return verifiedSignatureCacheSize;
+    }
+
+    public void setVerifiedSignatureCacheSize(int verifiedSignatureCacheSize) {
+        this.verifiedSignatureCacheSize = verifiedSignatureCacheSize;
+    }
+
     public Duration getMaxGetItemTime() {
         return maxGetItemTime;
     }
@@ -29,6 +29,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
@@ -222,6 +223,25 @@ public class Client {
 
     final BasicHttpClient httpClient;
 
+    /**
+     * Longest time single waitForState request waits for, must be less than the read timeout of the connection.
+     */
+    static final long WAIT_FOR_STATE_CHUNK_MILLIS = 3000;
+
+    // false once the node answers it does not know waitForState command
+    private volatile boolean waitForStateSupported = true;
+
+    /**
+     * Number of ids sent in the first getStates request; then the client sends as many as the node reports it answers.
+     */
+    public static final int GET_STATES_BATCH_SIZE = 1000;
+
+    // maximum number of ids the node answers in one getStates request, as it reports
+    private volatile int getStatesBatchSize = GET_STATES_BATCH_SIZE;
+
+    // false once the node answers it does not know getStates command
+    private volatile boolean getStatesSupported = true;
+
     /**
      * Start the new client protocol session.
      * This method doesn't load the network configuration.
@@ -560,19 +580,9 @@ public class Client {
         if (binderResult instanceof ItemResult) {
             ItemResult lastResult = (ItemResult) binderResult;
             if (millisToWait > 0 && lastResult.state.isPending()) {
-                Instant end = Instant.now().plusMillis(millisToWait);
                 try {
                     Contract c = Contract.fromPackedTransaction(packed);
-                    int interval = 1000;
-                    while (Instant.now().isBefore(end) && lastResult.state.isPending()) {
-                        Thread.currentThread().sleep(interval);
-                        if (interval > 300)
-                            interval -= 350;
-                        lastResult = getState(c.getId());
-                        //System.out.println("test: " + lastResult);
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    lastResult = waitForState(c.getId(), millisToWait);
                 } catch (Quantiser.QuantiserException e) {
                     throw new ClientError(e);
                 } catch (IOException e) {
@@ -668,15 +678,8 @@ public class Client {
                         pState = getParcelProcessingState(parcel.getId());
                     }
 //                    System.out.println("parcel state is: " + pState);
-                    ItemResult lastResult = getState(parcel.getPayloadContract().getId());
-                    while (Instant.now().isBefore(end) && lastResult.state.isPending()) {
-                        Thread.currentThread().sleep(interval);
-                        interval -= 350;
-                        interval = Math.max(interval, 300);
-                        lastResult = getState(parcel.getPayloadContract().getId());
-                        System.out.println("test: " + lastResult);
-                    }
-                    return lastResult;
+                    return waitForState(parcel.getPayloadContract().getId(),
+                            Math.max(Duration.between(Instant.now(), end).toMillis(), 0));
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                     throw new ClientError(e);
@@ -784,6 +787,150 @@ public class Client {
         });
     }
 
+    /**
+     * Get the states of many contracts (given by their ids) on the currently connected node. Ids are sent by batches of
+     * the size the node reports it answers, each batch is a single request resolved by the node with a single ledger
+     * query. Nodes that do not support batches are asked for the states one by one.
+     * Note: limits are applied to number of requests per minute per client key, the node counts a hundred of ids as a
+     * request.
+     *
+     * @param itemIds to get states by
+     *
+     * @return known {@link ItemResult} for each id, in the same order, ItemState.UNDEFINED for unknown ones
+     *
+     * @throws ClientError
+     */
+    public List<ItemResult> getStates(List<HashId> itemIds) throws ClientError {
+        List<ItemResult> results = new ArrayList<>(itemIds.size());
+        int from = 0;
+        while (from < itemIds.size()) {
+            List<HashId> batch = itemIds.subList(from, Math.min(from + getStatesBatchSize, itemIds.size()));
+            List<ItemResult> batchResults = getStatesSupported ? requestStates(batch) : null;
+            if (batchResults == null) {
+                getStatesSupported = false;
+                for (HashId id : batch)
+                    results.add(getState(id));
+                from += batch.size();
+            } else {
+                // the node answers only the first ids if there are more than it could
+                results.addAll(batchResults);
+                from += batchResults.size();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return item results or null if the node does not know getStates command
+     */
+    private List<ItemResult> requestStates(List<HashId> itemIds) throws ClientError {
+        try {
+            Binder result = httpClient.command("getStates",
+                    "itemIds", new ArrayList<>(itemIds));
+
+            List<?> irs = result.getListOrThrow("itemResults");
+            int expected = itemIds.size();
+            if (result.containsKey("maxItemIds")) {
+                int max = result.getIntOrThrow("maxItemIds");
+                if (max > 0) {
+                    getStatesBatchSize = max;
+                    expected = Math.min(expected, max);
+                }
+            }
+            if (irs.size() != expected)
+                throw new ClientError(Errors.FAILURE, "getStates", "wrong number of results: " + irs.size());
+            List<ItemResult> results = new ArrayList<>(irs.size());
+            for (Object ir : irs)
+                results.add(ir instanceof ItemResult ? (ItemResult) ir : ItemResult.UNDEFINED);
+            return results;
+        } catch (CommandFailedException e) {
+            if (e.getErrorRecord().getError() == Errors.UNKNOWN_COMMAND)
+                return null;
+            throw e;
+        } catch (ClientError e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ClientError(e);
+        }
+    }
+
+    /**
+     * Get the state of the contract (given by its id) on the currently connected node, waiting while it is pending,
+     * but no longer than the given time. The node answers as soon as the item processing is done, so it is both faster
+     * and cheaper than polling with {@link #getState(HashId)}. Nodes that do not support waiting are polled.
+     *
+     * @param itemId       to get state by
+     * @param millisToWait maximum time to wait for the state to become not pending
+     *
+     * @return the final state or the last known one if waiting time is up
+     *
+     * @throws ClientError
+     */
+    public ItemResult waitForState(HashId itemId, long millisToWait) throws ClientError {
+        Instant end = Instant.now().plusMillis(millisToWait);
+        ItemResult lastResult;
+        int interval = 1000;
+        while (true) {
+            long millisLeft = Math.max(Duration.between(Instant.now(), end).toMillis(), 0);
+            if (waitForStateSupported) {
+                long chunk = Math.min(millisLeft, WAIT_FOR_STATE_CHUNK_MILLIS);
+                long requested = System.currentTimeMillis();
+                lastResult = requestWaitForState(itemId, chunk);
+                if (lastResult == null) {
+                    waitForStateSupported = false;
+                    continue;
+                }
+                // the node answers pending at once if it can't wait (too many waiting or nothing to wait for),
+                // so the rest of the chunk is waited here not to flood it with requests
+                long chunkLeft = chunk - (System.currentTimeMillis() - requested);
+                if (lastResult.state.isPending() && chunkLeft > 0) {
+                    sleepWaitingForState(Math.min(interval, chunkLeft));
+                    interval = Math.max(interval - 350, 300);
+                }
+            } else {
+                lastResult = getState(itemId);
+                if (lastResult.state.isPending() && millisLeft > 0) {
+                    sleepWaitingForState(Math.min(interval, millisLeft));
+                    interval = Math.max(interval - 350, 300);
+                }
+            }
+            if (!lastResult.state.isPending() || !Instant.now().isBefore(end))
+                return lastResult;
+        }
+    }
+
+    private static void sleepWaitingForState(long millis) throws ClientError {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientError(e);
+        }
+    }
+
+    /**
+     * @return item result or null if the node does not know waitForState command
+     */
+    private ItemResult requestWaitForState(HashId itemId, long millisToWait) throws ClientError {
+        try {
+            Binder result = httpClient.command("waitForState",
+                    "itemId", itemId,
+                    "millisToWait", millisToWait);
+
+            Object ir = result.getOrThrow("itemResult");
+            if (ir instanceof ItemResult)
+                return (ItemResult) ir;
+
+            return ItemResult.UNDEFINED;
+        } catch (CommandFailedException e) {
+            if (e.getErrorRecord().getError() == Errors.UNKNOWN_COMMAND)
+                return null;
+            throw e;
+        } catch (Exception e) {
+            throw new ClientError(e);
+        }
+    }
+
     /**
      * Check if the contract has APPROVED status across the network.
      *
@@ -852,7 +999,10 @@ public class Client {
                     final int index = it.next();
                     it.remove();
 
-                    Do.inParallel(() -> getClient(index).getState(itemId))
+                    // pending states are waited for by the node rather than requested again and again
+                    Do.inParallel(() -> getClient(index).waitForState(itemId, Math.min(
+                            Math.max(Duration.between(Instant.now(), end).toMillis(), 0),
+                            WAIT_FOR_STATE_CHUNK_MILLIS)))
                             .failure(data -> {
                                 retryIdxs.add(index);
                                 running.decrementAndGet();
@@ -1403,6 +1553,32 @@ public class Client {
         });
     }
 
+    /**
+     * Same as {@link #getContract(HashId, Binder, int, int)}, but pages through the active contracts with the cursor
+     * instead of the offset, so the deep pages are returned as fast as the first one.
+     *
+     * @param origin contract origin
+     * @param tags tags to search for
+     * @param limit of list items
+     * @param after the "nextCursor" of the previous page; {@code null} for the first page
+     * @return {@link Binder} containing the packed transaction
+     * or (at the "contractIds" key) limited list of IDs for the active contracts,
+     * and (at the "nextCursor" key) the cursor of the next page if the page is full;
+     * or {@code null} (if no active contracts found)
+     * @throws ClientError
+     */
+    public Binder getContractPage(HashId origin, Binder tags, int limit, String after) throws ClientError {
+        return protect(() -> {
+            Binder result = httpClient.command(
+                    "getContract", "origin", origin, "limit", limit, "after", after == null ? "" : after, "tags", tags);
+            if (!result.isEmpty()) {
+                processGetContractResults(result);
+                return result;
+            } else
+                return null;
+        });
+    }
+
     /**
      * Get the body of the active contract with the given origin (if only one active contract is returned),
      * or the list of IDs for the active contracts (if there are more than one in result).
@@ -1462,6 +1638,32 @@ public class Client {
         });
     }
 
+    /**
+     * Same as {@link #getChildren(HashId, Map, int, int)}, but pages through the active contracts with the cursor
+     * instead of the offset, so the deep pages are returned as fast as the first one.
+     *
+     * @param parent id of parent contract
+     * @param tags tags to search for (state.data.search_tags.key=value)
+     * @param limit of list items
+     * @param after the "nextCursor" of the previous page; {@code null} for the first page
+     * @return {@link Binder} containing the packed transaction
+     * or (at the "contractIds" key) limited list of IDs for the active contracts,
+     * and (at the "nextCursor" key) the cursor of the next page if the page is full;
+     * or {@code null} (if no active contracts found)
+     * @throws ClientError
+     */
+    public Binder getChildrenPage(HashId parent, Map<String, String> tags, int limit, String after) throws ClientError {
+        return protect(() -> {
+            Binder result = httpClient.command(
+                    "getContract", "parent", parent, "limit", limit, "after", after == null ? "" : after, "tags", tags);
+            if (!result.isEmpty()) {
+                processGetContractResults(result);
+                return result;
+            } else
+                return null;
+        });
+    }
+
     /**
      * Get the body of the active contract with the given parent (if only one active contract is returned),
      * orthe  list of IDs for the active contracts (if there are more than one in result).
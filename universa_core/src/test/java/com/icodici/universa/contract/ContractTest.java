@@ -43,6 +43,7 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
@@ -567,6 +568,67 @@ public class ContractTest extends ContractTestBase {
         assertEquals(costShouldBeForJoin, processingContract.getProcessedCost());
     }
 
+    @Test
+    public void parallelSignatureVerification() throws Exception {
+        Contract root = createCoin100apiv3();
+        root.addSignerKeyFromFile(PRIVATE_KEY_PATH);
+        for (int i = 0; i < 4; i++) {
+            Contract c = createCoin100apiv3();
+            c.addSignerKeyFromFile(PRIVATE_KEY_PATH);
+            c.seal();
+            root.addNewItems(c);
+        }
+        root.seal();
+        byte[] packed = root.getPackedTransaction();
+
+        Contract sequential = Contract.fromPackedTransaction(packed);
+        boolean sequentialOk = sequential.check();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Contract parallel = Contract.fromPackedTransaction(packed);
+            assertEquals(sequentialOk, parallel.check("", pool));
+            // same quanta and same errors in the same order
+            assertEquals(sequential.getProcessedCost(), parallel.getProcessedCost());
+            assertEquals(sequential.getErrors().toString(), parallel.getErrors().toString());
+            assertEquals(sequential.getSealedByKeys(), parallel.getSealedByKeys());
+            assertEquals(4, parallel.getNewItems().size());
+            for (Approvable a : parallel.getNewItems())
+                assertEquals(1, ((Contract) a).getSealedByKeys().size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelSignatureVerificationBreak() throws Exception {
+        Contract root = createCoin100apiv3();
+        root.addSignerKeyFromFile(PRIVATE_KEY_PATH);
+        for (int i = 0; i < 4; i++) {
+            Contract c = createCoin100apiv3();
+            c.addSignerKeyFromFile(PRIVATE_KEY_PATH);
+            c.seal();
+            root.addNewItems(c);
+        }
+        root.seal();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Contract parallel = Contract.fromPackedTransaction(root.getPackedTransaction());
+            // enough for the first signature only
+            parallel.getQuantiser().reset(10);
+            boolean exceptionThrown = false;
+            try {
+                parallel.check("", pool);
+            } catch (Quantiser.QuantiserException e) {
+                exceptionThrown = true;
+            }
+            assertEquals(true, exceptionThrown);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     public Contract calculateSplit7To2ProcessingCost(String privateKeyPath, boolean createContractWith2048KeyIssuer) throws Exception {
 
         // Should create 7 contracts, sign and seal it all, then create revision and split to 2 contracts. Then calculate cost of processing.
@@ -40,6 +40,33 @@ public class ExtendedSignatureTest extends TestCase{
         assertEquals(ExtendedSignature.keyId(k), ExtendedSignature.extractKeyId(signature));
     }
 
+    @Test
+    public void verifiedSignatureCache() throws Exception {
+        byte[] data = "Hello world".getBytes();
+        PrivateKey k = TestKeys.privateKey(3);
+        byte[] signature = ExtendedSignature.sign(k, data);
+        PublicKey pubKey = k.getPublicKey();
+        ExtendedSignature.setVerifiedCacheSize(100);
+        try {
+            ExtendedSignature es = ExtendedSignature.verify(pubKey, signature, data);
+            assertNotNull(es);
+            assertSame(es, ExtendedSignature.verify(pubKey, signature, data));
+            assertEquals(1, ExtendedSignature.getVerifiedCacheStats().getLongOrThrow("hits"));
+
+            // the same signature with other data or other key is verified again and fails
+            assertNull(ExtendedSignature.verify(pubKey, signature, "Hello world!".getBytes()));
+            assertNull(ExtendedSignature.verify(TestKeys.publicKey(1), signature, data));
+            assertEquals(1, ExtendedSignature.getVerifiedCacheStats().getLongOrThrow("hits"));
+            assertEquals(1, ExtendedSignature.getVerifiedCacheStats().getIntOrThrow("size"));
+
+            ExtendedSignature.setVerifiedCacheSize(0);
+            assertNull(ExtendedSignature.getVerifiedCacheStats());
+            assertNotSame(es, ExtendedSignature.verify(pubKey, signature, data));
+        } finally {
+            ExtendedSignature.setVerifiedCacheSize(ExtendedSignature.DEFAULT_VERIFIED_CACHE_SIZE);
+        }
+    }
+
     @Test
     public void parallelExecutionSign() throws Exception {
         ExecutorService single = Executors.newSingleThreadExecutor();
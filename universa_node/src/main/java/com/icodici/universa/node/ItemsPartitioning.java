@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa.node;
+
+import com.icodici.db.Db;
+import com.icodici.db.DbPool;
+import com.icodici.db.PooledDb;
+import net.sergeych.tools.Binder;
+import net.sergeych.utils.LogPrinter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional mode of the ledger where the {@code items} table is range-partitioned by {@code keepTill}, each partition
+ * holding the items kept till the moments within one span. Expired items then go away by dropping the whole partition
+ * once its span is over, which leaves nothing to vacuum, instead of deleting them row by row.
+ * <p>
+ * Partition names carry their bounds ({@code items_<from>_<to>}, epoch seconds), so the partitions created with some
+ * other span are still recognized. Partitions are created ahead of time by {@link #maintain()}, far enough to cover the
+ * {@code keepTill} of the items inserted until the next maintenance, so the inserts never run DDL; items with no
+ * {@code keepTill}, or beyond the created partitions, go to the default partition.
+ * <p>
+ * The plain table is converted with {@link #convert(DbPool, Duration, int)}, which moves the items in chunks and should
+ * be run while the node is stopped.
+ * <p>
+ * The {@code ledger} table is not partitioned: its records change {@code expires_at} as their state changes, the unique
+ * {@code hash} index could not be kept across partitions, and other tables reference its {@code id}.
+ */
+public class ItemsPartitioning {
+
+    private static LogPrinter log = new LogPrinter("ITMP");
+
+    private static final String PARTITION_PREFIX = "items_";
+    private static final String DEFAULT_PARTITION = "items_default";
+    private static final String UNPARTITIONED = "items_unpartitioned";
+
+    /**
+     * Number of spans ahead of the current time {@link #maintain()} keeps created.
+     */
+    public static final int PARTITIONS_AHEAD = 2;
+
+    /**
+     * Time the partition is locked for detaching is limited by this, so the live writes are not stalled; if the lock
+     * can't be taken, the partition is dropped on the next {@link #maintain()}.
+     */
+    private static final String LOCK_TIMEOUT = "200ms";
+
+    private final DbPool dbPool;
+    private final long spanSeconds;
+    private final long horizonSeconds;
+    // bounds of the partitions known to exist, from -> to
+    private final ConcurrentSkipListMap<Long, Long> partitions = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong dropFailures = new AtomicLong();
+
+    private static class Bounds {
+        private final String name;
+        private final long from;
+        private final long to;
+
+        private Bounds(String name, long from, long to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Start managing partitions of the {@code items} table converted with {@link #convert(DbPool, Duration, int)}, and
+     * create the partitions ahead.
+     *
+     * @param dbPool  pool to get connections from
+     * @param span    keepTill range of one partition
+     * @param horizon how far ahead of the current time {@code keepTill} of the inserted items could be
+     *
+     * @throws SQLException if the table is not converted yet
+     */
+    public ItemsPartitioning(DbPool dbPool, Duration span, Duration horizon) throws SQLException {
+        if (span.getSeconds() <= 0)
+            throw new IllegalArgumentException("partition span should be at least a second");
+        this.dbPool = dbPool;
+        this.spanSeconds = span.getSeconds();
+        this.horizonSeconds = Math.max(0, horizon.getSeconds());
+        try (PooledDb db = dbPool.db()) {
+            if (!isPartitioned(db) || isConverting(db))
+                throw new SQLException("items table is not converted to the partitioned one");
+            for (Bounds b : listPartitions(db))
+                partitions.put(b.from, b.to);
+        }
+        maintain();
+    }
+
+    private static boolean isPartitioned(Db db) throws SQLException {
+        Object kind = db.queryOne("SELECT relkind::text FROM pg_class WHERE oid = 'items'::regclass");
+        return "p".equals(kind);
+    }
+
+    private static boolean isConverting(Db db) throws SQLException {
+        return db.queryOne("SELECT to_regclass('" + UNPARTITIONED + "')::text") != null;
+    }
+
+    /**
+     * Convert the {@code items} table to the partitioned one, if it is not yet. The table is swapped for the empty
+     * partitioned one in a short transaction, then the items are moved there in chunks, each in its own transaction, so
+     * no transaction holds the whole table. Items that are not moved yet are not visible, so the node should be
+     * stopped. If the conversion is interrupted, the next call continues it.
+     *
+     * @param dbPool    pool to get connections from
+     * @param span      keepTill range of one partition
+     * @param chunkSize maximum number of items moved in one transaction
+     *
+     * @throws SQLException if conversion failed
+     */
+    public static void convert(DbPool dbPool, Duration span, int chunkSize) throws SQLException {
+        if (span.getSeconds() <= 0)
+            throw new IllegalArgumentException("partition span should be at least a second");
+        long spanSeconds = span.getSeconds();
+        try (PooledDb db = dbPool.db()) {
+            if (!isPartitioned(db))
+                swap(db, spanSeconds);
+            if (!isConverting(db))
+                return;
+            long now = Instant.now().getEpochSecond();
+            long moved = 0;
+            int count;
+            do {
+                // expired items are not worth moving
+                try (PreparedStatement st = db.statement("WITH chunk AS (DELETE FROM " + UNPARTITIONED + " WHERE ctid = ANY(" +
+                        "ARRAY(SELECT ctid FROM " + UNPARTITIONED + " LIMIT ?)) RETURNING id, packed, keepTill), " +
+                        "moved AS (INSERT INTO items SELECT * FROM chunk WHERE keepTill IS NULL OR keepTill >= ? RETURNING 1) " +
+                        "SELECT (SELECT count(*) FROM chunk), (SELECT count(*) FROM moved)", chunkSize, now);
+                     ResultSet rs = st.executeQuery()) {
+                    rs.next();
+                    count = rs.getInt(1);
+                    moved += rs.getLong(2);
+                }
+            } while (count > 0);
+            db.update("DROP TABLE " + UNPARTITIONED);
+            log.i("items are partitioned, " + moved + " moved");
+        }
+    }
+
+    private static void swap(Db db, long spanSeconds) throws SQLException {
+        log.i("converting items to partitioned table, span " + spanSeconds + "s");
+        try {
+            db.transaction(() -> {
+                db.update("ALTER TABLE items RENAME TO " + UNPARTITIONED);
+                db.update("ALTER INDEX IF EXISTS ix_items_id RENAME TO ix_items_unpartitioned_id");
+                db.update("ALTER INDEX IF EXISTS ix_items_keeptill RENAME TO ix_items_unpartitioned_keeptill");
+                db.update("CREATE TABLE items (" +
+                        "id integer, packed bytea, keepTill bigint, " +
+                        "foreign key (id) references ledger(id) on delete set null" +
+                        ") PARTITION BY RANGE (keepTill)");
+                db.update("CREATE INDEX ix_items_id ON items(id)");
+                db.update("CREATE INDEX ix_items_keeptill ON items(keepTill)");
+                db.update("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF items DEFAULT");
+                // partitions for the spans the kept items fall in, the next ones are created by maintain()
+                long now = Instant.now().getEpochSecond();
+                List<Long> starts = new ArrayList<>();
+                try (PreparedStatement st = db.statement("SELECT DISTINCT div(keepTill, ?) * ? FROM " + UNPARTITIONED +
+                        " WHERE keepTill >= ?", spanSeconds, spanSeconds, now);
+                     ResultSet rs = st.executeQuery()) {
+                    while (rs.next())
+                        starts.add(rs.getLong(1));
+                }
+                for (long from : starts)
+                    db.update(createSql(from, from + spanSeconds));
+                return null;
+            });
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("failed to partition items", e);
+        }
+    }
+
+    private long spanStart(long epochSecond) {
+        return Math.floorDiv(epochSecond, spanSeconds) * spanSeconds;
+    }
+
+    private static String createSql(long from, long to) {
+        return "CREATE TABLE IF NOT EXISTS " + PARTITION_PREFIX + from + "_" + to +
+                " PARTITION OF items FOR VALUES FROM (" + from + ") TO (" + to + ")";
+    }
+
+    // create the partition of the span containing the moment, unless some partition covers it already
+    private synchronized void cover(Db db, long moment) throws SQLException {
+        Map.Entry<Long, Long> below = partitions.floorEntry(moment);
+        if (below != null && moment < below.getValue())
+            return;
+        long from = spanStart(moment);
+        long to = from + spanSeconds;
+        // partitions made with the other span could take a part of ours
+        if (below != null && below.getValue() > from)
+            from = below.getValue();
+        Long above = partitions.ceilingKey(moment);
+        if (above != null && above < to)
+            to = above;
+        db.update(createSql(from, to));
+        partitions.put(from, to);
+        created.incrementAndGet();
+    }
+
+    private static List<Bounds> listPartitions(Db db) throws SQLException {
+        List<Bounds> result = new ArrayList<>();
+        try (PreparedStatement st = db.statement("SELECT c.relname FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'items'::regclass");
+             ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (!name.startsWith(PARTITION_PREFIX) || name.equals(DEFAULT_PARTITION))
+                    continue;
+                String[] parts = name.substring(PARTITION_PREFIX.length()).split("_");
+                if (parts.length != 2)
+                    continue;
+                try {
+                    result.add(new Bounds(name, Long.parseLong(parts[0]), Long.parseLong(parts[1])));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        return result;
+    }
+
+    private void ensurePartition(Db db, long keepTill) throws SQLException {
+        Map.Entry<Long, Long> e = partitions.floorEntry(keepTill);
+        if (e == null || keepTill >= e.getValue())
+            cover(db, keepTill);
+    }
+
+    /**
+     * Create partitions for the spans up to the horizon and {@link #PARTITIONS_AHEAD} more, and drop the expired ones,
+     * those whose whole range is in the past. Should be called more often than once a span.
+     */
+    public void maintain() {
+        long now = Instant.now().getEpochSecond();
+        try (PooledDb db = dbPool.db()) {
+            for (long moment = now; moment <= now + horizonSeconds + PARTITIONS_AHEAD * spanSeconds; moment += spanSeconds) {
+                try {
+                    ensurePartition(db, moment);
+                } catch (SQLException e) {
+                    // e.g. the default partition already has items of this span
+                    log.e("failed to create items partition for " + moment + ": " + e);
+                }
+            }
+            for (Bounds b : listPartitions(db)) {
+                if (b.to > now)
+                    continue;
+                try {
+                    db.transaction(() -> {
+                        db.update("SET LOCAL lock_timeout = '" + LOCK_TIMEOUT + "'");
+                        db.update("ALTER TABLE items DETACH PARTITION " + b.name);
+                        db.update("DROP TABLE " + b.name);
+                        return null;
+                    });
+                    partitions.remove(b.from, b.to);
+                    dropped.incrementAndGet();
+                } catch (Exception e) {
+                    dropFailures.incrementAndGet();
+                    log.e("failed to drop partition " + b.name + ": " + e);
+                }
+            }
+        } catch (SQLException e) {
+            log.e("items partitions maintenance failed: " + e);
+        }
+    }
+
+    /**
+     * @return span of the partitions, number of partitions, and how many were created and dropped
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "spanSeconds", spanSeconds,
+                "partitions", partitions.size(),
+                "created", created.get(),
+                "dropped", dropped.get(),
+                "dropFailures", dropFailures.get()
+        );
+    }
+}
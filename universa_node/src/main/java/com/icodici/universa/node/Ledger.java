@@ -22,6 +22,8 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,6 +76,37 @@ public interface Ledger {
      */
     StateRecord findOrCreate(HashId itemdId);
 
+    /**
+     * Get records for all the given ids at once. Implementations should do it with as few database round trips as
+     * possible. Same as {@link #getRecord(HashId)}, never returns expired records.
+     *
+     * @param ids to retrieve
+     * @return map of found records by their ids, ids that are not in the ledger are not included
+     */
+    default Map<HashId, StateRecord> getRecords(Collection<HashId> ids) {
+        Map<HashId, StateRecord> result = new HashMap<>();
+        for (HashId id : ids) {
+            StateRecord r = getRecord(id);
+            if (r != null)
+                result.put(id, r);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #findOrCreate(HashId)} for all the given ids at once. Each record is created atomically, but
+     * the whole operation is not: some of the records could be created if it fails.
+     *
+     * @param ids to find or register
+     * @return map of found or created records by their ids
+     */
+    default Map<HashId, StateRecord> findOrCreateAll(Collection<HashId> ids) {
+        Map<HashId, StateRecord> result = new HashMap<>();
+        for (HashId id : ids)
+            result.put(id, findOrCreate(id));
+        return result;
+    }
+
     /**
      * Shortcut method: check that record exists and its state returns {@link ItemState#isApproved()}}. Check it to
      * ensure its meaning.
@@ -160,6 +193,21 @@ public interface Ledger {
 
     boolean isTestnet(HashId itemId);
 
+    /**
+     * Find which of the given items are test records.
+     *
+     * @param itemIds items to check
+     *
+     * @return ids of the test records among the given ones
+     */
+    default Set<HashId> getTestnetIds(Collection<HashId> itemIds) {
+        Set<HashId> result = new HashSet<>();
+        for (HashId id : itemIds)
+            if (isTestnet(id))
+                result.add(id);
+        return result;
+    }
+
     void updateSubscriptionInStorage(long id, ZonedDateTime expiresAt);
     void updateStorageExpiresAt(long storageId, ZonedDateTime expiresAt);
     void saveFollowerEnvironment(long environmentId, ZonedDateTime expiresAt, ZonedDateTime mutedAt, double spent, int startedCallbacks);
@@ -247,6 +295,17 @@ public interface Ledger {
 
     Binder getKeepingBy(String field, HashId id, Binder tags, int limit, int offset, String sortBy, String sortOrder);
 
+    /**
+     * Same as {@link #getKeepingBy(String, HashId, Binder, int, int, String, String)}, but the page starts after the
+     * cursor instead of skipping the offset, so it is found as fast for any page depth.
+     *
+     * @param after "nextCursor" returned with the previous page, null or empty for the first page
+     *
+     * @return same as {@link #getKeepingBy(String, HashId, Binder, int, int, String, String)}, with "nextCursor" if the
+     * page is full; the cursor is valid only with the same sortBy and sortOrder
+     */
+    Binder getKeepingByCursor(String field, HashId id, Binder tags, int limit, String after, String sortBy, String sortOrder);
+
     NImmutableEnvironment getEnvironment(long environmentId);
     NImmutableEnvironment getEnvironment(HashId contractId);
     NImmutableEnvironment getEnvironment(NSmartContract smartContract);
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa.node;
+
+import com.icodici.db.DbPool;
+import com.icodici.db.PooledDb;
+import net.sergeych.tools.Binder;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes expired ledger data in small chunks, each in its own short transaction, instead of one unbounded DELETE per
+ * table, so the cleanup never holds many row locks or produces the WAL spike that stalls the live writes.
+ * <p>
+ * The cleanup goes in passes. A pass takes the current time once and runs the steps one after another, each step
+ * deleting the chunks of its table in the order of the expiration column until no expired rows left. The largest
+ * deleted value is kept as the watermark, and the next chunk is looked for from it, so the index entries of the rows
+ * already deleted (but not yet vacuumed) are not scanned again. Each {@link #run(boolean)} works no longer than the time
+ * budget, pausing between the chunks, and the next run resumes the pass from where the previous one stopped.
+ */
+public class LedgerCleanup {
+
+    private final DbPool dbPool;
+    private volatile int chunkSize;
+    private volatile long timeBudgetMillis;
+    private volatile long chunkPauseMillis;
+
+    private final Step[] steps = new Step[]{
+            // items of the expired records: items table is small, so it leads and needs no watermark
+            new Step("expiredItems", false, false,
+                    "DELETE FROM items WHERE id = ANY(ARRAY(" +
+                            "SELECT i.id FROM items i JOIN ledger l ON l.id = i.id WHERE l.expires_at < ? LIMIT ?))"),
+            new Step("ledger", true, true,
+                    "DELETE FROM ledger WHERE id = ANY(ARRAY(" +
+                            "SELECT id FROM ledger WHERE expires_at < ? AND expires_at >= ? ORDER BY expires_at LIMIT ?)) " +
+                            "RETURNING expires_at"),
+            // items have no key, and ctid is not unique if items are partitioned, so the chunk is a keepTill range
+            new Step("items", false, true,
+                    "DELETE FROM items WHERE keepTill < ? AND keepTill >= ? AND keepTill <= (" +
+                            "SELECT max(keepTill) FROM (SELECT keepTill FROM items WHERE keepTill < ? AND keepTill >= ? " +
+                            "ORDER BY keepTill LIMIT ?) chunk) RETURNING keepTill", true),
+            new Step("followerCallbacks", false, true,
+                    "DELETE FROM follower_callbacks WHERE id = ANY(ARRAY(" +
+                            "SELECT id FROM follower_callbacks WHERE stored_until < ? AND stored_until >= ? " +
+                            "ORDER BY stored_until LIMIT ?)) RETURNING stored_until"),
+            new Step("votings", false, true,
+                    "DELETE FROM votings WHERE id = ANY(ARRAY(" +
+                            "SELECT id FROM votings WHERE expires_at < ? AND expires_at >= ? ORDER BY expires_at LIMIT ?)) " +
+                            "RETURNING expires_at")
+    };
+
+    // state of the current pass, guarded by this
+    private boolean inPass = false;
+    private long passTime;
+    private int currentStep;
+    private long passStartedAt;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong interruptedRuns = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastPassMillis = 0;
+
+    private static class Step {
+        private final String name;
+        private final boolean skippedInPermanetMode;
+        private final boolean hasWatermark;
+        private final String sql;
+        // the range bounds are repeated in the sql before the limit
+        private final boolean repeatedBounds;
+        private long watermark;
+        private final AtomicLong deleted = new AtomicLong();
+
+        private Step(String name, boolean skippedInPermanetMode, boolean hasWatermark, String sql) {
+            this(name, skippedInPermanetMode, hasWatermark, sql, false);
+        }
+
+        private Step(String name, boolean skippedInPermanetMode, boolean hasWatermark, String sql,
+                     boolean repeatedBounds) {
+            this.name = name;
+            this.skippedInPermanetMode = skippedInPermanetMode;
+            this.hasWatermark = hasWatermark;
+            this.sql = sql;
+            this.repeatedBounds = repeatedBounds;
+        }
+
+        private Object[] args(long passTime, int limit) {
+            if (!hasWatermark)
+                return new Object[]{passTime, limit};
+            if (repeatedBounds)
+                return new Object[]{passTime, watermark, passTime, watermark, limit};
+            return new Object[]{passTime, watermark, limit};
+        }
+    }
+
+    /**
+     * @param dbPool     pool to get connections from, connection is taken for one chunk only
+     * @param chunkSize  maximum rows deleted in one transaction
+     * @param timeBudget maximum time one {@link #run(boolean)} works, zero or negative to run until the pass ends
+     * @param chunkPause pause between the chunks, limits the rate of deletion
+     */
+    public LedgerCleanup(DbPool dbPool, int chunkSize, Duration timeBudget, Duration chunkPause) {
+        this.dbPool = dbPool;
+        setLimits(chunkSize, timeBudget, chunkPause);
+    }
+
+    /**
+     * Change the limits, takes effect from the next chunk.
+     *
+     * @param chunkSize  maximum rows deleted in one transaction
+     * @param timeBudget maximum time one {@link #run(boolean)} works, zero or negative to run until the pass ends
+     * @param chunkPause pause between the chunks
+     */
+    public void setLimits(int chunkSize, Duration timeBudget, Duration chunkPause) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        this.chunkSize = chunkSize;
+        this.timeBudgetMillis = timeBudget.toMillis();
+        this.chunkPauseMillis = chunkPause.toMillis();
+    }
+
+    /**
+     * Continue the current pass, or start the new one if there is none, and work until the pass is over or the time
+     * budget is spent.
+     *
+     * @param isPermanetMode if true, expired ledger records are kept, only their items are deleted
+     *
+     * @return true if the pass is over, false if it is to be continued with the next run
+     *
+     * @throws SQLException if the chunk failed, the pass will continue from this chunk with the next run
+     */
+    public synchronized boolean run(boolean isPermanetMode) throws SQLException {
+        runs.incrementAndGet();
+        long started = System.currentTimeMillis();
+        long budget = timeBudgetMillis;
+        if (!inPass) {
+            inPass = true;
+            passTime = Instant.now().getEpochSecond();
+            passStartedAt = started;
+            currentStep = 0;
+            for (Step s : steps)
+                s.watermark = Long.MIN_VALUE;
+        }
+        while (currentStep < steps.length) {
+            Step step = steps[currentStep];
+            if (step.skippedInPermanetMode && isPermanetMode) {
+                currentStep++;
+                continue;
+            }
+            if (budget > 0 && System.currentTimeMillis() - started >= budget) {
+                interruptedRuns.incrementAndGet();
+                return false;
+            }
+            int limit = chunkSize;
+            int count;
+            try {
+                count = deleteChunk(step, limit);
+            } catch (SQLException e) {
+                failures.incrementAndGet();
+                throw e;
+            }
+            chunks.incrementAndGet();
+            if (count < limit) {
+                currentStep++;
+                continue;
+            }
+            if (chunkPauseMillis > 0) {
+                try {
+                    Thread.sleep(chunkPauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    interruptedRuns.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        inPass = false;
+        passes.incrementAndGet();
+        lastPassMillis = System.currentTimeMillis() - passStartedAt;
+        return true;
+    }
+
+    private int deleteChunk(Step step, int limit) throws SQLException {
+        try (PooledDb db = dbPool.db()) {
+            if (!step.hasWatermark) {
+                int count = db.cachedStatement(step.sql, step.args(passTime, limit)).executeUpdate();
+                step.deleted.addAndGet(count);
+                return count;
+            }
+            int count = 0;
+            long max = step.watermark;
+            try (ResultSet rs = db.cachedStatement(step.sql, step.args(passTime, limit)).executeQuery()) {
+                while (rs.next()) {
+                    count++;
+                    long v = rs.getLong(1);
+                    if (v > max)
+                        max = v;
+                }
+            }
+            // rows with the same value could be left for the next chunk, so the watermark is inclusive
+            step.watermark = max;
+            step.deleted.addAndGet(count);
+            return count;
+        }
+    }
+
+    /**
+     * @return number of passes, runs, chunks, runs stopped by the time budget, failed chunks, duration of the last
+     * pass and rows deleted by each step
+     */
+    public Binder getStats() {
+        Binder deleted = new Binder();
+        for (Step s : steps)
+            deleted.put(s.name, s.deleted.get());
+        return Binder.of(
+                "passes", passes.get(),
+                "runs", runs.get(),
+                "chunks", chunks.get(),
+                "interruptedRuns", interruptedRuns.get(),
+                "failures", failures.get(),
+                "lastPassMillis", lastPassMillis,
+                "deleted", deleted
+        );
+    }
+}
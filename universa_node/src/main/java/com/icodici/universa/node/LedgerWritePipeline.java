@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa.node;
+
+import com.icodici.db.DbPool;
+import com.icodici.db.PooledDb;
+import net.sergeych.tools.Binder;
+import net.sergeych.tools.Histogram;
+import net.sergeych.utils.LogPrinter;
+import net.sergeych.utils.Ut;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups {@link StateRecord} writes issued concurrently by many threads into JDBC batches executed in a single
+ * transaction, so the ledger pays one round trip and one commit per batch instead of one per record.
+ * <p>
+ * Writes are synchronous for the caller: {@link #save(StateRecord)} and {@link #delete(long)} return only when the
+ * batch containing the write is committed, so the callers see the same durability as with direct writes. Writes are
+ * executed in the order they are submitted, so the writes of the same record keep their order.
+ * <p>
+ * If a batch fails for any reason (unique constraint, row lock held by some other transaction longer than {@code
+ * lockTimeout} and like) it is rolled back and every write of it is returned to its caller to be performed directly,
+ * so errors are reported to the right caller and no caller could be blocked by the lock held by another.
+ * <p>
+ * Writes of the thread that is inside a ledger transaction must not go here, as they should be the part of that
+ * transaction. Nor should the writes of the thread holding a pooled connection: the callers wait for the batch, so if
+ * they held connections, they could take all of them and leave none for the batch.
+ */
+public class LedgerWritePipeline implements AutoCloseable {
+
+    private static LogPrinter log = new LogPrinter("LWPL");
+
+    private final DbPool dbPool;
+    private final long flushWindowNanos;
+    private final int maxBatchSize;
+    private final Duration lockTimeout;
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean closed = false;
+
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram batchMicros = new Histogram();
+    private final Histogram waitMicros = new Histogram();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    private enum Kind {INSERT, UPDATE, DELETE}
+
+    private static final String INSERT_SQL =
+            "insert into ledger(hash,state,created_at, expires_at, locked_by_id) values(?,?,?,?,?);";
+    private static final String UPDATE_SQL =
+            "update ledger set state=?, created_at=?, expires_at=?, locked_by_id=? where id=?";
+    private static final String DELETE_SQL = "DELETE FROM ledger WHERE id = ?";
+
+    /**
+     * Snapshot of the record to write, taken at submit time.
+     */
+    private static class Write {
+        private final Kind kind;
+        private final long recordId;
+        private final byte[] hash;
+        private final int state;
+        private final long createdAt;
+        private final long expiresAt;
+        private final long lockedById;
+        private final long submittedAt = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean written = false;
+        private long generatedId;
+
+        private Write(Kind kind, StateRecord record) {
+            this.kind = kind;
+            this.recordId = record.getRecordId();
+            this.hash = kind == Kind.INSERT ? record.getId().getDigest() : null;
+            this.state = record.getState().ordinal();
+            this.createdAt = Ut.unixTime(record.getCreatedAt());
+            this.expiresAt = Ut.unixTime(record.getExpiresAt());
+            this.lockedById = record.getLockedByRecordId();
+        }
+
+        private Write(long recordId) {
+            this.kind = Kind.DELETE;
+            this.recordId = recordId;
+            this.hash = null;
+            this.state = 0;
+            this.createdAt = 0;
+            this.expiresAt = 0;
+            this.lockedById = 0;
+        }
+
+        private void complete(boolean written) {
+            this.written = written;
+            done.countDown();
+        }
+
+        private boolean await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // we can't leave until we know what happened to the write
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            return written;
+        }
+    }
+
+    /**
+     * @param dbPool        pool to get connection from
+     * @param flushWindow   how long to wait for more writes after the first one before executing the batch. With
+     *                      zero window, the batch consists of the writes that were queued while the previous one was
+     *                      executed, so no latency is added at low load
+     * @param maxBatchSize  maximum writes in one batch
+     * @param lockTimeout   maximum time the batch may wait for row locks before it is given back to the callers
+     */
+    public LedgerWritePipeline(DbPool dbPool, Duration flushWindow, int maxBatchSize, Duration lockTimeout) {
+        this.dbPool = dbPool;
+        this.flushWindowNanos = flushWindow.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.lockTimeout = lockTimeout;
+        flusher = new Thread(this::flushLoop, "ledger-write-pipeline");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Write the record state (insert it if it has no recordId yet, assigning recordId on success).
+     *
+     * @param record to write
+     *
+     * @return true if the record is written, false if the caller should write it directly
+     */
+    public boolean save(StateRecord record) {
+        Write w = new Write(record.getRecordId() == 0 ? Kind.INSERT : Kind.UPDATE, record);
+        if (!submit(w))
+            return false;
+        if (w.kind == Kind.INSERT && w.written)
+            record.setRecordId(w.generatedId);
+        return w.written;
+    }
+
+    /**
+     * Delete the record with a given recordId.
+     *
+     * @param recordId to delete
+     *
+     * @return true if the record is deleted, false if the caller should delete it directly
+     */
+    public boolean delete(long recordId) {
+        return submit(new Write(recordId));
+    }
+
+    private boolean submit(Write w) {
+        if (closed)
+            return false;
+        queue.add(w);
+        // the flusher could be already stopped, if so, nobody would take our write
+        if (closed && queue.remove(w))
+            return false;
+        boolean result = w.await();
+        waitMicros.update((System.nanoTime() - w.submittedAt) / 1000);
+        return result;
+    }
+
+    private void flushLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                if (flushWindowNanos > 0) {
+                    long deadline = System.nanoTime() + flushWindowNanos;
+                    while (batch.size() < maxBatchSize) {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0)
+                            break;
+                        Write w = queue.poll(left, TimeUnit.NANOSECONDS);
+                        if (w == null)
+                            break;
+                        batch.add(w);
+                    }
+                }
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                flush(batch);
+            } catch (InterruptedException e) {
+                // close() interrupts us to stop waiting, the rest of the queue is processed in the loop
+            } catch (Throwable t) {
+                log.e("unexpected error in ledger write pipeline: " + t);
+                t.printStackTrace();
+            } finally {
+                // never leave callers hanging
+                for (Write w : batch)
+                    if (w.done.getCount() > 0)
+                        w.complete(false);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Write> batch) {
+        long started = System.nanoTime();
+        boolean ok = false;
+        try (PooledDb db = dbPool.db()) {
+            ok = db.transaction(() -> {
+                db.update("SET LOCAL lock_timeout = " + lockTimeout.toMillis());
+                int from = 0;
+                // consecutive writes of the same kind go to one JDBC batch, so the overall order is kept
+                while (from < batch.size()) {
+                    int to = from + 1;
+                    while (to < batch.size() && batch.get(to).kind == batch.get(from).kind)
+                        to++;
+                    executeRun(db, batch.subList(from, to));
+                    from = to;
+                }
+                return true;
+            }) != null;
+        } catch (Exception e) {
+            failedBatches.incrementAndGet();
+            log.d("ledger batch of " + batch.size() + " failed, falling back to direct writes: " + e);
+        }
+        batchSizes.update(batch.size());
+        batchMicros.update((System.nanoTime() - started) / 1000);
+        for (Write w : batch)
+            w.complete(ok);
+    }
+
+    private void executeRun(PooledDb db, List<Write> run) throws Exception {
+        Kind kind = run.get(0).kind;
+        switch (kind) {
+            case INSERT:
+                try (PreparedStatement statement = db.statementReturningKeys(INSERT_SQL)) {
+                    for (Write w : run) {
+                        statement.setBytes(1, w.hash);
+                        statement.setInt(2, w.state);
+                        statement.setLong(3, w.createdAt);
+                        statement.setLong(4, w.expiresAt);
+                        statement.setLong(5, w.lockedById);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    try (ResultSet keys = statement.getGeneratedKeys()) {
+                        for (Write w : run) {
+                            if (!keys.next())
+                                throw new IllegalStateException("generated keys are not supported");
+                            w.generatedId = keys.getLong(1);
+                        }
+                    }
+                }
+                break;
+            case UPDATE:
+                PreparedStatement update = db.cachedStatement(UPDATE_SQL);
+                for (Write w : run) {
+                    update.setInt(1, w.state);
+                    update.setLong(2, w.createdAt);
+                    update.setLong(3, w.expiresAt);
+                    update.setLong(4, w.lockedById);
+                    update.setLong(5, w.recordId);
+                    update.addBatch();
+                }
+                update.executeBatch();
+                break;
+            case DELETE:
+                PreparedStatement delete = db.cachedStatement(DELETE_SQL);
+                for (Write w : run) {
+                    delete.setLong(1, w.recordId);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+                break;
+        }
+    }
+
+    /**
+     * @return batch sizes, batch execution time, caller wait time (in microseconds) and number of failed batches
+     */
+    public Binder getStats() {
+        return Binder.of(
+                "batchSize", batchSizes.toBinder(),
+                "batchMicros", batchMicros.toBinder(),
+                "waitMicros", waitMicros.toBinder(),
+                "failedBatches", failedBatches.get(),
+                "queued", queue.size()
+        );
+    }
+
+    /**
+     * Stop accepting writes, finish the queued ones and stop the flusher thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Write w;
+        while ((w = queue.poll()) != null)
+            w.complete(false);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa.node;
+
+import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the packed transactions the ledger stores in {@code items} and {@code kept_items}.
+ * <p>
+ * Packed transactions are Boss, with the same field names, type names and role structures repeated in every contract,
+ * so they are deflated with the preset dictionary made of that vocabulary, which makes even small items compress well.
+ * The compressed value starts with {@link #MARKER} and the dictionary version, then goes the original size and the
+ * zlib stream. Boss-packed transaction never starts with zero byte (it is a dictionary), so the values stored before
+ * compression was introduced are read as they are, and the value that does not get smaller is also stored as is.
+ */
+public final class PackedItemCodec {
+
+    /**
+     * First byte of the compressed value.
+     */
+    public static final byte MARKER = 0;
+
+    /**
+     * Version of the dictionary below; the new dictionary must get the new version, and the old one must be kept to
+     * read what was stored with it.
+     */
+    private static final byte DICTIONARY_V1 = 1;
+
+    private static final int HEADER_SIZE = 6;
+
+    // ordered from rare to frequent: deflate finds the closer (later) matches cheaper
+    private static final String[] VOCABULARY = {
+            "UnsContract", "UnsName", "UnsRecord", "FollowerContract", "SlotContract", "NSmartContract",
+            "ChangeRolePermission", "ModifyDataPermission", "ChangeNumberPermission", "SplitJoinPermission",
+            "RevokePermission", "ChangeOwnerPermission", "ListRole", "QuorumVoteRole", "RoleLink", "SimpleRole",
+            "KeyRecord", "KeyAddress", "RSAPublicKey", "HashId", "composite3", "unixtime", "__type", "__t",
+            "unicapsule", "TransactionPack", "subItems", "referencedItems", "revokingItems", "tags", "keys",
+            "anonIds", "addresses", "required", "all_of", "any_of", "quorumSize", "mode", "roles", "role",
+            "target_name", "field_name", "min_value", "max_value", "min_step", "max_step", "fields", "split_join",
+            "change_owner", "change_number", "modify_data", "revoke", "decrement_permission", "references",
+            "transactional", "transactional_id", "valid_until", "api_level", "branch_id", "parent", "origin",
+            "extended_type", "expires_at", "created_at", "created_by", "revision", "permissions", "definition",
+            "state", "issuer", "creator", "owner", "data", "name", "type", "version", "signatures", "contract",
+            "new", "revoking", "key"
+    };
+
+    private static final byte[] DICTIONARY = buildDictionary();
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.DEFAULT_COMPRESSION));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private static final LongAdder encoded = new LongAdder();
+    private static final LongAdder encodedBytes = new LongAdder();
+    private static final LongAdder storedBytes = new LongAdder();
+    private static final LongAdder keptAsIs = new LongAdder();
+    private static final LongAdder decoded = new LongAdder();
+
+    private PackedItemCodec() {
+    }
+
+    // each name is Boss-packed, so the string header byte matches too
+    private static byte[] buildDictionary() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String s : VOCABULARY) {
+            byte[] packed = Boss.pack(s);
+            out.write(packed, 0, packed.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param packed packed transaction
+     *
+     * @return compressed value to store, or the packed transaction itself if compression does not make it smaller
+     */
+    public static byte[] encode(byte[] packed) {
+        encoded.increment();
+        encodedBytes.add(packed.length);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(packed);
+        deflater.finish();
+        // no reason to store the result that is not smaller
+        byte[] result = new byte[packed.length];
+        int size = HEADER_SIZE;
+        while (!deflater.finished() && size < result.length)
+            size += deflater.deflate(result, size, result.length - size);
+        if (!deflater.finished()) {
+            keptAsIs.increment();
+            storedBytes.add(packed.length);
+            return packed;
+        }
+        result[0] = MARKER;
+        result[1] = DICTIONARY_V1;
+        int n = packed.length;
+        result[2] = (byte) (n >>> 24);
+        result[3] = (byte) (n >>> 16);
+        result[4] = (byte) (n >>> 8);
+        result[5] = (byte) n;
+        storedBytes.add(size);
+        byte[] trimmed = new byte[size];
+        System.arraycopy(result, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * @param stored value read from the ledger, compressed or not
+     *
+     * @return packed transaction, or null if stored is null
+     *
+     * @throws IllegalArgumentException if the value is compressed in an unknown way or is broken
+     */
+    public static byte[] decode(byte[] stored) {
+        if (stored == null || stored.length == 0 || stored[0] != MARKER)
+            return stored;
+        if (stored.length < HEADER_SIZE || stored[1] != DICTIONARY_V1)
+            throw new IllegalArgumentException("unknown packed item compression");
+        int n = ((stored[2] & 0xFF) << 24) | ((stored[3] & 0xFF) << 16) | ((stored[4] & 0xFF) << 8) | (stored[5] & 0xFF);
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(stored, HEADER_SIZE, stored.length - HEADER_SIZE);
+        byte[] result = new byte[n];
+        int size = 0;
+        try {
+            while (size < n) {
+                int count = inflater.inflate(result, size, n - size);
+                if (count == 0) {
+                    if (inflater.needsDictionary())
+                        inflater.setDictionary(DICTIONARY);
+                    else if (inflater.finished() || inflater.needsInput())
+                        break;
+                }
+                size += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("broken compressed packed item", e);
+        }
+        if (size != n)
+            throw new IllegalArgumentException("broken compressed packed item: " + size + " of " + n + " bytes");
+        decoded.increment();
+        return result;
+    }
+
+    /**
+     * @return number of the encoded items, their size before and after compression, the compression ratio, number of
+     * items stored as is and number of items decompressed
+     */
+    public static Binder getStats() {
+        long before = encodedBytes.sum();
+        long after = storedBytes.sum();
+        return Binder.of(
+                "encoded", encoded.sum(),
+                "bytesIn", before,
+                "bytesStored", after,
+                "ratio", after > 0 ? (double) before / after : 0.0,
+                "storedAsIs", keptAsIs.sum(),
+                "decoded", decoded.sum()
+        );
+    }
+}
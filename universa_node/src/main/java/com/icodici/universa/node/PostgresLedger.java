@@ -14,6 +14,8 @@ import com.icodici.db.DbPool;
 import com.icodici.db.PooledDb;
 import com.icodici.universa.Approvable;
 import com.icodici.universa.HashId;
+import com.icodici.universa.HashIdMap;
+import com.icodici.universa.HashIdSet;
 import com.icodici.universa.contract.Contract;
 import com.icodici.universa.contract.services.*;
 import com.icodici.universa.node2.*;
@@ -22,7 +24,6 @@ import net.sergeych.tools.Binder;
 import net.sergeych.tools.JsonTool;
 import net.sergeych.utils.Ut;
 
-import java.lang.ref.WeakReference;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -52,9 +53,27 @@ public class PostgresLedger implements Ledger {
 
     private boolean sqlite = false;
 
-    private Map<HashId, WeakReference<StateRecord>> cachedRecords = new WeakHashMap<>();
-    private Map<Long, WeakReference<StateRecord>> cachedRecordsById = new WeakHashMap<>();
-    private boolean useCache = true;
+    /**
+     * Default number of the ledger records held in memory.
+     */
+    public final static int DEFAULT_CACHE_SIZE = 100_000;
+
+    /**
+     * Default time to remember that the hash is not in the ledger.
+     */
+    public final static Duration DEFAULT_NEGATIVE_CACHE_TTL = Duration.ofSeconds(2);
+
+    /**
+     * Default maximum number of rows {@link #cleanup(boolean)} deletes in one transaction.
+     */
+    public final static int DEFAULT_CLEANUP_CHUNK_SIZE = 1000;
+
+    private volatile StateRecordCache recordCache = new StateRecordCache(DEFAULT_CACHE_SIZE, DEFAULT_NEGATIVE_CACHE_TTL);
+    private volatile boolean useCache = true;
+    private volatile LedgerWritePipeline writePipeline = null;
+    private LedgerCleanup ledgerCleanup;
+    private volatile ItemsPartitioning itemsPartitioning = null;
+    private volatile boolean compressItems = true;
 
     public PostgresLedger(String connectionString, Properties properties) throws SQLException {
         dbPool = new DbPool(connectionString, properties, MAX_CONNECTIONS);
@@ -75,6 +94,7 @@ public class PostgresLedger implements Ledger {
         } catch (Exception e) {
             throw new SQLException("Failed to migrate", e);
         }
+        ledgerCleanup = new LedgerCleanup(dbPool, DEFAULT_CLEANUP_CHUNK_SIZE, Duration.ZERO, Duration.ZERO);
     }
 
     /**
@@ -97,9 +117,16 @@ public class PostgresLedger implements Ledger {
             StateRecord cached = getFromCache(itemId);
             if (cached != null)
                 return cached;
-            try (ResultSet rs = inPool(db -> db.queryRow("SELECT * FROM ledger WHERE hash = ? limit 1", itemId.getDigest()))) {
-                if (rs != null) {
-                    StateRecord record = new StateRecord(this, rs);
+            if (useCache && recordCache.isKnownAbsent(itemId))
+                return null;
+            try {
+                // the statement is cached by the connection, so the record is read before the connection is returned
+                StateRecord record = inPool(db -> {
+                    try (ResultSet rs = db.cachedStatement("SELECT * FROM ledger WHERE hash = ? limit 1", itemId.getDigest()).executeQuery()) {
+                        return rs.next() ? new StateRecord(this, rs) : null;
+                    }
+                });
+                if (record != null) {
                     putToCache(record);
                     return record;
                 }
@@ -107,6 +134,9 @@ public class PostgresLedger implements Ledger {
                 e.printStackTrace();
                 throw e;
             }
+            // records of this ledger are created only through it, so we'll know when this one appears
+            if (useCache && !dbPool.isInTransaction())
+                recordCache.putAbsent(itemId);
             return null;
         });
         if (sr != null && sr.isExpired()) {
@@ -117,48 +147,20 @@ public class PostgresLedger implements Ledger {
     }
 
     private StateRecord getFromCache(HashId itemId) {
-        if (useCache) {
-            synchronized (cachedRecords) {
-                WeakReference<StateRecord> ref = cachedRecords.get(itemId);
-                if (ref == null)
-                    return null;
-                StateRecord r = ref.get();
-                if (r == null) {
-                    cachedRecords.remove(itemId);
-                    return null;
-                }
-                return r;
-            }
-        } else
-            return null;
+        return useCache ? recordCache.get(itemId) : null;
     }
 
     private StateRecord getFromCacheById(long recordId) {
-        if (useCache) {
-            synchronized (cachedRecordsById) {
-                WeakReference<StateRecord> ref = cachedRecordsById.get(recordId);
-                if (ref == null)
-                    return null;
-                StateRecord r = ref.get();
-                if (r == null) {
-                    cachedRecordsById.remove(recordId);
-                    return null;
-                }
-                return r;
-            }
-        } else
-            return null;
+        return useCache ? recordCache.getById(recordId) : null;
     }
 
     private void putToCache(StateRecord r) {
-        if (useCache) {
-            synchronized (cachedRecords) {
-                cachedRecords.put(r.getId(), new WeakReference<StateRecord>(r));
-            }
-            synchronized (cachedRecordsById) {
-                cachedRecordsById.put(r.getRecordId(), new WeakReference<StateRecord>(r));
-            }
-        }
+        if (useCache)
+            recordCache.put(r);
+    }
+
+    private void removeFromCache(StateRecord r) {
+        recordCache.remove(r);
     }
 
 
@@ -227,10 +229,111 @@ public class PostgresLedger implements Ledger {
         });
     }
 
+    @Override
+    public Map<HashId, StateRecord> getRecords(Collection<HashId> ids) {
+        Map<HashId, StateRecord> result = new HashIdMap<>(ids.size());
+        List<HashId> toLoad = new ArrayList<>();
+        for (HashId id : ids) {
+            StateRecord cached = getFromCache(id);
+            if (cached != null)
+                result.put(id, cached);
+            else if (!useCache || !recordCache.isKnownAbsent(id))
+                toLoad.add(id);
+        }
+        if (!toLoad.isEmpty()) {
+            protect(() -> {
+                try (ResultSet rs = inPool(db -> db.queryRow("SELECT * FROM ledger WHERE hash = ANY(?::bytea[])",
+                        toByteaArray(toLoad)))) {
+                    if (rs != null) {
+                        do {
+                            StateRecord record = new StateRecord(this, rs);
+                            putToCache(record);
+                            result.put(record.getId(), record);
+                        } while (rs.next());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    throw e;
+                }
+                return null;
+            });
+            if (useCache && !dbPool.isInTransaction()) {
+                for (HashId id : toLoad)
+                    if (!result.containsKey(id))
+                        recordCache.putAbsent(id);
+            }
+        }
+        result.values().removeIf(r -> {
+            if (r.isExpired()) {
+                r.destroy();
+                return true;
+            }
+            return false;
+        });
+        return result;
+    }
+
+    @Override
+    public Map<HashId, StateRecord> findOrCreateAll(Collection<HashId> ids) {
+        Map<HashId, StateRecord> result = new HashIdMap<>(ids.size());
+        List<HashId> toLoad = new ArrayList<>();
+        for (HashId id : ids) {
+            StateRecord cached = getFromCache(id);
+            if (cached != null)
+                result.put(id, cached);
+            else
+                toLoad.add(id);
+        }
+        if (!toLoad.isEmpty()) {
+            protect(() -> {
+                try (ResultSet rs = inPool(db -> db.queryRow(
+                        "SELECT r.* FROM unnest(?::bytea[]) AS h, sr_find_or_create(h) AS r",
+                        toByteaArray(toLoad)))) {
+                    if (rs != null) {
+                        do {
+                            StateRecord record = new StateRecord(this, rs);
+                            putToCache(record);
+                            result.put(record.getId(), record);
+                        } while (rs.next());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    throw e;
+                }
+                return null;
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Pack hashes to the postgres bytea[] literal. Array parameters of bytea are not supported by the driver, so we
+     * pass it as a string and cast it in the query.
+     *
+     * @param ids to pack
+     * @return array literal
+     */
+    private static String toByteaArray(Collection<HashId> ids) {
+        StringBuilder sb = new StringBuilder(ids.size() * 140 + 2);
+        sb.append('{');
+        for (HashId id : ids) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append("\"\\\\x");
+            for (byte b : id.getDigest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            sb.append('"');
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
     @Override
     public Map<HashId,StateRecord> findUnfinished() {
             return protect(() -> {
-                HashMap<HashId, StateRecord> map = new HashMap<>();
+                Map<HashId, StateRecord> map = new HashIdMap<>();
                 try (ResultSet rs = inPool(db -> db.queryRow("select * from sr_find_unfinished()"))) {
                     if (rs != null) {
                         do {
@@ -257,7 +360,7 @@ public class PostgresLedger implements Ledger {
                 try (ResultSet rs = inPool(db -> db.queryRow("select * from items where id = ?", record.getRecordId()))) {
                     if (rs == null)
                         return null;
-                    return Contract.fromPackedTransaction(rs.getBytes("packed"));
+                    return Contract.fromPackedTransaction(PackedItemCodec.decode(rs.getBytes("packed")));
                 } catch (Exception e) {
                     e.printStackTrace();
                     throw e;
@@ -276,7 +379,7 @@ public class PostgresLedger implements Ledger {
                                 )
                 ) {
                     statement.setLong(1, record.getRecordId());
-                    statement.setBytes(2, ((Contract) item).getPackedTransaction());
+                    statement.setBytes(2, encodeItem(((Contract) item).getPackedTransaction()));
                     statement.setLong(3, keepTill.getEpochSecond());
                     db.updateWithStatement(statement);
                 } catch (Exception e) {
@@ -292,13 +395,34 @@ public class PostgresLedger implements Ledger {
         }
     }
 
+    private byte[] encodeItem(byte[] packed) {
+        return compressItems ? PackedItemCodec.encode(packed) : packed;
+    }
+
+    /**
+     * Enable or disable compression of the packed transactions written to {@code items} and {@code kept_items}, see
+     * {@link PackedItemCodec}. Compressed items are always read regardless of this setting.
+     *
+     * @param compressItems true to compress the items written from now on
+     */
+    public void setItemsCompression(boolean compressItems) {
+        this.compressItems = compressItems;
+    }
+
+    /**
+     * @return sizes of the items before and after compression and compression ratio
+     */
+    public Binder getItemsCompressionStats() {
+        return PackedItemCodec.getStats();
+    }
+
     @Override
     public byte[] getKeepingItem(HashId itemId) {
         return protect(() -> {
             try (ResultSet rs = inPool(db -> db.queryRow("select * from kept_items, ledger where ledger.hash = ? and ledger.id = kept_items.ledger_id limit 1", itemId.getDigest()))) {
                 if (rs == null)
                     return null;
-                return rs.getBytes("packed");
+                return PackedItemCodec.decode(rs.getBytes("packed"));
             } catch (Exception e) {
                 e.printStackTrace();
                 throw e;
@@ -316,6 +440,7 @@ public class PostgresLedger implements Ledger {
                 if (rs == null)
                     return null;
 
+                // the packed contract is returned only if it is the only one, decode it only then
                 byte[] packed = rs.getBytes("packed");
                 List<byte[]> contractIds = new ArrayList<>();
                 contractIds.add(rs.getBytes("hash"));
@@ -326,7 +451,7 @@ public class PostgresLedger implements Ledger {
                 if (contractIds.size() > 1)
                     return contractIds;
                 else
-                    return packed;
+                    return PackedItemCodec.decode(packed);
             } catch (Exception e) {
                 e.printStackTrace();
                 throw e;
@@ -336,6 +461,15 @@ public class PostgresLedger implements Ledger {
 
     @Override
     public Binder getKeepingBy(String field, HashId id, Binder tags, int limit, int offset, String sortBy, String sortOrder) {
+        return getKeeping(field, id, tags, limit, offset, null, sortBy, sortOrder);
+    }
+
+    @Override
+    public Binder getKeepingByCursor(String field, HashId id, Binder tags, int limit, String after, String sortBy, String sortOrder) {
+        return getKeeping(field, id, tags, limit, 0, after, sortBy, sortOrder);
+    }
+
+    private Binder getKeeping(String field, HashId id, Binder tags, int limit, int offset, String after, String sortBy, String sortOrder) {
         String searchColumn;
         if(field == null) {
             searchColumn = null;
@@ -361,42 +495,47 @@ public class PostgresLedger implements Ledger {
         if(!sortOrder.equalsIgnoreCase("asc") && !sortOrder.equalsIgnoreCase("desc")) {
             throw new IllegalArgumentException("Invalid sort order: '" + sortOrder +"'. Should be either ASC or DESC");
         }
+        boolean descending = sortOrder.equalsIgnoreCase("desc");
+        // expires_at is nullable; nulls are placed as postgres does by default, the highest values
+        String nulls = orderColumn.equals("ledger.expires_at") ? (descending ? " NULLS FIRST" : " NULLS LAST") : "";
 
+        KeepingCursor cursor = after == null || after.isEmpty() ? null : KeepingCursor.parse(after);
 
         final StringBuilder query = new StringBuilder("");
 
         List<String> tagsFlat = new ArrayList<>();
 
-        if(tags != null && !tags.isEmpty()) {
-            String tagsQuery = extractTags(true, tags, tagsFlat);
-
-            query.append("WITH tagged_ledger_items AS ( SELECT ledger.id AS ledger_id FROM ledger ");
-
-            for(int i = 0; i < tagsFlat.size()/2; i++) {
-                query.append("INNER JOIN kept_items_tags AS tags_"+i+" ON tags_"+i+".ledger_id = ledger.id ");
-            }
-
-            query.append("WHERE ");
-            query.append(tagsQuery);
-            query.append(")");
-        }
-
-        query.append("select kept_items.packed, ledger.hash from kept_items, ledger ");
+        query.append("select kept_items.packed, ledger.hash, ledger.id, " + orderColumn + " AS sort_value from kept_items, ledger ");
         query.append("WHERE ");
         if(tags != null && !tags.isEmpty()) {
-            query.append("ledger.id IN (SELECT ledger_id FROM tagged_ledger_items) and ");
+            query.append(extractTags(true, tags, tagsFlat));
+            query.append(" and ");
         }
 
         if(searchColumn != null) {
             query.append(searchColumn + " = ? and ");
         }
 
-        query.append("kept_items.ledger_id = ledger.id and ledger.state = ? order by " + orderColumn + " " + sortOrder + "  limit ? offset ?");
-
-//        select keeping_items.packed, keeping_items.hash from keeping_items, ledger where ledger.hash = keeping_items.hash and " + searchColumn + " = ? and ledger.state = ? order by " + orderColumn + " " + sortOrder + "  limit ? offset ?";
-
-
+        // the page starts right after the cursor row, so it is found by the index whatever the page depth is
+        if(cursor != null) {
+            String sign = descending ? "<" : ">";
+            if(orderColumn.equals("ledger.id")) {
+                query.append("ledger.id " + sign + " ? and ");
+            } else if(cursor.value == null) {
+                // null rows go first in descending order, and the values follow them; last in ascending one
+                query.append("(" + orderColumn + " IS NULL and ledger.id " + sign + " ?" +
+                        (descending ? " or " + orderColumn + " IS NOT NULL" : "") + ") and ");
+            } else {
+                query.append("((" + orderColumn + ", ledger.id) " + sign + " (?, ?)" +
+                        (descending || nulls.isEmpty() ? "" : " or " + orderColumn + " IS NULL") + ") and ");
+            }
+        }
 
+        query.append("kept_items.ledger_id = ledger.id and ledger.state = ? order by " + orderColumn + " " + sortOrder + nulls);
+        // records with the same value are ordered by id, so the pages neither skip nor repeat them
+        if(!orderColumn.equals("ledger.id"))
+            query.append(", ledger.id " + sortOrder);
+        query.append("  limit ? offset ?");
 
         try (PooledDb db = dbPool.db()) {
             try (
@@ -417,6 +556,15 @@ public class PostgresLedger implements Ledger {
                     idx++;
                 }
 
+                if(cursor != null) {
+                    if(!orderColumn.equals("ledger.id") && cursor.value != null) {
+                        statement.setLong(idx, cursor.value);
+                        idx++;
+                    }
+                    statement.setLong(idx, cursor.id);
+                    idx++;
+                }
+
                 statement.setInt(idx,ItemState.APPROVED.ordinal());
                 idx++;
 
@@ -431,16 +579,23 @@ public class PostgresLedger implements Ledger {
                 if(!rs.next())
                     return null;
 
+                // the packed contract is returned only if it is the only one, decode it only then
                 byte[] packed = rs.getBytes("packed");
                 List<byte[]> contractIds = new ArrayList<>();
                 contractIds.add(rs.getBytes("hash"));
+                KeepingCursor last = KeepingCursor.of(rs);
 
-                while (rs.next())
+                while (rs.next()) {
                     contractIds.add(rs.getBytes("hash"));
+                    last = KeepingCursor.of(rs);
+                }
 
                 Binder res = Binder.of("contractIds", contractIds);
                 if (contractIds.size() == 1)
-                    res.put("packedContract",packed);
+                    res.put("packedContract",PackedItemCodec.decode(packed));
+                // the full page could be followed by the next one
+                if (contractIds.size() == limit)
+                    res.put("nextCursor", last.toString());
                 return res;
             }
         } catch (SQLException se) {
@@ -452,13 +607,52 @@ public class PostgresLedger implements Ledger {
         }
     }
 
+    /**
+     * Sort value and id of the last row of the kept items page, the next page starts after it. The value is null if the
+     * row has no value in the sort column.
+     */
+    private static final class KeepingCursor {
+        private static final String NULL = "null";
+
+        private final Long value;
+        private final long id;
+
+        private KeepingCursor(Long value, long id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        private static KeepingCursor of(ResultSet rs) throws SQLException {
+            long value = rs.getLong("sort_value");
+            return new KeepingCursor(rs.wasNull() ? null : value, rs.getLong("id"));
+        }
+
+        private static KeepingCursor parse(String cursor) {
+            String[] parts = cursor.split(":");
+            if(parts.length != 2)
+                throw new IllegalArgumentException("Invalid cursor: '" + cursor + "'");
+            try {
+                Long value = parts[0].equals(NULL) ? null : Long.parseLong(parts[0]);
+                return new KeepingCursor(value, Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: '" + cursor + "'");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (value == null ? NULL : value.toString()) + ":" + id;
+        }
+    }
+
+    // each tag condition is a lookup in the (tag, value, ledger_id) index instead of the join with all the record tags
     private String extractTags(boolean all, Binder tags, List<String> tagsFlat) {
         StringBuilder result = new StringBuilder("(");
         tags.forEach((k,v)-> {
             if(v instanceof String) {
-                int i = tagsFlat.size()/2;
                 result.append((result.length() > 1 ? (all ? " and " : " or ") : ""));
-                result.append("(tags_"+i+".tag = ? and tags_"+i+".value = ?)");
+                result.append("exists (select 1 from kept_items_tags where kept_items_tags.ledger_id = ledger.id " +
+                        "and kept_items_tags.tag = ? and kept_items_tags.value = ?)");
                 tagsFlat.add(k);
                 tagsFlat.add((String) v);
             } else if(v instanceof Binder) {
@@ -504,7 +698,7 @@ public class PostgresLedger implements Ledger {
                     else
                         statement.setNull(3, Types.VARBINARY);
 
-                    statement.setBytes(4, contract.getPackedTransaction());
+                    statement.setBytes(4, encodeItem(contract.getPackedTransaction()));
 
                     db.updateWithStatement(statement);
                 } catch (Exception e) {
@@ -573,8 +767,35 @@ public class PostgresLedger implements Ledger {
         }
     }
 
+    /**
+     * Enable grouping of concurrent {@link StateRecord} writes into batches, see {@link LedgerWritePipeline}. Writes
+     * of the thread that holds a connection, e.g. inside {@link #transaction(Callable)}, are never batched.
+     *
+     * @param flushWindow  how long to collect writes before executing the batch, zero to batch only the writes that
+     *                     were queued while the previous batch was executing
+     * @param maxBatchSize maximum number of writes in the batch, 0 or less to disable batching
+     * @param lockTimeout  how long the batch waits for row locks before its writes are given back to the callers
+     */
+    public synchronized void setWriteBatching(Duration flushWindow, int maxBatchSize, Duration lockTimeout) {
+        if (writePipeline != null) {
+            writePipeline.close();
+            writePipeline = null;
+        }
+        if (maxBatchSize > 0)
+            writePipeline = new LedgerWritePipeline(dbPool, flushWindow, maxBatchSize, lockTimeout);
+    }
+
+    /**
+     * @return statistics of the write batching or null if it is disabled
+     */
+    public Binder getWriteBatchingStats() {
+        LedgerWritePipeline pipeline = writePipeline;
+        return pipeline != null ? pipeline.getStats() : null;
+    }
+
     @Override
     public void close() {
+        setWriteBatching(Duration.ZERO, 0, Duration.ZERO);
         try {
             dbPool.close();
         } catch (Exception e) {
@@ -662,16 +883,14 @@ public class PostgresLedger implements Ledger {
             throw new IllegalStateException("can't destroy record without recordId");
         }
         protect(() -> {
-            inPool(d -> {
-                d.update("DELETE FROM ledger WHERE id = ?", recordId);
-                return null;
-            });
-            synchronized (cachedRecords) {
-                cachedRecords.remove(record.getId());
-            }
-            synchronized (cachedRecordsById) {
-                cachedRecordsById.remove(record.getRecordId());
+            LedgerWritePipeline pipeline = writePipeline;
+            if (pipeline == null || dbPool.hasThreadConnection() || !pipeline.delete(recordId)) {
+                inPool(d -> {
+                    d.update("DELETE FROM ledger WHERE id = ?", recordId);
+                    return null;
+                });
             }
+            removeFromCache(record);
             return null;
         });
     }
@@ -708,6 +927,24 @@ public class PostgresLedger implements Ledger {
 
     }
 
+    @Override
+    public Set<HashId> getTestnetIds(Collection<HashId> itemIds) {
+        Set<HashId> result = new HashIdSet();
+        if (itemIds.isEmpty())
+            return result;
+        return protect(() -> {
+            try (ResultSet rs = inPool(db -> db.queryRow("SELECT hash FROM ledger_testrecords WHERE hash = ANY(?::bytea[])",
+                    toByteaArray(itemIds)))) {
+                if (rs != null) {
+                    do {
+                        result.add(HashId.withDigest(rs.getBytes(1)));
+                    } while (rs.next());
+                }
+            }
+            return result;
+        });
+    }
+
 
 
     @Override
@@ -717,6 +954,18 @@ public class PostgresLedger implements Ledger {
         } else if (stateRecord.getLedger() != this)
             throw new IllegalStateException("can't save with a different ledger (make a copy!)");
 
+        // writes inside the transaction should stay in it, so they are never batched; nor are the writes of the thread
+        // holding a connection, as waiting for the batch with it could take the last connection the batch needs
+        LedgerWritePipeline pipeline = writePipeline;
+        if (pipeline != null && !dbPool.hasThreadConnection()) {
+            boolean isNew = stateRecord.getRecordId() == 0;
+            if (pipeline.save(stateRecord)) {
+                if (isNew)
+                    putToCache(stateRecord);
+                return;
+            }
+        }
+
         // TODO: probably, it should take a PooledDb as an argument and reuse it
         try (PooledDb db = dbPool.db()) {
             if (stateRecord.getRecordId() == 0) {
@@ -770,8 +1019,10 @@ public class PostgresLedger implements Ledger {
                             stateRecord.getId().getDigest()
                     );
             ) {
-                if (rs == null)
+                if (rs == null) {
+                    removeFromCache(stateRecord);
                     throw new StateRecord.NotFoundException("record not found");
+                }
                 stateRecord.initFrom(rs);
             } catch (Exception e) {
                 e.printStackTrace();
@@ -793,11 +1044,36 @@ public class PostgresLedger implements Ledger {
             this.useCache = true;
         } else {
             this.useCache = false;
-            cachedRecords.clear();
-            cachedRecordsById.clear();
+            recordCache.clear();
         }
     }
 
+    /**
+     * Set limits of the records cache. Cached records are dropped.
+     *
+     * @param maxSize     maximum number of records held in memory
+     * @param negativeTtl how long to remember that the hash is not in the ledger, zero to not remember
+     */
+    public void setCacheLimits(int maxSize, Duration negativeTtl) {
+        StateRecordCache old = recordCache;
+        recordCache = new StateRecordCache(maxSize, negativeTtl);
+        old.clear();
+    }
+
+    /**
+     * @return records cache size, hit rate, number of lookups answered by the negative cache and evictions
+     */
+    public Binder getCacheStats() {
+        return recordCache.getStats();
+    }
+
+    /**
+     * @return database connection pool usage and wait times
+     */
+    public Binder getPoolStats() {
+        return dbPool.getStats();
+    }
+
     public Db getDb() throws SQLException {
         return dbPool.db();
     }
@@ -957,26 +1233,11 @@ public class PostgresLedger implements Ledger {
     }
 
     public void cleanup(boolean isPermanetMode) {
-        try (PooledDb db = dbPool.db()) {
-
-            long now = Instant.now().getEpochSecond();
-            String sqlText = "delete from items where id in (select id from ledger where expires_at < ?);";
-            db.update(sqlText, now);
-
-            if (!isPermanetMode) {
-                sqlText = "delete from ledger where expires_at < ?;";
-                db.update(sqlText, now);
-            }
-
-            sqlText = "delete from items where keepTill < ?;";
-            db.update(sqlText, now);
-
-            sqlText = "delete from follower_callbacks where stored_until < ?;";
-            db.update(sqlText, now);
-
-            sqlText = "delete from votings where expires_at < ?;";
-            db.update(sqlText, now);
-
+        ItemsPartitioning partitioning = itemsPartitioning;
+        if (partitioning != null)
+            partitioning.maintain();
+        try {
+            ledgerCleanup.run(isPermanetMode);
         } catch (SQLException se) {
             se.printStackTrace();
             throw new Failure("cleanup failed:" + se);
@@ -984,6 +1245,56 @@ public class PostgresLedger implements Ledger {
         }
     }
 
+    /**
+     * Limit the work {@link #cleanup(boolean)} does at once, see {@link LedgerCleanup}. By default, each call deletes
+     * everything expired in chunks of {@link #DEFAULT_CLEANUP_CHUNK_SIZE} rows with no pauses.
+     *
+     * @param chunkSize  maximum rows deleted in one transaction
+     * @param timeBudget maximum time one call works, the next call continues from where it stopped. Zero means no limit
+     * @param chunkPause pause between the chunks
+     */
+    public void setCleanupLimits(int chunkSize, Duration timeBudget, Duration chunkPause) {
+        ledgerCleanup.setLimits(chunkSize, timeBudget, chunkPause);
+    }
+
+    /**
+     * Switch to the mode where {@code items} table is partitioned by {@code keepTill}, so {@link #cleanup(boolean)}
+     * drops the expired partitions as a whole and creates the next ones, see {@link ItemsPartitioning}. The table
+     * should be converted with {@link #convertItemsToPartitioned(Duration)} first.
+     *
+     * @param span    keepTill range of one partition
+     * @param horizon how far ahead of the current time {@code keepTill} of the items put could be
+     *
+     * @throws SQLException if the table is not converted
+     */
+    public synchronized void enableItemsPartitioning(Duration span, Duration horizon) throws SQLException {
+        if (itemsPartitioning == null)
+            itemsPartitioning = new ItemsPartitioning(dbPool, span, horizon);
+    }
+
+    /**
+     * Convert {@code items} table to the partitioned one, moving the items in chunks. Should be done while the node is
+     * stopped, see {@link ItemsPartitioning#convert(DbPool, Duration, int)}.
+     *
+     * @param span keepTill range of one partition
+     *
+     * @throws SQLException if conversion failed, calling it again continues the conversion
+     */
+    public void convertItemsToPartitioned(Duration span) throws SQLException {
+        ItemsPartitioning.convert(dbPool, span, DEFAULT_CLEANUP_CHUNK_SIZE);
+    }
+
+    /**
+     * @return progress of the incremental cleanup, rows deleted from each table and items partitions if they are used
+     */
+    public Binder getCleanupStats() {
+        Binder result = ledgerCleanup.getStats();
+        ItemsPartitioning partitioning = itemsPartitioning;
+        if (partitioning != null)
+            result.put("itemsPartitions", partitioning.getStats());
+        return result;
+    }
+
     public void savePayment(int amount, ZonedDateTime date) {
 
 
@@ -1488,7 +1799,7 @@ public class PostgresLedger implements Ledger {
                 ResultSet rs = statement.executeQuery();
                 if (rs == null)
                     throw new Failure("getNames failed: returning null");
-                Set<HashId> result = new HashSet<>();
+                Set<HashId> result = new HashIdSet();
                 while (rs.next()) {
                     result.add(HashId.withDigest(rs.getBytes(1)));
                 }
@@ -1540,8 +1851,9 @@ public class PostgresLedger implements Ledger {
 
     @Override
     public Set<HashId> findBadReferencesOf(Set<HashId> ids) {
+        if (ids.isEmpty())
+            return new HashSet<>();
         try (PooledDb db = dbPool.db()) {
-            String queryPart = String.join(",", Collections.nCopies(ids.size(),"?"));
             try (
                     PreparedStatement statement =
                             db.statement(
@@ -1549,24 +1861,15 @@ public class PostgresLedger implements Ledger {
                                             "SELECT " +
                                             "  hash " +
                                             "FROM ledger " +
-                                            "WHERE hash IN ("+queryPart+") AND state = " + ItemState.APPROVED.ordinal()
+                                            "WHERE hash = ANY(?::bytea[]) AND state = " + ItemState.APPROVED.ordinal()
                             )
             ) {
-                AtomicInteger idx = new AtomicInteger(1);
-                ids.forEach(id -> {
-                    try {
-                        statement.setBytes(idx.getAndIncrement(), id.getDigest());
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                        throw new Failure("findBadReferencesOf failed: " + e);
-                    }
-                });
-
+                statement.setString(1, toByteaArray(ids));
                 statement.closeOnCompletion();
                 ResultSet rs = statement.executeQuery();
                 if (rs == null)
                     throw new Failure("findBadReferencesOf failed: returning null");
-                Set<HashId> res = new HashSet<>(ids);
+                Set<HashId> res = new HashIdSet(ids);
                 while (rs.next()) {
                     res.remove(HashId.withDigest(rs.getBytes(1)));
                 }
@@ -1575,10 +1878,10 @@ public class PostgresLedger implements Ledger {
             }
         } catch (SQLException se) {
             se.printStackTrace();
-            throw new Failure("isNameRecordBusy failed: " + se);
+            throw new Failure("findBadReferencesOf failed: " + se);
         } catch (Exception e) {
             e.printStackTrace();
-            throw new Failure("isNameRecordBusy failed: " + e);
+            throw new Failure("findBadReferencesOf failed: " + e);
         }
     }
 
@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.ZonedDateTime;
+import java.util.Map;
 
 /**
  * The state of some {@link HashId} - identifiable item (e.g. {@link Approvable} to be sotred in the {@link Ledger}
@@ -210,11 +211,26 @@ public class StateRecord implements HashIdentifiable, IStateRecord {
      * @return locked record id null if it could not be node
      */
     public StateRecord lockToRevoke(HashId idToRevoke) {
+        return lockToRevoke(idToRevoke, null);
+    }
+
+    /**
+     * Same as {@link #lockToRevoke(HashId)} but takes the record to lock from records already loaded with {@link
+     * Ledger#getRecords(java.util.Collection)}, so the ledger is queried only for ids that were not found there (e.g.
+     * the new items of the same transaction locked for creation after the records were loaded).
+     *
+     * @param idToRevoke    is {@link HashId} for item should be revoked
+     * @param loadedRecords records loaded from the ledger, may be null
+     * @return locked record id null if it could not be node
+     */
+    public StateRecord lockToRevoke(HashId idToRevoke, Map<HashId, StateRecord> loadedRecords) {
         checkLedgerExists();
         if (state != ItemState.PENDING)
             throw new IllegalStateException("only pending records are allowed to lock others. found:  " + state);
 
-        StateRecord lockedRecord = ledger.getRecord(idToRevoke);
+        StateRecord lockedRecord = loadedRecords != null ? loadedRecords.get(idToRevoke) : null;
+        if (lockedRecord == null)
+            lockedRecord = ledger.getRecord(idToRevoke);
         if (lockedRecord == null)
             return null;
         ItemState targetState = ItemState.LOCKED;
@@ -306,11 +322,26 @@ public class StateRecord implements HashIdentifiable, IStateRecord {
      * locked for apporoval by us.
      */
     public StateRecord createOutputLockRecord(HashId id) {
+        return createOutputLockRecord(id, null);
+    }
+
+    /**
+     * Same as {@link #createOutputLockRecord(HashId)} but checks the existence of the new item against records already
+     * loaded with {@link Ledger#getRecords(java.util.Collection)}, without querying the ledger again. If the item was
+     * created after the records were loaded, the unique hash constraint of the ledger fails the creation and null is
+     * returned as well.
+     *
+     * @param id            id of the new item to be locked for approval
+     * @param loadedRecords records loaded from the ledger for a set of ids including this one, or null to look it up
+     * @return the record of the new item locked for creatoin pn success, null it such item already exists and not
+     * locked for apporoval by us.
+     */
+    public StateRecord createOutputLockRecord(HashId id, Map<HashId, StateRecord> loadedRecords) {
         checkLedgerExists();
         checkHaveRecordId();
         if (state != ItemState.PENDING)
             throw new IllegalStateException("wrong state to createOutputLockRecord: " + state);
-        StateRecord newRecord = ledger.getRecord(id);
+        StateRecord newRecord = loadedRecords != null ? loadedRecords.get(id) : ledger.getRecord(id);
         if (newRecord != null) {
             return null;
         }
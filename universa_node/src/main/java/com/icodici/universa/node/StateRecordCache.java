@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.universa.node;
+
+import com.icodici.universa.HashId;
+import net.sergeych.tools.Binder;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of the {@link StateRecord} instances of the ledger, by item hash and by record id.
+ * <p>
+ * Up to {@code maxSize} recently used records are held strongly, so hot records survive garbage collection. Records
+ * pushed out of this limit (using CLOCK approximation of LRU, so lookups take no locks) are still found while somebody
+ * else references them, so all the users of the record always share the same instance, as it was with the weak cache.
+ * <p>
+ * Hashes known to be absent in the ledger are remembered for a short time, so repeated lookups of the unknown (e.g.
+ * fresh) items do not query the database. Any record put to the cache with the same hash cancels such negative entry.
+ */
+class StateRecordCache {
+
+    private final int maxSize;
+    private final long negativeTtlNanos;
+
+    private final ConcurrentHashMap<HashId, Entry> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<HashId, Long> absent = new ConcurrentHashMap<>();
+    private final ReferenceQueue<StateRecord> collected = new ReferenceQueue<>();
+
+    // CLOCK ring of strongly held entries, only the thread holding evictionLock walks it. Demoted entries are left in
+    // the ring and are skipped by the hand
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockLength = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicInteger strongSize = new AtomicInteger();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder negativeHitCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maxSize     maximum number of records held strongly
+     * @param negativeTtl how long to remember that the hash is not in the ledger, zero to not remember it
+     */
+    StateRecordCache(int maxSize, Duration negativeTtl) {
+        this.maxSize = maxSize;
+        this.negativeTtlNanos = negativeTtl.toNanos();
+    }
+
+    StateRecord get(HashId id) {
+        expungeCollected();
+        StateRecord r = lookup(byHash.get(id));
+        if (r != null)
+            hitCount.increment();
+        else
+            missCount.increment();
+        return r;
+    }
+
+    StateRecord getById(long recordId) {
+        expungeCollected();
+        StateRecord r = lookup(byId.get(recordId));
+        if (r != null)
+            hitCount.increment();
+        else
+            missCount.increment();
+        return r;
+    }
+
+    /**
+     * Check the hash is recently found to be absent in the ledger.
+     *
+     * @param id to check
+     *
+     * @return true if the hash is known to be absent
+     */
+    boolean isKnownAbsent(HashId id) {
+        Long expiresAt = absent.get(id);
+        if (expiresAt == null)
+            return false;
+        if (System.nanoTime() - expiresAt >= 0) {
+            absent.remove(id, expiresAt);
+            return false;
+        }
+        negativeHitCount.increment();
+        return true;
+    }
+
+    /**
+     * Remember the hash as absent in the ledger.
+     *
+     * @param id that is not found in the ledger
+     */
+    void putAbsent(HashId id) {
+        if (negativeTtlNanos <= 0)
+            return;
+        long now = System.nanoTime();
+        if (absent.size() >= maxSize) {
+            absent.values().removeIf(expiresAt -> now - expiresAt >= 0);
+            // still full of the fresh ones: simply start over, it is only the optimization
+            if (absent.size() >= maxSize)
+                absent.clear();
+        }
+        absent.put(id, now + negativeTtlNanos);
+    }
+
+    void put(StateRecord r) {
+        expungeCollected();
+        absent.remove(r.getId());
+        Entry e = new Entry(r, collected);
+        Entry old = byHash.put(r.getId(), e);
+        if (old != null && old.recordId != e.recordId)
+            byId.remove(old.recordId, old);
+        if (e.recordId != 0)
+            byId.put(e.recordId, e);
+        if (old != null)
+            demote(old);
+        strongSize.incrementAndGet();
+        clock.add(e);
+        if (clockLength.incrementAndGet() > maxSize)
+            evict();
+    }
+
+    /**
+     * Drop the record from the cache, e.g. when it is deleted from the ledger.
+     *
+     * @param r to remove
+     */
+    void remove(StateRecord r) {
+        Entry e = byHash.get(r.getId());
+        if (e != null && byHash.remove(r.getId(), e)) {
+            byId.remove(e.recordId, e);
+            demote(e);
+        }
+        if (r.getRecordId() != 0) {
+            e = byId.get(r.getRecordId());
+            if (e != null && byId.remove(r.getRecordId(), e)) {
+                byHash.remove(e.hash, e);
+                demote(e);
+            }
+        }
+    }
+
+    void clear() {
+        byHash.clear();
+        byId.clear();
+        absent.clear();
+        Entry e;
+        while ((e = clock.poll()) != null) {
+            clockLength.decrementAndGet();
+            demote(e);
+        }
+    }
+
+    int size() {
+        expungeCollected();
+        return byHash.size();
+    }
+
+    Binder getStats() {
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+        return Binder.of(
+                "size", size(),
+                "strongSize", strongSize.get(),
+                "maxSize", maxSize,
+                "hits", hits,
+                "misses", misses,
+                "hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0,
+                "absent", absent.size(),
+                "negativeHits", negativeHitCount.sum(),
+                "evictions", evictionCount.sum()
+        );
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    long getNegativeHitCount() {
+        return negativeHitCount.sum();
+    }
+
+    private StateRecord lookup(Entry e) {
+        if (e == null)
+            return null;
+        StateRecord r = e.strong;
+        if (r != null) {
+            e.referenced = true;
+            return r;
+        }
+        return e.get();
+    }
+
+    private void evict() {
+        // one evicting thread is enough, the others would only contend for the ring
+        if (!evictionLock.tryLock())
+            return;
+        try {
+            int budget = 2 * clockLength.get() + 2;
+            while (budget-- > 0) {
+                boolean full = strongSize.get() > maxSize;
+                // when not full, the hand only sweeps out demoted entries
+                if (!full && clockLength.get() <= 2 * maxSize)
+                    break;
+                Entry e = clock.poll();
+                if (e == null)
+                    break;
+                clockLength.decrementAndGet();
+                if (e.strong == null)
+                    continue;
+                if (!full || e.referenced) {
+                    if (full)
+                        e.referenced = false;
+                    clock.add(e);
+                    clockLength.incrementAndGet();
+                    continue;
+                }
+                if (demote(e))
+                    evictionCount.increment();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Stop holding the entry strongly, it remains available while the record is referenced elsewhere.
+     */
+    private boolean demote(Entry e) {
+        synchronized (e) {
+            if (e.strong == null)
+                return false;
+            e.strong = null;
+        }
+        strongSize.decrementAndGet();
+        return true;
+    }
+
+    private void expungeCollected() {
+        Reference<? extends StateRecord> ref;
+        while ((ref = collected.poll()) != null) {
+            Entry e = (Entry) ref;
+            byHash.remove(e.hash, e);
+            byId.remove(e.recordId, e);
+        }
+    }
+
+    private static final class Entry extends WeakReference<StateRecord> {
+        private final HashId hash;
+        private final long recordId;
+        private volatile StateRecord strong;
+        private volatile boolean referenced;
+
+        private Entry(StateRecord r, ReferenceQueue<StateRecord> queue) {
+            super(r, queue);
+            this.hash = r.getId();
+            this.recordId = r.getRecordId();
+            this.strong = r;
+        }
+    }
+}
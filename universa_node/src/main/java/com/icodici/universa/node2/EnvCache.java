@@ -13,40 +13,27 @@ import com.icodici.universa.node.ItemResult;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class EnvCache {
 
-    private final Timer cleanerTimer = new Timer();
+    private final ExpiryService expiryService = ExpiryService.shared();
+    private final ExpiryService.Group expiry = expiryService.group("envCache");
     private final Duration maxAge;
 
     public EnvCache(Duration maxAge) {
         this.maxAge = maxAge;
-        cleanerTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                cleanUp();
-            }
-        }, 5000, 5000);
     }
 
     final void cleanUp() {
-        // we should avoid creating an object for each check:
-        Instant now = Instant.now();
-        environmetsExpiration.keySet().forEach(envId -> {
-            if(environmetsExpiration.get(envId).isBefore(now)) {
-                environmetsExpiration.remove(envId);
-                environemtsByContract.remove(environemtsById.remove(envId).getContract().getId());
-            }
-        });
+        expiryService.advance();
     }
 
+    /**
+     * Stop expiring the environments, so the shared {@link ExpiryService} does not keep them.
+     */
     public void shutdown() {
-        cleanerTimer.cancel();
-        cleanerTimer.purge();
+        environmetsExpiration.values().forEach(expiry::cancel);
     }
 
     public @Nullable NImmutableEnvironment get(HashId itemId) {
@@ -59,12 +46,14 @@ public class EnvCache {
         //TODO: fixed env cache related errors. swapping ids etc
         //environemtsByContract.put(env.getContract().getId(),env);
         //environemtsById.put(env.getId(),env);
-        //environmetsExpiration.put(env.getId(),Instant.now().plus(maxAge));
+        //Expiration expiration = new Expiration(env.getId());
+        //environmetsExpiration.put(env.getId(),expiration);
+        //expiry.schedule(expiration, System.currentTimeMillis() + maxAge.toMillis());
     }
 
     private ConcurrentHashMap<HashId,NImmutableEnvironment> environemtsByContract = new ConcurrentHashMap();
     private ConcurrentHashMap<Long,NImmutableEnvironment> environemtsById = new ConcurrentHashMap();
-    private ConcurrentHashMap<Long,Instant> environmetsExpiration = new ConcurrentHashMap();
+    private ConcurrentHashMap<Long,Expiration> environmetsExpiration = new ConcurrentHashMap();
 
 
     public int size() {
@@ -80,7 +69,26 @@ public class EnvCache {
         if(env != null) {
             long envId = env.getId();
             environemtsById.remove(envId);
-            environmetsExpiration.remove(envId);
+            Expiration expiration = environmetsExpiration.remove(envId);
+            if(expiration != null)
+                expiry.cancel(expiration);
+        }
+    }
+
+    private class Expiration extends ExpiryService.Entry {
+        private final long envId;
+
+        private Expiration(long envId) {
+            this.envId = envId;
+        }
+
+        @Override
+        protected void expire() {
+            if(environmetsExpiration.remove(envId, this)) {
+                NImmutableEnvironment env = environemtsById.remove(envId);
+                if(env != null)
+                    environemtsByContract.remove(env.getContract().getId());
+            }
         }
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Expires entries of all the node caches with a single {@link TimingWheel} driven by a single daemon thread, instead of
+ * each cache running its own timer and scanning all its records. Scheduling and cancelling are O(1), and the periodic
+ * work depends only on the number of entries that are due.
+ * <p>
+ * Entries are scheduled through the {@link Group} of the cache, which counts scheduled, cancelled and expired entries.
+ * Caches of the same kind (e.g. vote caches of the UBot sessions) share the group by its name, so the number of groups
+ * does not grow with the number of caches.
+ */
+public class ExpiryService {
+
+    /**
+     * Resolution of the shared wheel. It is fine enough for the caches with short ages to expire in time, and the empty
+     * ticks cost nothing but a loop iteration.
+     */
+    public static final long TICK_MILLIS = 1;
+
+    /**
+     * How often the wheel is advanced by the service thread.
+     */
+    public static final long PERIOD_MILLIS = 100;
+
+    private static class SharedHolder {
+        private static final ExpiryService instance = new ExpiryService(TICK_MILLIS, PERIOD_MILLIS);
+    }
+
+    /**
+     * @return service instance shared by the caches of all the nodes in this process
+     */
+    public static ExpiryService shared() {
+        return SharedHolder.instance;
+    }
+
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Create the service and start its thread.
+     *
+     * @param tickMillis   resolution of the wheel
+     * @param periodMillis how often the wheel is advanced
+     */
+    public ExpiryService(long tickMillis, long periodMillis) {
+        wheel = new TimingWheel(tickMillis, System.currentTimeMillis());
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "expiry-service");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleAtFixedRate(this::advance, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Base class for the records that expire through the service.
+     */
+    public static abstract class Entry extends TimingWheel.Entry {
+        private Group group;
+
+        @Override
+        protected final void onExpired() {
+            group.waiting.decrement();
+            group.expired.increment();
+            expire();
+        }
+
+        /**
+         * Called once the entry is expired, in the service thread or in the thread calling {@link #advance()}.
+         */
+        protected abstract void expire();
+    }
+
+    /**
+     * Entries of some kind of cache and their counters.
+     */
+    public class Group {
+        private final String name;
+        private final LongAdder waiting = new LongAdder();
+        private final LongAdder scheduled = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+
+        private Group(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Schedule (or reschedule) the entry to expire at the given moment.
+         *
+         * @param entry    to schedule
+         * @param atMillis expiration time in milliseconds
+         *
+         * @return false if the moment is already passed and entry was not scheduled; caller should treat it as expired
+         */
+        public boolean schedule(Entry entry, long atMillis) {
+            if (wheel.cancel(entry))
+                entry.group.waiting.decrement();
+            entry.group = this;
+            scheduled.increment();
+            if (!wheel.schedule(entry, atMillis)) {
+                expired.increment();
+                return false;
+            }
+            waiting.increment();
+            return true;
+        }
+
+        /**
+         * Remove the entry from the service if it is scheduled.
+         *
+         * @param entry to remove
+         *
+         * @return true if entry was scheduled
+         */
+        public boolean cancel(Entry entry) {
+            if (!wheel.cancel(entry))
+                return false;
+            waiting.decrement();
+            cancelled.increment();
+            return true;
+        }
+
+        /**
+         * @return number of entries expired by time
+         */
+        public long getExpiredCount() {
+            return expired.sum();
+        }
+
+        public Binder getStats() {
+            return Binder.of(
+                    "waiting", waiting.sum(),
+                    "scheduled", scheduled.sum(),
+                    "cancelled", cancelled.sum(),
+                    "expired", expired.sum()
+            );
+        }
+    }
+
+    /**
+     * @param name name of the cache kind, e.g. "voteCache"
+     *
+     * @return group with the given name, created on first request
+     */
+    public Group group(String name) {
+        return groups.computeIfAbsent(name, Group::new);
+    }
+
+    /**
+     * Expire all the entries due by now. Is called by the service thread periodically, but could be called by anyone to
+     * get expired entries processed right now.
+     *
+     * @return number of expired entries
+     */
+    public int advance() {
+        try {
+            return wheel.advance(System.currentTimeMillis());
+        } catch (Exception e) {
+            // the thread should survive the failing cache
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * @return number of the entries waiting for expiration
+     */
+    public int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Stop the service thread. Entries are not expired anymore unless {@link #advance()} is called.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return total waiting entries and counters of each group
+     */
+    public Binder getStats() {
+        Binder result = Binder.of("waiting", wheel.size());
+        groups.forEach((name, group) -> result.put(name, group.getStats()));
+        return result;
+    }
+}
@@ -9,51 +9,143 @@ package com.icodici.universa.node2;
 
 import com.icodici.universa.Approvable;
 import com.icodici.universa.HashId;
+import com.icodici.universa.contract.Contract;
 import com.icodici.universa.node.ItemResult;
 import net.sergeych.utils.Base64;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Size-aware cache of the items being processed or recently processed by the node.
+ * <p>
+ * The cache is bounded by the total weight of its items, where the weight is estimated from the size of the packed
+ * transaction. When the limit is exceeded, the least recently used records are evicted (using CLOCK approximation, so
+ * reading the cache takes no locks), and the {@link AdmissionPolicy} decides whether the new record is worth evicting
+ * the old one. Expiration by age is driven by the shared {@link ExpiryService}, so no periodic scan over all records is
+ * done.
+ */
 public class ItemCache {
 
-    private final Timer cleanerTimer = new Timer();
+    /**
+     * Weight of the items that are not contracts, or contracts that are not sealed yet.
+     */
+    public static final int DEFAULT_ITEM_WEIGHT = 1024;
+
+    /**
+     * Decides whether a new record should displace the eviction victim when the cache is full.
+     */
+    public interface AdmissionPolicy {
+        /**
+         * Called on each cache access to the item, including misses.
+         *
+         * @param itemId accessed item
+         */
+        void recordAccess(HashId itemId);
+
+        /**
+         * @param candidateId newly put item
+         * @param victimId    item that would be evicted to free space for the candidate
+         *
+         * @return true if candidate should be kept and victim evicted, false to reject the candidate
+         */
+        boolean admit(HashId candidateId, HashId victimId);
+    }
+
+    /**
+     * Plain LRU behaviour: new records are always admitted.
+     */
+    public static final AdmissionPolicy ALWAYS_ADMIT = new AdmissionPolicy() {
+        @Override
+        public void recordAccess(HashId itemId) {
+        }
+
+        @Override
+        public boolean admit(HashId candidateId, HashId victimId) {
+            return true;
+        }
+    };
+
+    /**
+     * TinyLFU admission: the candidate is admitted only if it was accessed more often (as estimated by the frequency
+     * sketch) than the victim, so bursts of one-off items do not wash out the frequently requested ones.
+     *
+     * @param expectedSize expected number of records in the cache
+     *
+     * @return new policy instance
+     */
+    public static AdmissionPolicy tinyLfu(int expectedSize) {
+        FrequencySketch sketch = new FrequencySketch(expectedSize);
+        return new AdmissionPolicy() {
+            @Override
+            public void recordAccess(HashId itemId) {
+                sketch.increment(itemId);
+            }
+
+            @Override
+            public boolean admit(HashId candidateId, HashId victimId) {
+                return sketch.frequency(candidateId) > sketch.frequency(victimId);
+            }
+        };
+    }
+
     private final Duration maxAge;
+    private final long maxWeight;
+    private final AdmissionPolicy admissionPolicy;
+    private final ExpiryService expiryService = ExpiryService.shared();
+    private final ExpiryService.Group expiry = expiryService.group("itemCache");
+
+    private final ConcurrentHashMap<HashId,Record> records = new ConcurrentHashMap<>();
+    // CLOCK ring of records, guarded by itself
+    private final Object lruLock = new Object();
+    private Record clockHand = null;
+    private long weight = 0;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
 
     public ItemCache(Duration maxAge) {
+        this(maxAge, Long.MAX_VALUE, ALWAYS_ADMIT);
+    }
+
+    /**
+     * @param maxAge          time after which the record is expired
+     * @param maxWeight       maximum total weight (estimated size in bytes) of the cached items
+     * @param admissionPolicy policy to apply when the cache is full
+     */
+    public ItemCache(Duration maxAge, long maxWeight, AdmissionPolicy admissionPolicy) {
         this.maxAge = maxAge;
-        cleanerTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                cleanUp();
-            }
-        }, 5000, 5000);
+        this.maxWeight = maxWeight;
+        this.admissionPolicy = admissionPolicy;
     }
 
     final void cleanUp() {
-        // we should avoid creating an object for each check:
-        Instant now = Instant.now();
-        records.values().forEach(r->r.checkExpiration(now));
+        expiryService.advance();
     }
 
+    /**
+     * Stop expiring the records, so the shared {@link ExpiryService} does not keep them.
+     */
     public void shutdown() {
-        cleanerTimer.cancel();
-        cleanerTimer.purge();
+        synchronized (lruLock) {
+            records.values().forEach(expiry::cancel);
+        }
     }
 
     public @Nullable Approvable get(HashId itemId) {
-        Record i = records.get(itemId);
+        Record i = lookup(itemId);
         if( i != null && i.item == null )
             throw new RuntimeException("cache: record with empty item");
         return i != null ? i.item : null;
     }
 
     public @Nullable ItemResult getResult(HashId itemId) {
-        Record r = records.get(itemId);
+        Record r = lookup(itemId);
         if( r != null && r.item == null )
             throw new RuntimeException("cache: record with empty item");
         return r != null ? r.result : null;
@@ -62,6 +154,22 @@ public class ItemCache {
     public void put(Approvable item, ItemResult result) {
         // this will plainly override current if any
         Record r = new Record(item, result);
+        admissionPolicy.recordAccess(r.itemId);
+        synchronized (lruLock) {
+            Record old = records.put(r.itemId, r);
+            if (old != null) {
+                unlink(old);
+                expiry.cancel(old);
+            }
+            link(r);
+            if (!expiry.schedule(r, System.currentTimeMillis() + maxAge.toMillis())) {
+                records.remove(r.itemId, r);
+                unlink(r);
+                expirationCount.increment();
+                return;
+            }
+            evictIfNeeded(r);
+        }
     }
 
     public void update(HashId itemId, ItemResult result) {
@@ -74,8 +182,6 @@ public class ItemCache {
         }
     }
 
-    private ConcurrentHashMap<HashId,Record> records = new ConcurrentHashMap();
-
     public void idsCheck(HashId itemId) {
         for(HashId x: records.keySet()) {
             System.out.println(" checking "+itemId+" eq "+x+ ": "+itemId.equals(x) + " / " + x.equals(itemId) );
@@ -89,22 +195,170 @@ public class ItemCache {
         return records.size();
     }
 
-    private class Record {
-        private Instant expiresAt;
-        private Approvable item;
-        private ItemResult result;
+    /**
+     * @return estimated total size of the cached items
+     */
+    public long getWeight() {
+        synchronized (lruLock) {
+            return weight;
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return number of records removed to keep cache within its weight limit
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return number of records removed as they are expired by age
+     */
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    /**
+     * @return number of new records that were not admitted by the {@link AdmissionPolicy}
+     */
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    /**
+     * Estimate memory footprint of the item by its packed transaction size. Only binaries already available are
+     * counted, the item is never packed for this.
+     *
+     * @param item to estimate
+     *
+     * @return estimated weight
+     */
+    static long estimateWeight(Approvable item) {
+        if (!(item instanceof Contract))
+            return DEFAULT_ITEM_WEIGHT;
+        long result = sealedSize((Contract) item);
+        for (Approvable a : item.getNewItems())
+            result += estimateWeight(a);
+        for (Approvable a : item.getRevokingItems())
+            result += a instanceof Contract ? sealedSize((Contract) a) : DEFAULT_ITEM_WEIGHT;
+        return result;
+    }
+
+    private static long sealedSize(Contract c) {
+        byte[] sealed = c.getLastSealedBinary();
+        return sealed != null ? sealed.length : DEFAULT_ITEM_WEIGHT;
+    }
+
+    private Record lookup(HashId itemId) {
+        admissionPolicy.recordAccess(itemId);
+        Record r = records.get(itemId);
+        if (r != null) {
+            r.referenced = true;
+            hitCount.increment();
+        } else
+            missCount.increment();
+        return r;
+    }
+
+    // should be called under lruLock
+    private void evictIfNeeded(Record candidate) {
+        // each record could be passed over by the hand at most twice: first to clear the referenced bit
+        int budget = 2 * records.size() + 2;
+        while (weight > maxWeight && clockHand != null && budget-- > 0) {
+            Record victim = clockHand;
+            clockHand = victim.next;
+            if (victim == candidate)
+                continue;
+            if (victim.referenced) {
+                victim.referenced = false;
+                continue;
+            }
+            if (candidate != null && !admissionPolicy.admit(candidate.itemId, victim.itemId)) {
+                remove(candidate);
+                rejectionCount.increment();
+                candidate = null;
+                continue;
+            }
+            remove(victim);
+            evictionCount.increment();
+        }
+    }
+
+    // should be called under lruLock
+    private void remove(Record r) {
+        if (records.remove(r.itemId, r)) {
+            unlink(r);
+            expiry.cancel(r);
+        }
+    }
+
+    // should be called under lruLock; new records are inserted just behind the hand
+    private void link(Record r) {
+        if (clockHand == null) {
+            r.next = r;
+            r.prev = r;
+            clockHand = r;
+        } else {
+            r.next = clockHand;
+            r.prev = clockHand.prev;
+            clockHand.prev.next = r;
+            clockHand.prev = r;
+        }
+        weight += r.weight;
+    }
+
+    // should be called under lruLock
+    private void unlink(Record r) {
+        if (r.next == null)
+            return;
+        if (r.next == r) {
+            clockHand = null;
+        } else {
+            r.prev.next = r.next;
+            r.next.prev = r.prev;
+            if (clockHand == r)
+                clockHand = r.next;
+        }
+        r.next = null;
+        r.prev = null;
+        weight -= r.weight;
+    }
+
+    private class Record extends ExpiryService.Entry {
+        private final HashId itemId;
+        private final long weight;
+        private volatile Approvable item;
+        private volatile ItemResult result;
+        private volatile boolean referenced;
+        private Record prev;
+        private Record next;
 
         private Record(Approvable item, ItemResult result) {
-            expiresAt = Instant.now().plus(maxAge);
+            this.itemId = item.getId();
             this.item = item;
             this.result = result;
-            records.put(item.getId(), this);
+            this.weight = estimateWeight(item);
         }
 
-        private void checkExpiration(Instant now) {
-            if( expiresAt.isBefore(now) ) {
-//                System.out.println("cache expired "+item.getId());
-                records.remove(item.getId());
+        @Override
+        protected void expire() {
+            synchronized (lruLock) {
+                if (records.remove(itemId, this)) {
+                    unlink(this);
+                    expirationCount.increment();
+                }
             }
         }
     }
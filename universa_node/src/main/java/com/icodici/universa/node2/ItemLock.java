@@ -9,12 +9,30 @@ package com.icodici.universa.node2;
 
 import com.icodici.universa.HashId;
 
-import java.util.WeakHashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 /**
  * The smart lock, allow global synchronize on per-hashId operation. Just call {@link #synchronize(HashId, Function)}
  * and execute your code in a callable argument.
+ * <p>
+ * Locks are kept in a concurrent map, so obtaining a lock for different items never contends on a shared mutex. The
+ * lock object for the item stays the same as long as anybody references it (for example, item processor that uses it
+ * as a mutex), and is dropped after that.
+ * <p>
+ * Each lock supports exclusive ({@link #synchronize(HashId, Function)}, {@link #trySynchronize(HashId, long, TimeUnit,
+ * Function)}) and shared ({@link #synchronizeShared(HashId, Function)}) modes. Exclusive mode also holds the monitor of
+ * the lock object, so it excludes code doing {@code synchronized(lock)} on the object passed to the callable. Shared
+ * mode does not hold the monitor, so the callable in shared mode should only read and must not synchronize on the lock
+ * object.
  */
 public final class ItemLock {
 
@@ -34,32 +52,185 @@ public final class ItemLock {
      * @throws Exception whatever callable throws
      */
     public <T> T synchronize(HashId id, Function<Object, T> callable) throws Exception {
-        ItemLock lock = null;
-
-        // short exclusive mutex: obtaning a lock
-        synchronized (monitors) {
-            lock = monitors.get(id);
-            if (lock == null) {
-                lock = new ItemLock();
-                monitors.put(id, lock);
+        Entry lock = obtain(id);
+        // the thread that already holds the monitor (e.g. inside processor's synchronized block) is exclusive anyway,
+        // and acquiring the write lock in reverse order could deadlock
+        if (Thread.holdsLock(lock)) {
+            return callable.apply(lock);
+        }
+        Lock writeLock = lock.readWriteLock.writeLock();
+        acquire(writeLock);
+        try {
+            synchronized (lock) {
+                return callable.apply(lock);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #synchronize(HashId, Function)} but gives up if the lock could not be acquired in time.
+     *
+     * @param id       ot get a lock to
+     * @param timeout  maximum time to wait for the lock
+     * @param unit     of the timeout
+     * @param callable lamda to execute exclusively for the id
+     * @param <T> is type
+     *
+     * @return whatever the callable returns
+     *
+     * @throws TimeoutException if lock was not acquired in time
+     * @throws Exception whatever callable throws
+     */
+    public <T> T trySynchronize(HashId id, long timeout, TimeUnit unit, Function<Object, T> callable) throws Exception {
+        Entry lock = obtain(id);
+        if (Thread.holdsLock(lock)) {
+            return callable.apply(lock);
+        }
+        Lock writeLock = lock.readWriteLock.writeLock();
+        if (!tryAcquire(writeLock, timeout, unit))
+            throw new TimeoutException("failed to lock " + id + " in " + unit.toMillis(timeout) + "ms");
+        try {
+            synchronized (lock) {
+                return callable.apply(lock);
             }
+        } finally {
+            writeLock.unlock();
         }
-        // now we only lock the item:
-        synchronized (lock) {
-            return (T) callable.apply(lock);
+    }
+
+    /**
+     * Execute a callable in shared mode: any number of shared callables for the same {@link HashId} could run at
+     * once, but not together with exclusive ones.
+     *
+     * @param id       ot get a lock to
+     * @param callable lamda to execute, should not modify the item state
+     * @param <T> is type
+     *
+     * @return whatever the callable returns
+     *
+     * @throws Exception whatever callable throws
+     */
+    public <T> T synchronizeShared(HashId id, Function<Object, T> callable) throws Exception {
+        Entry lock = obtain(id);
+        Lock readLock = lock.readWriteLock.readLock();
+        acquire(readLock);
+        try {
+            return callable.apply(lock);
+        } finally {
+            readLock.unlock();
         }
     }
 
-    private WeakHashMap<HashId, ItemLock> monitors = new WeakHashMap<>();
+    private final ConcurrentHashMap<HashId, LockReference> monitors = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Entry> staleLocks = new ReferenceQueue<>();
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder contendedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
 
     /**
-     * Niber of cached locks. Not all of them are acquired. Locks are cached as long as corresponding {@link HashId} is
-     * alive, so do not clone() and copy them, use shared instance (it is generally immutable). When the last instance
-     * of this itemId will be garbage collected, the lock will be removed from the cache.
+     * Niber of cached locks. Not all of them are acquired. Locks are cached as long as the lock object is referenced
+     * by someone, so do not copy them, use shared instance. When the last reference to the lock will be garbage
+     * collected, the lock will be removed from the cache.
      *
      * @return number of cached locks
      */
     public int size() {
+        expungeStaleLocks();
         return monitors.size();
     }
+
+    /**
+     * @return total number of lock acquisitions
+     */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * @return number of acquisitions that had to wait because the lock was held by other thread
+     */
+    public long getContendedCount() {
+        return contendedCount.sum();
+    }
+
+    /**
+     * @return number of {@link #trySynchronize(HashId, long, TimeUnit, Function)} calls failed by timeout
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * @return total time spent waiting for contended locks, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    private void acquire(Lock lock) {
+        acquireCount.increment();
+        if (lock.tryLock())
+            return;
+        contendedCount.increment();
+        long started = System.nanoTime();
+        lock.lock();
+        waitNanos.add(System.nanoTime() - started);
+    }
+
+    private boolean tryAcquire(Lock lock, long timeout, TimeUnit unit) throws InterruptedException {
+        acquireCount.increment();
+        if (lock.tryLock())
+            return true;
+        contendedCount.increment();
+        long started = System.nanoTime();
+        boolean acquired = lock.tryLock(timeout, unit);
+        waitNanos.add(System.nanoTime() - started);
+        if (!acquired)
+            timeoutCount.increment();
+        return acquired;
+    }
+
+    private Entry obtain(HashId id) {
+        expungeStaleLocks();
+        LockReference ref = monitors.get(id);
+        Entry lock = ref != null ? ref.get() : null;
+        if (lock != null)
+            return lock;
+        Entry[] result = new Entry[1];
+        monitors.compute(id, (key, current) -> {
+            Entry existing = current != null ? current.get() : null;
+            if (existing != null) {
+                result[0] = existing;
+                return current;
+            }
+            result[0] = new Entry();
+            return new LockReference(key, result[0], staleLocks);
+        });
+        return result[0];
+    }
+
+    private void expungeStaleLocks() {
+        Reference<? extends Entry> ref;
+        while ((ref = staleLocks.poll()) != null) {
+            // could already be replaced with the new lock for the same id
+            monitors.remove(((LockReference) ref).id, ref);
+        }
+    }
+
+    private static final class Entry {
+        private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    }
+
+    private static final class LockReference extends WeakReference<Entry> {
+        private final HashId id;
+
+        private LockReference(HashId id, Entry lock, ReferenceQueue<Entry> queue) {
+            super(lock, queue);
+            this.id = id;
+        }
+    }
 }
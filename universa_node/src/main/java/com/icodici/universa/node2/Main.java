@@ -88,6 +88,11 @@ public class Main {
                 accepts("restart-socket", "restarts UDPAdapter: shutdown it and create new");
                 accepts("shutdown", "delicate shutdown with rollback current processing contracts");
                 accepts("version");
+                accepts("partition-items", "converts ledger items to the table partitioned by keepTill and exits, " +
+                        "the node should be stopped")
+                        .withRequiredArg()
+                        .ofType(Integer.class)
+                        .describedAs("partition_minutes");
             }
         };
         try {
@@ -157,6 +162,14 @@ public class Main {
                 return;
             }
 
+            if(options.has("partition-items")) {
+                int minutes = (Integer) options.valueOf("partition-items");
+                log("converting ledger items to partitions of " + minutes + " minutes");
+                ledger.convertItemsToPartitioned(Duration.ofMinutes(minutes));
+                log("ledger items are converted");
+                return;
+            }
+
             log("--------------- step 3 --------------------");
             log("Starting the client HTTP server...");
             startClientHttpServer();
@@ -375,6 +388,72 @@ public class Main {
             config.setMaxDiskCacheAge(Duration.ofDays(days));
         }
 
+        if(settings.containsKey("item_cache_max_mb")) {
+            int mb = settings.getIntOrThrow("item_cache_max_mb");
+            log("using item cache weight limit: " + mb + " MB");
+            config.setMaxItemCacheWeight(mb * 1024L * 1024L);
+        }
+
+        if(settings.containsKey("ledger_flush_window_ms")) {
+            int millis = settings.getIntOrThrow("ledger_flush_window_ms");
+            log("using ledger flush window: " + millis + " ms");
+            config.setLedgerFlushWindow(Duration.ofMillis(millis));
+        }
+
+        if(settings.containsKey("ledger_batch_lock_timeout_ms")) {
+            int millis = settings.getIntOrThrow("ledger_batch_lock_timeout_ms");
+            log("using ledger batch lock timeout: " + millis + " ms");
+            config.setLedgerBatchLockTimeout(Duration.ofMillis(millis));
+        }
+
+        if(settings.containsKey("ledger_cleanup_chunk_size")) {
+            int size = settings.getIntOrThrow("ledger_cleanup_chunk_size");
+            log("using ledger cleanup chunk size: " + size);
+            config.setLedgerCleanupChunkSize(size);
+        }
+
+        if(settings.containsKey("ledger_cleanup_budget_ms")) {
+            int millis = settings.getIntOrThrow("ledger_cleanup_budget_ms");
+            log("using ledger cleanup time budget: " + millis + " ms");
+            config.setLedgerCleanupTimeBudget(Duration.ofMillis(millis));
+        }
+
+        if(settings.containsKey("ledger_items_partition_minutes")) {
+            int minutes = settings.getIntOrThrow("ledger_items_partition_minutes");
+            log("using ledger items partitions of " + minutes + " minutes");
+            config.setLedgerItemsPartitionSpan(Duration.ofMinutes(minutes));
+        }
+
+        if(settings.containsKey("ledger_items_compression")) {
+            boolean compression = settings.getBooleanOrThrow("ledger_items_compression");
+            log("ledger items compression: " + compression);
+            config.setLedgerItemsCompression(compression);
+        }
+
+        if(settings.containsKey("ledger_cache_size")) {
+            int size = settings.getIntOrThrow("ledger_cache_size");
+            log("using ledger cache size: " + size);
+            config.setLedgerCacheSize(size);
+        }
+
+        if(settings.containsKey("notification_batch_window_ms")) {
+            int millis = settings.getIntOrThrow("notification_batch_window_ms");
+            log("using notification batch window: " + millis + " ms");
+            config.setNotificationBatchWindow(Duration.ofMillis(millis));
+        }
+
+        if(settings.containsKey("signature_verification_threads")) {
+            int threads = settings.getIntOrThrow("signature_verification_threads");
+            log("using signature verification threads: " + threads);
+            config.setSignatureVerificationThreads(threads);
+        }
+
+        if(settings.containsKey("verified_signature_cache_size")) {
+            int size = settings.getIntOrThrow("verified_signature_cache_size");
+            log("using verified signature cache size: " + size);
+            config.setVerifiedSignatureCacheSize(size);
+        }
+
         ledger = new PostgresLedger(settings.getStringOrThrow("database"));
         log("ledger constructed");
 
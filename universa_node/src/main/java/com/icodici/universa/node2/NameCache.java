@@ -3,7 +3,6 @@ package com.icodici.universa.node2;
 import com.icodici.universa.HashId;
 
 import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
@@ -13,7 +12,8 @@ import java.util.stream.Collectors;
  */
 public class NameCache {
 
-    private final Timer cleanerTimer = new Timer();
+    private final ExpiryService expiryService = ExpiryService.shared();
+    private final ExpiryService.Group expiry = expiryService.group("nameCache");
     private final Duration maxAge;
 
     final private static String NAME_PREFIX = "n_";
@@ -22,31 +22,32 @@ public class NameCache {
 
     public NameCache(Duration maxAge) {
         this.maxAge = maxAge;
-        cleanerTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                cleanUp();
-            }
-        }, 5000, 5000);
     }
 
     final void cleanUp() {
-        Instant now = Instant.now();
-        records.values().forEach(r->r.checkExpiration(now));
+        expiryService.advance();
     }
 
+    /**
+     * Stop expiring the records, so the shared {@link ExpiryService} does not keep them.
+     */
     public void shutdown() {
-        cleanerTimer.cancel();
-        cleanerTimer.purge();
+        records.values().forEach(expiry::cancel);
     }
 
     private boolean lockStringValue(String value, HashId lockedBy) {
-        Record prev = records.putIfAbsent(value, new Record(value, lockedBy));
-        return (prev == null);
+        Record r = new Record(value, lockedBy);
+        if (records.putIfAbsent(value, r) != null)
+            return false;
+        if (!expiry.schedule(r, System.currentTimeMillis() + maxAge.toMillis()))
+            records.remove(value, r);
+        return true;
     }
 
     private void unlockStringValue(String value) {
-        records.remove(value);
+        Record r = records.remove(value);
+        if (r != null)
+            expiry.cancel(r);
     }
 
     private List<String> lockStringList(String prefix, Collection<String> stringList, HashId lockedBy) {
@@ -115,21 +116,18 @@ public class NameCache {
         }
     }
 
-    private class Record {
-        private Instant expiresAt;
+    private class Record extends ExpiryService.Entry {
         private String value;
         private HashId lockedBy;
 
         private Record(String value, HashId lockedBy) {
-            expiresAt = Instant.now().plus(maxAge);
             this.value = value;
             this.lockedBy = lockedBy;
         }
 
-        private void checkExpiration(Instant now) {
-            if( expiresAt.isBefore(now) ) {
-                records.remove(value);
-            }
+        @Override
+        protected void expire() {
+            records.remove(value, this);
         }
 
         public HashId getLockedBy() {
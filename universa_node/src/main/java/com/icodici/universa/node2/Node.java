@@ -10,6 +10,7 @@ package com.icodici.universa.node2;
 import com.icodici.crypto.*;
 import com.icodici.universa.*;
 import com.icodici.universa.contract.*;
+import com.icodici.universa.contract.jsapi.JSApiEnvironment;
 import com.icodici.universa.contract.permissions.ChangeOwnerPermission;
 import com.icodici.universa.contract.permissions.ModifyDataPermission;
 import com.icodici.universa.contract.permissions.Permission;
@@ -44,6 +45,7 @@ import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
@@ -212,9 +214,33 @@ public class Node {
         this.myInfo = myInfo;
         this.ledger = ledger;
         this.network = network;
-        if(network instanceof  NetworkV2)
+        if(network instanceof  NetworkV2) {
             ((NetworkV2)network).setConnectivityMap(connectivityMap);
-        cache = new ItemCache(config.getMaxCacheAge());
+            ((NetworkV2)network).setNotificationBatching(config.getNotificationBatchWindow(), config.getNotificationMaxBatchSize());
+        }
+        if(ledger instanceof PostgresLedger) {
+            ((PostgresLedger) ledger).setWriteBatching(config.getLedgerFlushWindow(), config.getLedgerMaxBatchSize(),
+                    config.getLedgerBatchLockTimeout());
+            ((PostgresLedger) ledger).setCacheLimits(config.getLedgerCacheSize(), PostgresLedger.DEFAULT_NEGATIVE_CACHE_TTL);
+            ((PostgresLedger) ledger).setCleanupLimits(config.getLedgerCleanupChunkSize(),
+                    config.getLedgerCleanupTimeBudget(), config.getLedgerCleanupChunkPause());
+            ((PostgresLedger) ledger).setItemsCompression(config.isLedgerItemsCompression());
+            if (!config.getLedgerItemsPartitionSpan().isZero()) {
+                try {
+                    ((PostgresLedger) ledger).enableItemsPartitioning(config.getLedgerItemsPartitionSpan(),
+                            config.getMaxDiskCacheAge());
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    report(getLabel(), "ledger items are not partitioned, continuing with plain table, " +
+                            "convert them with --partition-items while the node is stopped: " + e, DatagramAdapter.VerboseLevel.BASE);
+                }
+            }
+        }
+        setupSignatureVerifier(config.getSignatureVerificationThreads(), config.getVerifiedSignatureCacheSize());
+        cache = new ItemCache(config.getMaxCacheAge(), config.getMaxItemCacheWeight(),
+                config.isItemCacheFrequencyAdmission() ?
+                        ItemCache.tinyLfu((int) Math.min(config.getMaxItemCacheWeight() / ItemCache.DEFAULT_ITEM_WEIGHT, 1 << 20)) :
+                        ItemCache.ALWAYS_ADMIT);
         voteCache = new VoteCache(config.getMaxCacheAge());
         parcelCache = new ParcelCache(config.getMaxCacheAge());
         paidOperationCache = new PaidOperationCache(config.getMaxCacheAge());
@@ -294,8 +320,33 @@ public class Node {
         }, 0, HB_PERIOD, TimeUnit.SECONDS);*/
     }
 
+    private static int verifiedSignatureCacheSize = ExtendedSignature.DEFAULT_VERIFIED_CACHE_SIZE;
+
+    /**
+     * Make contracts checked by the node verify their signatures in the shared pool of the given size, remembering
+     * the valid ones. The pool and the cache are shared by all the nodes running in this JVM.
+     *
+     * @param threads   number of verifying threads, 0 to verify signatures in the checking thread
+     * @param cacheSize number of valid signatures to remember, 0 to always verify them
+     */
+    private static synchronized void setupSignatureVerifier(int threads, int cacheSize) {
+        ForkJoinPool current = Contract.getDefaultSignatureVerifier();
+        // the replaced pool is not shut down as it could be in use; its idle threads exit by themselves
+        if (threads <= 0)
+            Contract.setDefaultSignatureVerifier(null);
+        else if (current == null || current.getParallelism() != threads)
+            Contract.setDefaultSignatureVerifier(new ForkJoinPool(threads));
+        if (cacheSize != verifiedSignatureCacheSize) {
+            ExtendedSignature.setVerifiedCacheSize(cacheSize);
+            verifiedSignatureCacheSize = cacheSize;
+        }
+    }
+
     private void pulseStartCleanup() {
-        lowPrioExecutorService.scheduleAtFixedRate(() -> ledger.cleanup(config.isPermanetMode()),1,config.getMaxDiskCacheAge().getSeconds(),TimeUnit.SECONDS);
+        long cleanupInterval = config.getLedgerCleanupInterval().toMillis();
+        if (cleanupInterval <= 0)
+            throw new IllegalArgumentException("ledger cleanup interval should be positive: " + config.getLedgerCleanupInterval());
+        lowPrioExecutorService.scheduleWithFixedDelay(() -> ledger.cleanup(config.isPermanetMode()),1000,cleanupInterval,TimeUnit.MILLISECONDS);
         lowPrioExecutorService.scheduleAtFixedRate(() -> ledger.removeExpiredStoragesAndSubscriptionsCascade(),config.getExpriedStorageCleanupInterval().getSeconds(),config.getExpriedStorageCleanupInterval().getSeconds(),TimeUnit.SECONDS);
         lowPrioExecutorService.scheduleAtFixedRate(() -> ledger.clearExpiredNameRecords(config.getHoldDuration()),config.getExpriedNamesCleanupInterval().getSeconds(),config.getExpriedNamesCleanupInterval().getSeconds(),TimeUnit.SECONDS);
         lowPrioExecutorService.scheduleAtFixedRate(() -> unloadInactiveOrExpiredUbotSessionProcessorsAndTransactions(), 1, 30, TimeUnit.SECONDS);
@@ -309,6 +360,8 @@ public class Node {
             connectivityMap.forEach((k,v)->{
                 if(v.isExpired()) {
                     connectivityMap.remove(k);
+                    if(network instanceof NetworkV2)
+                        ((NetworkV2) network).connectivityChanged();
                 }
             });
 
@@ -622,17 +675,57 @@ public class Node {
                 itemId, "is ", irFinal.state),
                 DatagramAdapter.VerboseLevel.BASE);
 
+        return completeItemResult(itemId, ir, ledger.isTestnet(itemId));
+    }
+
+    private ItemResult completeItemResult(HashId itemId, ItemResult ir, boolean isTestnet) {
         ir = ir.copy();
 
         ItemInformer.Record record = informer.takeFor(itemId);
         if (record != null)
             ir.errors = record.errorRecords;
 
-        ir.isTestnet = ledger.isTestnet(itemId);
+        ir.isTestnet = isTestnet;
 
         return ir;
     }
 
+    /**
+     * Check the state of many items at once, same as {@link #checkItem(HashId)} does for each of them, but the ledger
+     * records of all the items are read with one query.
+     *
+     * @param itemIds items to check
+     *
+     * @return results in the same order as ids
+     */
+    public @NonNull List<ItemResult> checkItems(List<HashId> itemIds) {
+        Map<HashId, StateRecord> records = ledger.getRecords(itemIds);
+        Set<HashId> testnetIds = ledger.getTestnetIds(itemIds);
+
+        List<ItemResult> results = new ArrayList<>(itemIds.size());
+        for (HashId itemId : itemIds) {
+            StateRecord r = records.get(itemId);
+            ItemResult ir;
+            if (r != null && !r.isPending() && processors.get(itemId) == null) {
+                // already processed, the same result checkItemInternal gives
+                ir = cache.getResult(itemId);
+                if (ir == null)
+                    ir = new ItemResult(r, cache.get(itemId) != null);
+            } else {
+                Object x = checkItemInternal(itemId);
+                ir = ItemResult.UNDEFINED;
+                if (x instanceof ItemResult)
+                    ir = (ItemResult) x;
+                else if (x instanceof ItemProcessor)
+                    ir = ((ItemProcessor) x).getResult();
+                else if (x instanceof ResyncProcessor)
+                    ir = ((ResyncProcessor) x).getResult();
+            }
+            results.add(completeItemResult(itemId, ir, testnetIds.contains(itemId)));
+        }
+        return results;
+    }
+
     /**
      * Check the parcel's processing state. If parcel is not under processing (not start or already finished)
      * return ParcelProcessingState.NOT_EXIST
@@ -939,6 +1032,8 @@ public class Node {
     private void obtainConnectivityNotification(ConnectivityNotification notification) {
         ConnectivityInfo ci = new ConnectivityInfo(notification.getFrom(),config.getConnectivityInfoValidityPeriod(),notification.getUnreachableNodes().stream().map(ni->network.getInfo(ni)).collect(Collectors.toSet()));
         connectivityMap.put(notification.getFrom(),ci);
+        if(network instanceof NetworkV2)
+            ((NetworkV2) network).connectivityChanged();
     }
 
     private void obtainUBotTransactionNotification(UBotTransactionNotification notification) {
@@ -1661,8 +1756,10 @@ public class Node {
             System.out.println("lowPrioExecutorService.awaitTermination... timeout");
         }
         cache.shutdown();
+        voteCache.shutdown();
         parcelCache.shutdown();
         paidOperationCache.shutdown();
+        envCache.shutdown();
         nameCache.shutdown();
         System.out.println(toString() + "shutdown finished");
     }
@@ -1747,8 +1844,30 @@ public class Node {
                 "bigIntervalApproved", nodeStats.bigIntervalApproved,
                 "uptimeApproved", nodeStats.uptimeApproved,
                 "coreVersion", Core.VERSION,
-                "nodeNumber", myInfo.getNumber()
+                "nodeNumber", myInfo.getNumber(),
+                "itemCache", nodeStats.getItemCacheStats(cache),
+                "itemLock", nodeStats.getItemLockStats(itemLock)
                 );
+        Binder signatureCache = ExtendedSignature.getVerifiedCacheStats();
+        if(signatureCache != null)
+            result.put("signatureCache", signatureCache);
+        result.put("jsApi", JSApiEnvironment.getExecutorStats());
+        result.put("expiry", ExpiryService.shared().getStats());
+        if(ledger instanceof PostgresLedger) {
+            Binder ledgerWrites = ((PostgresLedger) ledger).getWriteBatchingStats();
+            if(ledgerWrites != null)
+                result.put("ledgerWrites", ledgerWrites);
+            result.put("ledgerCache", ((PostgresLedger) ledger).getCacheStats());
+            result.put("dbPool", ((PostgresLedger) ledger).getPoolStats());
+            result.put("ledgerCleanup", ((PostgresLedger) ledger).getCleanupStats());
+            result.put("itemsCompression", ((PostgresLedger) ledger).getItemsCompressionStats());
+        }
+        if(network instanceof NetworkV2) {
+            Binder udp = ((NetworkV2) network).getUdpStats();
+            if(udp != null)
+                result.put("udp", udp);
+            result.put("notifications", ((NetworkV2) network).getNotificationStats());
+        }
         if(showDays != null) {
             result.put("payments",nodeStats.getPaymentStats(ledger,showDays));
         }
@@ -1788,6 +1907,18 @@ public class Node {
      * @return result of checking
      */
     public boolean checkKeyLimit(PublicKey key) {
+        return checkKeyLimit(key, 1);
+    }
+
+    /**
+     * Checks limit of requests for key, counting the batch request as the given number of requests.
+     *
+     * @param key for checking limit of requests
+     * @param requestsCount number of requests to count
+     *
+     * @return result of checking
+     */
+    public boolean checkKeyLimit(PublicKey key, int requestsCount) {
 
         if ((config == null) ||
              config.getNetworkAdminKeyAddress().isMatchingKey(key) ||
@@ -1812,10 +1943,10 @@ public class Node {
             }
 
             int requests = keyRequests.getOrDefault(key, 0);
-            if (requests >= config.getLimitRequestsForKeyPerMinute())
+            if (requests + requestsCount > config.getLimitRequestsForKeyPerMinute())
                 return false;
 
-            keyRequests.put(key, requests + 1);
+            keyRequests.put(key, requests + requestsCount);
         }
 
         return true;
@@ -3746,16 +3877,31 @@ public class Node {
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
 
+                    // load records of the whole tree with one query and pass them to the checks below
+                    Set<HashId> subItemIds = new HashSet<>();
+                    collectSubItemIds(checkingItem, subItemIds);
+                    Map<HashId, StateRecord> subItemRecords = subItemIds.isEmpty() ?
+                            new HashMap<>() : ledger.getRecords(subItemIds);
+
                     // check all new new items in tree
-                    checkNewsOf(checkingItem);
+                    checkNewsOf(checkingItem, subItemRecords);
 
                     // check revoking items in tree
-                    checkRevokesOf(checkingItem);
+                    checkRevokesOf(checkingItem, subItemRecords);
 
                 }
             }
         }
 
+        private final void collectSubItemIds(Approvable checkingItem, Set<HashId> ids) {
+            for (Approvable newItem : checkingItem.getNewItems()) {
+                ids.add(newItem.getId());
+                collectSubItemIds(newItem, ids);
+            }
+            for (Approvable revokingItem : checkingItem.getRevokingItems())
+                ids.add(revokingItem.getId());
+        }
+
         /*private final synchronized void checkReferencesOf(Approvable checkingItem) {
 
             if(processingState.canContinue()) {
@@ -3773,13 +3919,13 @@ public class Node {
             }
         }*/
 
-        private final synchronized void checkRevokesOf(Approvable checkingItem) {
+        private final synchronized void checkRevokesOf(Approvable checkingItem, Map<HashId, StateRecord> subItemRecords) {
 
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
                     // check new items
                     for (Approvable newItem : checkingItem.getNewItems()) {
-                        checkRevokesOf(newItem);
+                        checkRevokesOf(newItem, subItemRecords);
 
                         for (ErrorRecord er : newItem.getErrors()) {
                             checkingItem.addError(Errors.BAD_NEW_ITEM, newItem.getId().toString(), "bad new item: " + er);
@@ -3823,7 +3969,7 @@ public class Node {
                                     return;
                                 }
                                 itemLock.synchronize(revokingItem.getId(), lock -> {
-                                    StateRecord r = record.lockToRevoke(revokingItem.getId());
+                                    StateRecord r = record.lockToRevoke(revokingItem.getId(), subItemRecords);
                                     if (r == null) {
                                         checkingItem.addError(Errors.BAD_REVOKE, revokingItem.getId().toString(), "can't revoke");
                                     } else {
@@ -3845,14 +3991,14 @@ public class Node {
             }
         }
 
-        private final synchronized void checkNewsOf(Approvable checkingItem) {
+        private final synchronized void checkNewsOf(Approvable checkingItem, Map<HashId, StateRecord> subItemRecords) {
 
             if(processingState.canContinue()) {
                 if (!processingState.isProcessedToConsensus()) {
                     // check new items
                     for (Approvable newItem : checkingItem.getNewItems()) {
 
-                        checkNewsOf(newItem);
+                        checkNewsOf(newItem, subItemRecords);
 
                         // if new item is smart contract we check it additionally
                         if(newItem instanceof NSmartContract) {
@@ -3885,7 +4031,7 @@ public class Node {
                                         return;
                                     }
                                     itemLock.synchronize(newItem.getId(), lock -> {
-                                        StateRecord r = record.createOutputLockRecord(newItem.getId());
+                                        StateRecord r = record.createOutputLockRecord(newItem.getId(), subItemRecords);
                                         if (r == null) {
                                             checkingItem.addError(Errors.NEW_ITEM_EXISTS, newItem.getId().toString(), "new item exists in ledger");
                                         } else {
@@ -3964,11 +4110,18 @@ public class Node {
                 HashMap<HashId, StateRecord> unknownParts = new HashMap<>();
                 HashMap<HashId, StateRecord> knownParts = new HashMap<>();
                 if (baseCheckPassed) {
+                    Set<HashId> partIds = new HashIdSet();
+                    for (Approvable ref : item.getReferencedItems())
+                        partIds.add(ref.getId());
+                    for (Approvable a : item.getRevokingItems())
+                        partIds.add(a.getId());
+                    Map<HashId, StateRecord> records = ledger.getRecords(partIds);
+
                     // check the referenced items
                     for (Approvable ref : item.getReferencedItems()) {
                         HashId id = ref.getId();
 //                        if(refModel.type == Reference.TYPE_EXISTING && id != null) {
-                        StateRecord r = ledger.getRecord(id);
+                        StateRecord r = records.get(id);
 
                         if (r == null || !r.getState().isConsensusFound()) {
                             unknownParts.put(id, r);
@@ -3980,7 +4133,7 @@ public class Node {
 
                     // check revoking items
                     for (Approvable a : item.getRevokingItems()) {
-                        StateRecord r = ledger.getRecord(a.getId());
+                        StateRecord r = records.get(a.getId());
 
                         if (r == null || !r.getState().isConsensusFound()) {
                             unknownParts.put(a.getId(), r);
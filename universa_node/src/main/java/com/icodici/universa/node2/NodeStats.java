@@ -88,6 +88,46 @@ public class NodeStats {
         formatter = builder.toFormatter();
     }
 
+    /**
+     * Snapshot of the item cache counters.
+     *
+     * @param cache node item cache
+     *
+     * @return binder with size, weight, hits, misses, evictions, expirations and rejections
+     */
+    public Binder getItemCacheStats(ItemCache cache) {
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        return Binder.of(
+                "size", cache.size(),
+                "weight", cache.getWeight(),
+                "maxWeight", cache.getMaxWeight(),
+                "hits", hits,
+                "misses", misses,
+                "hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0,
+                "evictions", cache.getEvictionCount(),
+                "expirations", cache.getExpirationCount(),
+                "rejections", cache.getRejectionCount()
+        );
+    }
+
+    /**
+     * Snapshot of the item lock contention counters.
+     *
+     * @param lock node item lock
+     *
+     * @return binder with number of locks, acquisitions, contended acquisitions, timeouts and total wait time
+     */
+    public Binder getItemLockStats(ItemLock lock) {
+        return Binder.of(
+                "size", lock.size(),
+                "acquired", lock.getAcquireCount(),
+                "contended", lock.getContendedCount(),
+                "timeouts", lock.getTimeoutCount(),
+                "waitMillis", lock.getWaitNanos() / 1_000_000
+        );
+    }
+
     public List<Binder> getPaymentStats(Ledger ledger, int daysNum) {
         List<Binder> result = new ArrayList<>();
         ZonedDateTime now = ZonedDateTime.now();
@@ -10,35 +10,27 @@ import net.sergeych.utils.Base64;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class PaidOperationCache {
 
-    private final Timer cleanerTimer = new Timer();
+    private final ExpiryService expiryService = ExpiryService.shared();
+    private final ExpiryService.Group expiry = expiryService.group("paidOperationCache");
     private final Duration maxAge;
 
     public PaidOperationCache(Duration maxAge) {
         this.maxAge = maxAge;
-        cleanerTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                cleanUp();
-            }
-        }, 5000, 5000);
     }
 
     final void cleanUp() {
-        // we should avoid creating an object for each check:
-        Instant now = Instant.now();
-        records.values().forEach(r->r.checkExpiration(now));
+        expiryService.advance();
     }
 
+    /**
+     * Stop expiring the records, so the shared {@link ExpiryService} does not keep them.
+     */
     public void shutdown() {
-        cleanerTimer.cancel();
-        cleanerTimer.purge();
+        records.values().forEach(expiry::cancel);
     }
 
     public @Nullable PaidOperationCacheItem get(HashId itemId) {
@@ -68,21 +60,21 @@ public class PaidOperationCache {
         return records.size();
     }
 
-    private class Record {
-        private Instant expiresAt;
+    private class Record extends ExpiryService.Entry {
         private PaidOperationCacheItem paidOperation;
 
         private Record(PaidOperationCacheItem paidOperation) {
-            expiresAt = Instant.now().plus(maxAge);
             this.paidOperation = paidOperation;
-            records.put(paidOperation.getId(), this);
+            Record old = records.put(paidOperation.getId(), this);
+            if (old != null)
+                expiry.cancel(old);
+            if (!expiry.schedule(this, System.currentTimeMillis() + maxAge.toMillis()))
+                records.remove(paidOperation.getId(), this);
         }
 
-        private void checkExpiration(Instant now) {
-            if( expiresAt.isBefore(now) ) {
-                //System.out.println("cache expired "+paidOperation.getId());
-                records.remove(paidOperation.getId());
-            }
+        @Override
+        protected void expire() {
+            records.remove(paidOperation.getId(), this);
         }
     }
 }
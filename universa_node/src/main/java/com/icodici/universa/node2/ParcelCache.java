@@ -12,35 +12,27 @@ import net.sergeych.utils.Base64;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ParcelCache {
 
-    private final Timer cleanerTimer = new Timer();
+    private final ExpiryService expiryService = ExpiryService.shared();
+    private final ExpiryService.Group expiry = expiryService.group("parcelCache");
     private final Duration maxAge;
 
     public ParcelCache(Duration maxAge) {
         this.maxAge = maxAge;
-        cleanerTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                cleanUp();
-            }
-        }, 5000, 5000);
     }
 
     final void cleanUp() {
-        // we should avoid creating an object for each check:
-        Instant now = Instant.now();
-        records.values().forEach(r->r.checkExpiration(now));
+        expiryService.advance();
     }
 
+    /**
+     * Stop expiring the records, so the shared {@link ExpiryService} does not keep them.
+     */
     public void shutdown() {
-        cleanerTimer.cancel();
-        cleanerTimer.purge();
+        records.values().forEach(expiry::cancel);
     }
 
     public @Nullable Parcel get(HashId itemId) {
@@ -70,21 +62,21 @@ public class ParcelCache {
         return records.size();
     }
 
-    private class Record {
-        private Instant expiresAt;
+    private class Record extends ExpiryService.Entry {
         private Parcel parcel;
 
         private Record(Parcel parcel) {
-            expiresAt = Instant.now().plus(maxAge);
             this.parcel = parcel;
-            records.put(parcel.getId(), this);
+            Record old = records.put(parcel.getId(), this);
+            if (old != null)
+                expiry.cancel(old);
+            if (!expiry.schedule(this, System.currentTimeMillis() + maxAge.toMillis()))
+                records.remove(parcel.getId(), this);
         }
 
-        private void checkExpiration(Instant now) {
-            if( expiresAt.isBefore(now) ) {
-                //System.out.println("cache expired "+parcel.getId());
-                records.remove(parcel.getId());
-            }
+        @Override
+        protected void expire() {
+            records.remove(parcel.getId(), this);
         }
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical hashed timing wheel. Entries are scheduled to expire at some moment and are fired once the wheel is
+ * advanced past that moment. Both {@link #schedule(Entry, long)} and {@link #cancel(Entry)} are O(1), and advancing
+ * the wheel touches only the buckets that are due, so the cost of maintenance does not depend on how many entries are
+ * waiting.
+ * <p>
+ * Expiration is never early, but can be late up to one tick. Entries are intrusive (the scheduled object itself
+ * extends {@link Entry}) so scheduling does not allocate.
+ */
+public class TimingWheel {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final Entry[][] buckets = new Entry[LEVELS][WHEEL_SIZE];
+    // number of the first tick that has not yet been fully processed
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * Base class for anything that could be scheduled in the wheel.
+     */
+    public static abstract class Entry {
+        private Entry prev;
+        private Entry next;
+        private int level = -1;
+        private int slot;
+        private long deadlineTick;
+
+        /**
+         * Called (outside of the wheel lock) when entry is expired.
+         */
+        protected abstract void onExpired();
+
+        public boolean isScheduled() {
+            return level >= 0;
+        }
+    }
+
+    /**
+     * @param tickMillis resolution of the wheel. With 4 levels of 64 slots wheel covers 2^24 ticks without
+     *                   re-cascading far entries
+     * @param nowMillis  current time in milliseconds
+     */
+    public TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0)
+            throw new IllegalArgumentException("tickMillis must be positive");
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedule (or reschedule) the entry to expire at given moment.
+     *
+     * @param entry     to schedule
+     * @param atMillis  expiration time in milliseconds
+     *
+     * @return false if the moment is already passed and entry was not scheduled; caller should treat it as expired
+     */
+    public synchronized boolean schedule(Entry entry, long atMillis) {
+        unlink(entry);
+        long deadline = atMillis / tickMillis;
+        if (deadline < currentTick)
+            return false;
+        entry.deadlineTick = deadline;
+        insert(entry);
+        return true;
+    }
+
+    /**
+     * Remove entry from the wheel if it is scheduled.
+     *
+     * @param entry to remove
+     *
+     * @return true if entry was scheduled
+     */
+    public synchronized boolean cancel(Entry entry) {
+        return unlink(entry);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Advance the wheel up to the specified moment and fire all entries that are expired by then. The entry failing in
+     * {@link Entry#onExpired()} does not stop the rest from firing: they are already removed from the wheel.
+     *
+     * @param nowMillis current time in milliseconds
+     *
+     * @return number of expired entries
+     */
+    public int advance(long nowMillis) {
+        List<Entry> expired = collectExpired(nowMillis / tickMillis);
+        for (Entry e : expired) {
+            try {
+                e.onExpired();
+            } catch (Exception x) {
+                x.printStackTrace();
+            }
+        }
+        return expired.size();
+    }
+
+    private synchronized List<Entry> collectExpired(long nowTick) {
+        List<Entry> expired = new ArrayList<>();
+        while (currentTick < nowTick) {
+            int slot = (int) (currentTick & WHEEL_MASK);
+            Entry e = buckets[0][slot];
+            buckets[0][slot] = null;
+            while (e != null) {
+                Entry next = e.next;
+                detach(e);
+                expired.add(e);
+                e = next;
+            }
+            currentTick++;
+            // cascade upper levels when crossing their boundaries, far ones first
+            for (int level = LEVELS - 1; level > 0; level--) {
+                long mask = (1L << (WHEEL_BITS * level)) - 1;
+                if ((currentTick & mask) == 0)
+                    cascade(level, (int) ((currentTick >> (WHEEL_BITS * level)) & WHEEL_MASK));
+            }
+        }
+        return expired;
+    }
+
+    private void cascade(int level, int slot) {
+        Entry e = buckets[level][slot];
+        buckets[level][slot] = null;
+        while (e != null) {
+            Entry next = e.next;
+            detach(e);
+            insert(e);
+            e = next;
+        }
+    }
+
+    private void insert(Entry e) {
+        long deadline = e.deadlineTick < currentTick ? currentTick : e.deadlineTick;
+        int level = 0;
+        while (level < LEVELS - 1 &&
+                (deadline >> (WHEEL_BITS * level)) - (currentTick >> (WHEEL_BITS * level)) >= WHEEL_SIZE)
+            level++;
+        long slotTick = deadline >> (WHEEL_BITS * level);
+        long maxTick = (currentTick >> (WHEEL_BITS * level)) + WHEEL_SIZE - 1;
+        // too far entries wait in the last slot of the top level and are re-cascaded
+        if (slotTick > maxTick)
+            slotTick = maxTick;
+        int slot = (int) (slotTick & WHEEL_MASK);
+        e.level = level;
+        e.slot = slot;
+        e.prev = null;
+        e.next = buckets[level][slot];
+        if (e.next != null)
+            e.next.prev = e;
+        buckets[level][slot] = e;
+        size++;
+    }
+
+    private boolean unlink(Entry e) {
+        if (e.level < 0)
+            return false;
+        if (e.prev != null)
+            e.prev.next = e.next;
+        else
+            buckets[e.level][e.slot] = e.next;
+        if (e.next != null)
+            e.next.prev = e.prev;
+        detach(e);
+        return true;
+    }
+
+    private void detach(Entry e) {
+        e.prev = null;
+        e.next = null;
+        e.level = -1;
+        size--;
+    }
+}
@@ -23,28 +23,23 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class VoteCache {
 
-    private final Timer cleanerTimer = new Timer();
+    private final ExpiryService expiryService = ExpiryService.shared();
+    private final ExpiryService.Group expiry = expiryService.group("voteCache");
     private final Duration maxAge;
 
     public VoteCache(Duration maxAge) {
         this.maxAge = maxAge;
-        cleanerTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                cleanUp();
-            }
-        }, 5000, 5000);
     }
 
     final void cleanUp() {
-        // we should avoid creating an object for each check:
-        Instant now = Instant.now();
-        records.values().forEach(r->r.checkExpiration(now));
+        expiryService.advance();
     }
 
+    /**
+     * Stop expiring the records, so the shared {@link ExpiryService} does not keep them.
+     */
     public void shutdown() {
-        cleanerTimer.cancel();
-        cleanerTimer.purge();
+        records.values().forEach(expiry::cancel);
     }
 
 
@@ -57,8 +52,16 @@ public class VoteCache {
     private Map<HashId,Record> records = new ConcurrentHashMap();
 
     public ZonedDateTime addVote(HashId itemId, PublicKey publicKey) {
-        records.putIfAbsent(itemId, new Record(itemId));
         Record r = records.get(itemId);
+        if (r == null) {
+            Record created = new Record(itemId);
+            r = records.putIfAbsent(itemId, created);
+            if (r == null) {
+                r = created;
+                if (!expiry.schedule(r, r.expiresAt.toEpochMilli()))
+                    records.remove(itemId, r);
+            }
+        }
         r.votes.add(publicKey);
         return ZonedDateTime.ofInstant(r.expiresAt, ZoneId.systemDefault());
     }
@@ -73,7 +76,7 @@ public class VoteCache {
         return r != null ?  r.votes : null;
     }
 
-    private class Record {
+    private class Record extends ExpiryService.Entry {
         private Instant expiresAt;
         private HashId itemId;
         private Set<PublicKey> votes;
@@ -84,11 +87,9 @@ public class VoteCache {
             this.votes = ConcurrentHashMap.newKeySet();
         }
 
-        private void checkExpiration(Instant now) {
-            if( expiresAt.isBefore(now) ) {
-//                System.out.println("cache expired "+item.getId());
-                records.remove(itemId);
-            }
+        @Override
+        protected void expire() {
+            records.remove(itemId, this);
         }
     }
 }
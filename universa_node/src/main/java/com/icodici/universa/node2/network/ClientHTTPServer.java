@@ -42,6 +42,27 @@ public class ClientHTTPServer extends BasicHttpServer {
 
     private static final String API_VERSION = "3.1.0";
 
+    /**
+     * Longest time waitForState command holds the request, should be less than client read timeout.
+     */
+    static final long MAX_WAIT_FOR_STATE_MILLIS = 4000;
+
+    /**
+     * Number of waitForState requests that could wait at once, others are answered immediately so waiting requests
+     * never take all the server threads.
+     */
+    static final int MAX_WAITING_FOR_STATE = 16;
+
+    /**
+     * Maximum number of items getStates command answers at once.
+     */
+    static final int MAX_GET_STATES = 1000;
+
+    /**
+     * Number of items of getStates command counted as one request for the key limit.
+     */
+    static final int GET_STATES_PER_REQUEST = 100;
+
     private final BufferedLogger log;
     private ItemCache cache;
     private ParcelCache parcelCache;
@@ -53,6 +74,7 @@ public class ClientHTTPServer extends BasicHttpServer {
     private boolean localCors = false;
 
     private ExecutorService es = Executors.newFixedThreadPool(40);
+    private final Semaphore waitingForState = new Semaphore(MAX_WAITING_FOR_STATE);
     private PrivateKey nodeKey;
 
 
@@ -288,6 +310,8 @@ public class ClientHTTPServer extends BasicHttpServer {
 
         addSecureEndpoint("getStats", this::getStats);
         addSecureEndpoint("getState", this::getState);
+        addSecureEndpoint("waitForState", this::waitForState);
+        addSecureEndpoint("getStates", this::getStates);
         addSecureEndpoint("getParcelProcessingState", this::getParcelProcessingState);
         addSecureEndpoint("getPaidOperationProcessingState", this::getPaidOperationProcessingState);
         addSecureEndpoint("approve", this::approve);
@@ -508,7 +532,14 @@ public class ClientHTTPServer extends BasicHttpServer {
 
         Binder tags = params.getBinder("tags");
 
-        Binder keeping = node.getLedger().getKeepingBy(getBy,id, tags, limit, offset,sortBy,sortOrder);
+        // with "after" the page is looked up by the keyset cursor and the offset is ignored
+        String after = params.getString("after", null);
+
+        Binder keeping;
+        if (after != null)
+            keeping = node.getLedger().getKeepingByCursor(getBy, id, tags, limit, after, sortBy, sortOrder);
+        else
+            keeping = node.getLedger().getKeepingBy(getBy,id, tags, limit, offset,sortBy,sortOrder);
         if (keeping == null)
             return res;
         res.putAll(keeping);
@@ -522,7 +553,10 @@ public class ClientHTTPServer extends BasicHttpServer {
         }
 
         res.put("limit",limit);
-        res.put("offset",offset);
+        if (after != null)
+            res.put("after",after);
+        else
+            res.put("offset",offset);
         res.put("sortBy",sortBy);
         res.put("sortOrder",sortOrder);
 
@@ -720,6 +754,65 @@ public class ClientHTTPServer extends BasicHttpServer {
         }
     }
 
+    /**
+     * Batch version of getState: results for the given items in the same order, read from the ledger at once. Answers
+     * no more than "maxItemIds" first items, the client asks the rest with the next command. Each {@link
+     * #GET_STATES_PER_REQUEST} items count as a request for the key limit, so the full batch fits the limit.
+     */
+    private Binder getStates(Binder params, Session session) throws CommandFailedException {
+
+        checkNode(session);
+
+        List<HashId> itemIds = new ArrayList<>();
+        for (Object x : params.getListOrThrow("itemIds")) {
+            if (!(x instanceof HashId))
+                throw new CommandFailedException(Errors.BAD_VALUE, "itemIds", "HashId list required");
+            itemIds.add((HashId) x);
+        }
+        if (itemIds.size() > MAX_GET_STATES)
+            itemIds = itemIds.subList(0, MAX_GET_STATES);
+        int requestsCount = (itemIds.size() + GET_STATES_PER_REQUEST - 1) / GET_STATES_PER_REQUEST;
+        if (!node.checkKeyLimit(session.getPublicKey(), Math.max(requestsCount, 1)))
+            throw new CommandFailedException(Errors.COMMAND_FAILED, "", "exceeded the limit of requests for key per minute, please call again after a while");
+
+        try {
+            return Binder.of("itemResults", node.checkItems(itemIds),
+                    "maxItemIds", MAX_GET_STATES);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("getStates ERROR: " + e.getMessage());
+            throw new CommandFailedException(Errors.COMMAND_FAILED, "getStates", e.getMessage());
+        }
+    }
+
+    /**
+     * Same as getState, but if the item is being processed by the node, waits for the result up to the given time
+     * (limited by {@link #MAX_WAIT_FOR_STATE_MILLIS}) and answers as soon as the item processing is done, so the
+     * clients need not poll the state.
+     */
+    private Binder waitForState(Binder params, Session session) throws CommandFailedException {
+
+        checkNode(session, true);
+
+        HashId itemId = (HashId) params.get("itemId");
+        long millisToWait = Math.min(params.getLong("millisToWait", 0), MAX_WAIT_FOR_STATE_MILLIS);
+        try {
+            if (millisToWait > 0 && waitingForState.tryAcquire()) {
+                try {
+                    node.waitItem(itemId, millisToWait);
+                } catch (TimeoutException e) {
+                    // still processing, the current state is answered anyway
+                } finally {
+                    waitingForState.release();
+                }
+            }
+            return Binder.of("itemResult", node.checkItem(itemId));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Binder.of(
+                    "itemResult", itemResultOfError(Errors.COMMAND_FAILED,"waitForState", e.getMessage()));
+        }
+    }
 
     private Binder ubotCreateSession(Binder params, Session session) throws CommandFailedException {
         checkNode(session, false);
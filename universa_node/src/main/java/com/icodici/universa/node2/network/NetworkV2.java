@@ -30,7 +30,8 @@ import java.net.URL;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 public class NetworkV2 extends Network {
@@ -46,6 +47,24 @@ public class NetworkV2 extends Network {
     private Consumer<Notification> consumer;
     private Map<NodeInfo, ConnectivityInfo> connectivityMap;
 
+    /**
+     * Maximum size of the packed notifications sent in one datagram: {@link DatagramAdapter#MAX_PACKET_SIZE} less the
+     * room for packet header, random bytes, IV, HMAC and crc32 that {@link UDPAdapter} adds.
+     */
+    static public final int MAX_BATCH_PAYLOAD = DatagramAdapter.MAX_PACKET_SIZE - 80;
+
+    // the receiver does not accept packets with more notifications
+    private static final int MAX_BATCH_SIZE_LIMIT = 1000;
+
+    private volatile long notificationBatchWindowNanos = 0;
+    private volatile int notificationMaxBatchSize = 1;
+    private final ConcurrentHashMap<Integer, OutgoingBatch> outgoingBatches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService batchFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-batch-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
     public NetworkV2(NetConfig netConfig, NodeInfo myInfo, PrivateKey myKey) throws IOException {
         super(netConfig);
         this.myInfo = myInfo;
@@ -131,6 +150,19 @@ public class NetworkV2 extends Network {
             byte[] data = packNotifications(myInfo, Do.listOf(notification));
             logNotification(notification,toNode);
 
+            OutgoingBatch batch = outgoingBatches.computeIfAbsent(toNode.getNumber(), n -> new OutgoingBatch(toNode));
+            if (notificationBatchWindowNanos > 0)
+                batch.add(notification, data);
+            else
+                batch.sendNow(data);
+        } catch (Exception e) {
+            report(getLabel(), "deliver exception: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void sendDatagram(NodeInfo toNode, byte[] data) {
+        try {
             if(adapter != null) {
                 adapter.send(toNode, data);
             } else {
@@ -144,6 +176,136 @@ public class NetworkV2 extends Network {
         }
     }
 
+    /**
+     * Notifications to the same node waiting to be sent together in one datagram. The batch is sent when the window
+     * passes since its first notification, or as soon as it is full, either by number of notifications or by size.
+     */
+    private class OutgoingBatch {
+        private final NodeInfo toNode;
+        // swapped for an empty one under the lock, then packed and sent without holding it
+        private Pending pending = new Pending();
+        private ScheduledFuture<?> flushTask;
+
+        private final LongAdder notificationCount = new LongAdder();
+        private final LongAdder datagramCount = new LongAdder();
+
+        private OutgoingBatch(NodeInfo toNode) {
+            this.toNode = toNode;
+        }
+
+        private void add(Notification notification, byte[] packed) {
+            Pending full = null;
+            boolean flushNow;
+            synchronized (this) {
+                if (!pending.notifications.isEmpty() && pending.size + packed.length > MAX_BATCH_PAYLOAD)
+                    full = takePending();
+                pending.notifications.add(notification);
+                if (pending.notifications.size() == 1)
+                    pending.packedFirst = packed;
+                pending.size += packed.length;
+                flushNow = pending.notifications.size() >= notificationMaxBatchSize || pending.size >= MAX_BATCH_PAYLOAD;
+                if (!flushNow && flushTask == null)
+                    flushTask = batchFlusher.schedule(this::flush, notificationBatchWindowNanos, TimeUnit.NANOSECONDS);
+            }
+            if (full != null)
+                send(full);
+            if (flushNow)
+                flush();
+        }
+
+        private void sendNow(byte[] packed) {
+            // notifications already waiting should go first
+            flush();
+            notificationCount.increment();
+            datagramCount.increment();
+            sendDatagram(toNode, packed);
+        }
+
+        private void flush() {
+            Pending full;
+            synchronized (this) {
+                full = takePending();
+            }
+            if (full != null)
+                send(full);
+        }
+
+        // should be called holding the lock
+        private Pending takePending() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            if (pending.notifications.isEmpty())
+                return null;
+            Pending full = pending;
+            pending = new Pending();
+            return full;
+        }
+
+        private void send(Pending full) {
+            List<Notification> notifications = full.notifications;
+            byte[] data = notifications.size() == 1 ? full.packedFirst : packNotifications(myInfo, notifications);
+            notificationCount.add(notifications.size());
+            datagramCount.increment();
+            sendDatagram(toNode, data);
+        }
+    }
+
+    private static class Pending {
+        private final List<Notification> notifications = new ArrayList<>();
+        // the first notification packed alone, sent as is if no other one joins it
+        private byte[] packedFirst;
+        // sum of the notifications packed alone, the packed batch is never bigger
+        private int size = 0;
+    }
+
+    /**
+     * Set up coalescing of notifications sent to the same node into one datagram, so under load the nodes exchange
+     * fewer packets, each to be encrypted, acknowledged and possibly retransmitted.
+     *
+     * @param window       how long to wait for more notifications to the node after the first one, zero to send each
+     *                     notification at once
+     * @param maxBatchSize maximum notifications in one datagram
+     */
+    public void setNotificationBatching(Duration window, int maxBatchSize) {
+        notificationMaxBatchSize = Math.max(1, Math.min(maxBatchSize, MAX_BATCH_SIZE_LIMIT));
+        notificationBatchWindowNanos = window.toNanos();
+        if (notificationBatchWindowNanos <= 0)
+            flushNotifications();
+    }
+
+    /**
+     * Send all the notifications waiting in batches right now.
+     */
+    public void flushNotifications() {
+        outgoingBatches.values().forEach(OutgoingBatch::flush);
+    }
+
+    /**
+     * @return number of notifications and datagrams they were sent in, in total and by destination node number
+     */
+    public Binder getNotificationStats() {
+        long notifications = 0;
+        long datagrams = 0;
+        Binder byNode = new Binder();
+        for (OutgoingBatch b : outgoingBatches.values()) {
+            long n = b.notificationCount.sum();
+            long d = b.datagramCount.sum();
+            notifications += n;
+            datagrams += d;
+            byNode.put(String.valueOf(b.toNode.getNumber()), Binder.of("notifications", n, "datagrams", d));
+        }
+        return Binder.of(
+                "batchWindowMillis", notificationBatchWindowNanos / 1_000_000.0,
+                "maxBatchSize", notificationMaxBatchSize,
+                "notifications", notifications,
+                "datagrams", datagrams,
+                "notificationsPerDatagram", datagrams > 0 ? (double) notifications / datagrams : 0.0,
+                "byNode", byNode
+        );
+    }
+
     private void logNotification(Notification notification, NodeInfo to) {
         try {
 
@@ -326,6 +488,14 @@ public class NetworkV2 extends Network {
         return client.getState(id);
     }
 
+    /**
+     * @return UDP adapter receive path statistics, or null if the adapter is not running
+     */
+    public Binder getUdpStats() {
+        UDPAdapter a = adapter;
+        return a != null ? a.getReceiveStats() : null;
+    }
+
     @Override
     public int pingNodeUDP(int number, int timeoutMillis) {
         if(adapter != null)
@@ -369,6 +539,8 @@ public class NetworkV2 extends Network {
     }
 
     public void shutdown() {
+        flushNotifications();
+        batchFlusher.shutdownNow();
         if(adapter != null)
             adapter.shutdown();
     }
@@ -484,4 +656,13 @@ public class NetworkV2 extends Network {
         if(this.adapter != null)
             this.adapter.setConnectivityMap(connectivityMap);
     }
+
+    /**
+     * Should be called when the content of the connectivity map is changed.
+     */
+    public void connectivityChanged() {
+        UDPAdapter a = adapter;
+        if(a != null)
+            a.connectivityChanged();
+    }
 }
@@ -8,7 +8,6 @@
 package com.icodici.universa.node2.network;
 
 import com.icodici.crypto.*;
-import com.icodici.crypto.digest.Crc32;
 import com.icodici.universa.Errors;
 import com.icodici.universa.node2.ConnectivityInfo;
 import com.icodici.universa.node2.NetConfig;
@@ -16,32 +15,63 @@ import com.icodici.universa.node2.Node;
 import com.icodici.universa.node2.NodeInfo;
 import net.sergeych.boss.Boss;
 import net.sergeych.tools.AsyncEvent;
+import net.sergeych.tools.Binder;
 import net.sergeych.tools.Do;
 import net.sergeych.utils.Bytes;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 public class UDPAdapter extends DatagramAdapter {
 
-    private DatagramSocket socket;
+    /**
+     * Number of threads processing received packets. Packets of the same remote node are always processed by the same
+     * thread, in order of arrival.
+     */
+    static public final int RECEIVE_WORKERS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Maximum number of received packets waiting for processing in each worker's queue. Packets that do not fit are
+     * dropped, as if they were lost in the network, and will be retransmitted.
+     */
+    static public final int MAX_RECEIVE_QUEUE_SIZE = 10000;
+
+    /**
+     * Maximum number of idle receive buffers kept for reuse.
+     */
+    static private final int MAX_POOLED_BUFFERS = 1024;
+
+    private DatagramChannel channel;
     private SocketListenThread socketListenThread;
+    private ReceiveWorker[] receiveWorkers;
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferPoolSize = new AtomicInteger();
+    private final ConcurrentHashMap<SocketAddress, Integer> nodeIdsByAddress = new ConcurrentHashMap<>();
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
     private ConcurrentHashMap<Integer, Session> sessionsByRemoteId = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Integer, SessionReader> sessionReaders = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Integer, SessionReader> sessionReaderCandidates = new ConcurrentHashMap<>();
     private String logLabel = "";
-    private Integer nextPacketId = 1;
+    private final AtomicInteger nextPacketId = new AtomicInteger(1);
     private Timer timerHandshake = new Timer();
     private Timer timerRetransmit = new Timer();
     private Timer timerProtectionFromDuple = new Timer();
     private Map<NodeInfo, ConnectivityInfo> connectivityMap;
+    private volatile Routes routes = new Routes(new HashSet<>(), new HashMap<>());
+    private final AtomicBoolean routesOutdated = new AtomicBoolean(false);
 
 
     /**
@@ -59,12 +89,20 @@ public class UDPAdapter extends DatagramAdapter {
 
         logLabel = "udp" + myNodeInfo.getNumber() + ": ";
 
-        nextPacketId = new Random().nextInt(Integer.MAX_VALUE)+1;
+        nextPacketId.set(new Random().nextInt(Integer.MAX_VALUE)+1);
 
-        socket = new DatagramSocket(myNodeInfo.getNodeAddress().getPort());
-        socket.setReuseAddress(true);
+        channel = DatagramChannel.open();
+        // has effect only if set before the socket is bound
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(myNodeInfo.getNodeAddress().getPort()));
+
+        receiveWorkers = new ReceiveWorker[RECEIVE_WORKERS];
+        for (int i = 0; i < receiveWorkers.length; i++) {
+            receiveWorkers[i] = new ReceiveWorker(i);
+            receiveWorkers[i].start();
+        }
 
-        socketListenThread = new SocketListenThread(socket);
+        socketListenThread = new SocketListenThread(channel);
         socketListenThread.start();
 
         timerHandshake.scheduleAtFixedRate(new TimerTask() {
@@ -91,138 +129,188 @@ public class UDPAdapter extends DatagramAdapter {
     }
 
 
+    /**
+     * Send payload to the remote node. Sending to different nodes goes in parallel, sending to the same node is
+     * serialized by its {@link Session}.
+     */
     @Override
-    synchronized public void send(NodeInfo destination, byte[] payload) throws InterruptedException {
+    public void send(NodeInfo destination, byte[] payload) throws InterruptedException {
         report(logLabel, () -> "send to "+destination.getNumber()+", isActive: "+socketListenThread.isActive.get(), VerboseLevel.DETAILED);
 
         if (!socketListenThread.isActive.get())
             return;
 
         Session session = getOrCreateSession(destination);
-        if (session.state.get() == Session.STATE_HANDSHAKE) {
-            session.addPayloadToOutputQueue(destination, payload);
-        } else {
-            if (session.retransmitMap.size() > MAX_RETRANSMIT_QUEUE_SIZE)
+        synchronized (session.sendLock) {
+            if (session.state.get() == Session.STATE_HANDSHAKE) {
                 session.addPayloadToOutputQueue(destination, payload);
-            else
-                sendPayload(session, payload);
+            } else {
+                if (session.retransmitMap.size() > MAX_RETRANSMIT_QUEUE_SIZE)
+                    session.addPayloadToOutputQueue(destination, payload);
+                else
+                    sendPayload(session, payload);
+            }
         }
     }
 
 
     /**
-     * Method creates {@link DatagramPacket} from given {@link Packet} and sends it to address:port from destination.
-     * @param destination instance of {@link NodeInfo} with net address for sending.
-     * @param packet data to send. It's {@link Packet#makeByteArray()} should returns data with size less than {@link DatagramAdapter#MAX_PACKET_SIZE}
+     * Routes to the nodes that are unreachable from this node directly, computed from the connectivity map.
      */
-    private void sendPacket(NodeInfo destination, Packet packet) {
-        //create immutable snapshot
-        Map<NodeInfo,ConnectivityInfo> connectivityMapInstant = this.connectivityMap != null ? new HashMap<>(this.connectivityMap) : new HashMap<>();
-
-        Set<NodeInfo> unreachableByMe = connectivityMapInstant.containsKey(myNodeInfo) ? connectivityMapInstant.get(myNodeInfo).getUnreachableNodes() : new HashSet<>();
-
-        //check if not ECHO packed and is being sent to an unreachable node
-        if(packet.type != PacketTypes.ECHO && unreachableByMe.contains(destination)) {
-            Map<NodeInfo,Integer> routeLengths = new HashMap<>();
-            routeLengths.put(destination,0);
-            Set<NodeInfo> uncheckedNodes = new HashSet<>(connectivityMapInstant.keySet());
+    private static class Routes {
+        private final Set<NodeInfo> unreachable;
+        // destination -> first node on the route, no entry means no route to the destination
+        private final Map<NodeInfo, NodeInfo> proxies;
+
+        private Routes(Set<NodeInfo> unreachable, Map<NodeInfo, NodeInfo> proxies) {
+            this.unreachable = unreachable;
+            this.proxies = proxies;
+        }
+    }
 
-            //we might not receive connectivity diagnostics of the destination, so it is not on connectivityMap yet
-            //still need to add it to uncheckedNodes
-            uncheckedNodes.add(destination);
 
-            while(!routeLengths.containsKey(myNodeInfo) && !uncheckedNodes.isEmpty()) {
+    /**
+     * Get actual routes, recomputing them if connectivity map has changed since the last call.
+     * @return routes
+     */
+    private Routes getRoutes() {
+        if (routesOutdated.compareAndSet(true, false))
+            routes = computeRoutes(this.connectivityMap != null ? new HashMap<>(this.connectivityMap) : new HashMap<>());
+        return routes;
+    }
 
-                //find unchecked node with minimum known route length
-                NodeInfo x = uncheckedNodes.stream().min(Comparator.comparingInt(n->routeLengths.getOrDefault(n, connectivityMapInstant.size()))).get();
-                Integer xRouteLength = routeLengths.get(x);
 
+    /**
+     * Find proxies for all the nodes unreachable by this node.
+     * @param connectivityMapInstant immutable snapshot of the connectivity map
+     * @return routes
+     */
+    private Routes computeRoutes(Map<NodeInfo,ConnectivityInfo> connectivityMapInstant) {
+        Set<NodeInfo> unreachableByMe = connectivityMapInstant.containsKey(myNodeInfo) ?
+                new HashSet<>(connectivityMapInstant.get(myNodeInfo).getUnreachableNodes()) : new HashSet<>();
+        Map<NodeInfo, NodeInfo> proxies = new HashMap<>();
+        for (NodeInfo destination : unreachableByMe) {
+            NodeInfo proxy = findProxy(connectivityMapInstant, destination);
+            if (proxy != null)
+                proxies.put(destination, proxy);
+        }
+        return new Routes(unreachableByMe, proxies);
+    }
 
 
-                //no unchecked elements with known route length exists
-                if(xRouteLength == null) {
-                    //NO ROUTE TO HOST
-                    break;
-                }
+    /**
+     * Find the first node on the shortest route to the destination.
+     * @param connectivityMapInstant immutable snapshot of the connectivity map
+     * @param destination node that is unreachable directly
+     * @return node to send packets for the destination to, or null if there is no route
+     */
+    private NodeInfo findProxy(Map<NodeInfo,ConnectivityInfo> connectivityMapInstant, NodeInfo destination) {
+        Map<NodeInfo,Integer> routeLengths = new HashMap<>();
+        routeLengths.put(destination,0);
+        Set<NodeInfo> uncheckedNodes = new HashSet<>(connectivityMapInstant.keySet());
 
-                //find neighbors with unknown route length and set it to xRouteLength+1 for them
-                for(NodeInfo ni : connectivityMapInstant.keySet()) {
-                    if(!routeLengths.containsKey(ni) && !connectivityMapInstant.get(ni).getUnreachableNodes().contains(x)) {
-                        routeLengths.put(ni,xRouteLength+1);
-                    }
-                }
+        //we might not receive connectivity diagnostics of the destination, so it is not on connectivityMap yet
+        //still need to add it to uncheckedNodes
+        uncheckedNodes.add(destination);
 
-                //mark x checked
-                uncheckedNodes.remove(x);
+        while(!routeLengths.containsKey(myNodeInfo) && !uncheckedNodes.isEmpty()) {
 
-            }
+            //find unchecked node with minimum known route length
+            NodeInfo x = uncheckedNodes.stream().min(Comparator.comparingInt(n->routeLengths.getOrDefault(n, connectivityMapInstant.size()))).get();
+            Integer xRouteLength = routeLengths.get(x);
 
-            if(!routeLengths.containsKey(myNodeInfo)) {
+            //no unchecked elements with known route length exists
+            if(xRouteLength == null) {
                 //NO ROUTE TO HOST
-                return;
+                break;
             }
 
-            List<NodeInfo> route = new ArrayList<>();
-            while(true) {
-                NodeInfo x;
-                if(route.isEmpty()) {
-                    x = myNodeInfo;
-                } else {
-                    x = route.get(route.size()-1);
+            //find neighbors with unknown route length and set it to xRouteLength+1 for them
+            for(NodeInfo ni : connectivityMapInstant.keySet()) {
+                if(!routeLengths.containsKey(ni) && !connectivityMapInstant.get(ni).getUnreachableNodes().contains(x)) {
+                    routeLengths.put(ni,xRouteLength+1);
                 }
+            }
 
-                //find mininum route length node
-                Set<NodeInfo> toFindIn = new HashSet(connectivityMapInstant.keySet());
+            //mark x checked
+            uncheckedNodes.remove(x);
+        }
 
-                //... among ones reachable from x
-                toFindIn.removeAll(connectivityMapInstant.get(x).getUnreachableNodes());
-                //... among ones not on the route already
-                toFindIn.removeAll(route);
+        if(!routeLengths.containsKey(myNodeInfo)) {
+            //NO ROUTE TO HOST
+            return null;
+        }
 
-                try {
-                    //next route node found
-                    NodeInfo next = toFindIn.stream().min(Comparator.comparingInt(n->routeLengths.getOrDefault(n, connectivityMapInstant.size()))).get();
-                    route.add(next);
+        List<NodeInfo> route = new ArrayList<>();
+        while(true) {
+            NodeInfo x;
+            if(route.isEmpty()) {
+                x = myNodeInfo;
+            } else {
+                x = route.get(route.size()-1);
+            }
 
-                    if(routeLengths.get(next) == 1) {
-                        break;
-                    }
+            //find mininum route length node
+            Set<NodeInfo> toFindIn = new HashSet(connectivityMapInstant.keySet());
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            //... among ones reachable from x
+            toFindIn.removeAll(connectivityMapInstant.get(x).getUnreachableNodes());
+            //... among ones not on the route already
+            toFindIn.removeAll(route);
 
+            Optional<NodeInfo> next = toFindIn.stream().min(Comparator.comparingInt(n->routeLengths.getOrDefault(n, connectivityMapInstant.size())));
+            if(!next.isPresent()) {
+                //route is broken
+                return null;
             }
+            //next route node found
+            route.add(next.get());
 
-            NodeInfo proxy = route.get(0);
+            if(routeLengths.get(next.get()) == 1) {
+                break;
+            }
+        }
 
-            if(proxy == null) {
-                //host unreachable
-                return;
-            } else {
-                NodeInfo finalProxy = proxy;
-                NodeInfo finalDestination = destination;
-                report(logLabel, ()->"asking " + finalProxy + " to retransmit message to: " + finalDestination, VerboseLevel.DETAILED);
+        return route.get(0);
+    }
 
 
-                Packet original = packet;
-                packet = new Packet(getNextPacketId(), myNodeInfo.getNumber(),
-                        proxy.getNumber(), PacketTypes.RETRANSMIT, original.makeByteArray());
-                destination = proxy;
+    /**
+     * Method creates datagram from given {@link Packet} and sends it to address:port from destination.
+     * @param destination instance of {@link NodeInfo} with net address for sending.
+     * @param packet data to send. It's {@link Packet#makeByteArray()} should returns data with size less than {@link DatagramAdapter#MAX_PACKET_SIZE}
+     */
+    private void sendPacket(NodeInfo destination, Packet packet) {
+        //check if not ECHO packed and is being sent to an unreachable node
+        if(packet.type != PacketTypes.ECHO) {
+            Routes actualRoutes = getRoutes();
+            if(actualRoutes.unreachable.contains(destination)) {
+                NodeInfo proxy = actualRoutes.proxies.get(destination);
+
+                if(proxy == null) {
+                    //host unreachable
+                    return;
+                } else {
+                    NodeInfo finalDestination = destination;
+                    report(logLabel, ()->"asking " + proxy + " to retransmit message to: " + finalDestination, VerboseLevel.DETAILED);
 
+                    Packet original = packet;
+                    packet = new Packet(getNextPacketId(), myNodeInfo.getNumber(),
+                            proxy.getNumber(), PacketTypes.RETRANSMIT, original.makeByteArray());
+                    destination = proxy;
+                }
             }
         }
 
         byte[] payload = packet.makeByteArray();
         InetSocketAddress destAddr = myNodeInfo.hasV6() ? destination.getNodeAddressV6() : destination.getNodeAddress();
-        DatagramPacket dp = new DatagramPacket(payload, payload.length, destAddr.getAddress(), destAddr.getPort());
         try {
             report(logLabel, ()->"sendPacket datagram size: " + payload.length, VerboseLevel.DETAILED);
             if ((testMode == TestModes.LOST_PACKETS || testMode == TestModes.LOST_AND_SHUFFLE_PACKETS)
                 && (new Random().nextInt(100) < lostPacketsPercent))
                 report(logLabel, ()->"test mode: skip socket.send", VerboseLevel.BASE);
             else
-                socket.send(dp);
+                channel.send(ByteBuffer.wrap(payload), destAddr);
         } catch (Exception e) {
             callErrorCallbacks("sendPacket exception: " + e);
         }
@@ -239,14 +327,16 @@ public class UDPAdapter extends DatagramAdapter {
      */
     private byte[] preparePayloadForSession(SymmetricKey sessionKey, byte[] payload) {
         try {
-            byte[] payloadWithRandomChunk = new byte[payload.length + 2];
-            System.arraycopy(payload, 0, payloadWithRandomChunk, 0, payload.length);
-            System.arraycopy(Bytes.random(2).toArray(), 0, payloadWithRandomChunk, payload.length, 2);
-            byte[] encryptedPayload = new SymmetricKey(sessionKey.getKey()).etaEncrypt(payloadWithRandomChunk);
-            byte[] crc32 = new Crc32().digest(encryptedPayload);
-            byte[] dataToSend = new byte[encryptedPayload.length + crc32.length];
-            System.arraycopy(encryptedPayload, 0, dataToSend, 0, encryptedPayload.length);
-            System.arraycopy(crc32, 0, dataToSend, encryptedPayload.length, crc32.length);
+            // plain payload with 2 random bytes, then IV, encrypted payload and HMAC, then crc32, all in one array;
+            // the session key is used as is, each thread initializes its cipher once instead of once per packet
+            int plainLength = payload.length + 2;
+            byte[] plain = Arrays.copyOf(payload, plainLength);
+            int random = ThreadLocalRandom.current().nextInt();
+            plain[payload.length] = (byte) random;
+            plain[payload.length + 1] = (byte) (random >> 8);
+            byte[] dataToSend = new byte[plainLength + sessionKey.getEtaOverhead() + 4];
+            int encryptedLength = sessionKey.etaEncrypt(plain, 0, plainLength, dataToSend, 0);
+            putCrc32(dataToSend, encryptedLength);
             return dataToSend;
         } catch (EncryptionError e) {
             callErrorCallbacks("(preparePayloadForSession) EncryptionError: " + e);
@@ -255,6 +345,36 @@ public class UDPAdapter extends DatagramAdapter {
     }
 
 
+    /**
+     * Calculate crc32 of the first length bytes of the data and write it right after them, big-endian.
+     */
+    private static void putCrc32(byte[] data, int length) {
+        int crc = crc32(data, length);
+        data[length] = (byte) (crc >> 24);
+        data[length + 1] = (byte) (crc >> 16);
+        data[length + 2] = (byte) (crc >> 8);
+        data[length + 3] = (byte) crc;
+    }
+
+
+    /**
+     * Check the crc32 written by {@link #putCrc32(byte[], int)} in the last 4 bytes of the data.
+     */
+    private static boolean checkCrc32(byte[] data) {
+        int length = data.length - 4;
+        int crc = crc32(data, length);
+        return data[length] == (byte) (crc >> 24) && data[length + 1] == (byte) (crc >> 16) &&
+                data[length + 2] == (byte) (crc >> 8) && data[length + 3] == (byte) crc;
+    }
+
+
+    private static int crc32(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+
     /**
      * Creates {@link Packet} of type {@link PacketTypes#DATA} and sends it to network, initiates retransmission.
      * It is normal data sending procedure when {@link Session} with remote node is already established.
@@ -275,13 +395,8 @@ public class UDPAdapter extends DatagramAdapter {
      * Used for packet confirmations, in retransmission algorithm.
      * @return new packet id for sending
      */
-    synchronized private Integer getNextPacketId() {
-        Integer res = nextPacketId;
-        if (nextPacketId == Integer.MAX_VALUE)
-            nextPacketId = 1;
-        else
-            ++nextPacketId;
-        return res;
+    private Integer getNextPacketId() {
+        return nextPacketId.getAndUpdate(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
     }
 
 
@@ -289,7 +404,11 @@ public class UDPAdapter extends DatagramAdapter {
     public void shutdown() {
         report(logLabel, ()->"shutting down...", VerboseLevel.BASE);
         socketListenThread.isActive.set(false);
-        socket.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            report(logLabel, ()->"shutting down... channel close failed: "+e, VerboseLevel.BASE);
+        }
         timerHandshake.cancel();
         timerHandshake.purge();
         timerRetransmit.cancel();
@@ -298,12 +417,39 @@ public class UDPAdapter extends DatagramAdapter {
         timerProtectionFromDuple.purge();
         try {
             socketListenThread.join();
+            for (ReceiveWorker worker : receiveWorkers) {
+                worker.interrupt();
+                worker.join();
+            }
         } catch (InterruptedException e) {
             report(logLabel, ()->"shutting down... InterruptedException: "+e, VerboseLevel.BASE);
         }
         report(logLabel, ()->"shutting down... done", VerboseLevel.BASE);
     }
 
+
+    /**
+     * Receive path statistics: number of received and dropped (because of full queue) packets, current depth of each
+     * worker's queue and of the buffer pool.
+     *
+     * @return statistics
+     */
+    public Binder getReceiveStats() {
+        List<Integer> queues = new ArrayList<>();
+        long queued = 0;
+        for (ReceiveWorker worker : receiveWorkers) {
+            queues.add(worker.queue.size());
+            queued += worker.queue.size();
+        }
+        return Binder.of(
+                "received", receivedCount.sum(),
+                "dropped", droppedCount.sum(),
+                "queued", queued,
+                "workerQueues", queues,
+                "pooledBuffers", bufferPoolSize.get()
+        );
+    }
+
     Map<Integer,AsyncEvent> pingWaiters = new ConcurrentHashMap<>();
 
     @Override
@@ -473,12 +619,14 @@ public class UDPAdapter extends DatagramAdapter {
      * @param now pass here Instant.now()
      */
     private void restartHandshakeIfNeeded(Session s, Instant now) {
-        if (s.state.get() == Session.STATE_HANDSHAKE) {
-            if (s.handshakeExpiresAt.isBefore(now)) {
-                report(logLabel, ()->"handshaking with nodeId="+s.remoteNodeInfo.getNumber()+" is timed out, restart", VerboseLevel.BASE);
-                s.handshakeStep.set(Session.HANDSHAKE_STEP_WAIT_FOR_WELCOME);
-                s.handshakeExpiresAt = now.plusMillis(HANDSHAKE_TIMEOUT_MILLIS);
-                sendHello(s);
+        synchronized (s) {
+            if (s.state.get() == Session.STATE_HANDSHAKE) {
+                if (s.handshakeExpiresAt.isBefore(now)) {
+                    report(logLabel, ()->"handshaking with nodeId="+s.remoteNodeInfo.getNumber()+" is timed out, restart", VerboseLevel.BASE);
+                    s.handshakeStep.set(Session.HANDSHAKE_STEP_WAIT_FOR_WELCOME);
+                    s.handshakeExpiresAt = now.plusMillis(HANDSHAKE_TIMEOUT_MILLIS);
+                    sendHello(s);
+                }
             }
         }
     }
@@ -608,7 +756,7 @@ public class UDPAdapter extends DatagramAdapter {
     private void sendAck(SessionReader sessionReader, Integer packetId) throws EncryptionError {
         report(logLabel, ()->"send ack to "+sessionReader.remoteNodeInfo.getNumber(), VerboseLevel.DETAILED);
         Packet packet = new Packet(0, myNodeInfo.getNumber(),
-                sessionReader.remoteNodeInfo.getNumber(), PacketTypes.ACK, new SymmetricKey(sessionReader.sessionKey.getKey()).etaEncrypt(Boss.pack(packetId)));
+                sessionReader.remoteNodeInfo.getNumber(), PacketTypes.ACK, sessionReader.sessionKey.etaEncrypt(Boss.pack(packetId)));
         sendPacket(sessionReader.remoteNodeInfo, packet);
     }
 
@@ -622,7 +770,7 @@ public class UDPAdapter extends DatagramAdapter {
     private void sendSessionAck(Session session) throws EncryptionError {
         report(logLabel, ()->"send session_ack to "+session.remoteNodeInfo.getNumber(), VerboseLevel.BASE);
         Packet packet = new Packet(0, myNodeInfo.getNumber(),
-                session.remoteNodeInfo.getNumber(), PacketTypes.SESSION_ACK, new SymmetricKey(session.sessionKey.getKey()).etaEncrypt(Do.randomBytes(32)));
+                session.remoteNodeInfo.getNumber(), PacketTypes.SESSION_ACK, session.sessionKey.etaEncrypt(Do.randomBytes(32)));
         sendPacket(session.remoteNodeInfo, packet);
     }
 
@@ -658,27 +806,85 @@ public class UDPAdapter extends DatagramAdapter {
 
     public void setConnectivityMap(Map<NodeInfo, ConnectivityInfo> connectivityMap) {
         this.connectivityMap = connectivityMap;
+        routesOutdated.set(true);
+    }
+
+    /**
+     * Should be called when the content of the connectivity map is changed, so the routes will be recomputed.
+     */
+    public void connectivityChanged() {
+        routesOutdated.set(true);
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(DatagramAdapter.MAX_PACKET_SIZE);
+        bufferPoolSize.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (bufferPoolSize.get() < MAX_POOLED_BUFFERS) {
+            bufferPoolSize.incrementAndGet();
+            bufferPool.offer(buffer);
+        }
+    }
+
+    /**
+     * Find the worker for packets of the given node.
+     */
+    private ReceiveWorker workerFor(int nodeId) {
+        return receiveWorkers[Math.floorMod(nodeId, receiveWorkers.length)];
+    }
+
+    /**
+     * Find the worker for the datagram by its source address. If the address belongs to a known node, it is the
+     * worker of this node, so the packet need not be rerouted after parsing.
+     */
+    private ReceiveWorker workerFor(SocketAddress source) {
+        Integer nodeId = nodeIdsByAddress.get(source);
+        if (nodeId == null) {
+            for (NodeInfo ni : netConfig.toList()) {
+                if (source.equals(ni.getNodeAddress()) || (ni.hasV6() && source.equals(ni.getNodeAddressV6()))) {
+                    nodeId = ni.getNumber();
+                    break;
+                }
+            }
+            if (nodeId == null)
+                return receiveWorkers[Math.floorMod(source.hashCode(), receiveWorkers.length)];
+            nodeIdsByAddress.put(source, nodeId);
+        }
+        return workerFor(nodeId);
     }
 
     /**
-     * This thread listen socket for packets and processes them by types.
+     * Received datagram: raw buffer while it waits for parsing, then parsed packet.
+     */
+    private static class ReceivedDatagram {
+        private final SocketAddress source;
+        private ByteBuffer buffer;
+        private byte[] data;
+        private Packet packet;
+
+        private ReceivedDatagram(SocketAddress source, ByteBuffer buffer) {
+            this.source = source;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * This thread listen socket for packets and passes them to the {@link ReceiveWorker} of the sender node.
      */
     private class SocketListenThread extends Thread {
 
         private AtomicBoolean isActive = new AtomicBoolean(false);
-        private final DatagramSocket threadSocket;
-        private DatagramPacket receivedDatagram;
+        private final DatagramChannel threadChannel;
         private String logLabel = "";
 
-        public SocketListenThread(DatagramSocket socket){
-            byte[] buf = new byte[DatagramAdapter.MAX_PACKET_SIZE];
-            receivedDatagram = new DatagramPacket(buf, buf.length);
-            threadSocket = socket;
-            try {
-                threadSocket.setSoTimeout(500);
-            } catch (SocketException e) {
-                report(logLabel, ()->"setSoTimeout failed, exception: " + e, VerboseLevel.BASE);
-            }
+        public SocketListenThread(DatagramChannel channel){
+            threadChannel = channel;
         }
 
         @Override
@@ -688,83 +894,95 @@ public class UDPAdapter extends DatagramAdapter {
 
             isActive.set(true);
             while(isActive.get()) {
-                boolean isDatagramReceived = false;
+                ByteBuffer buffer = takeBuffer();
+                SocketAddress source = null;
                 try {
-                    threadSocket.receive(receivedDatagram);
-                    isDatagramReceived = true;
-                } catch (SocketException e) {
-                    report(logLabel, ()->"received SocketException: " + e, VerboseLevel.BASE);
-                } catch (SocketTimeoutException e) {
-                    report(logLabel, ()->"received nothing", VerboseLevel.BASE);
+                    source = threadChannel.receive(buffer);
+                } catch (ClosedChannelException e) {
+                    report(logLabel, ()->"channel is closed: " + e, VerboseLevel.BASE);
+                    releaseBuffer(buffer);
+                    break;
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
 
-                if (isDatagramReceived) {
-                    try {
-                        byte[] data = Arrays.copyOfRange(receivedDatagram.getData(), 0, receivedDatagram.getLength());
-                        Packet packet = new Packet();
-                        packet.parseFromByteArray(data);
-
-                        switch (packet.type) {
-                            case PacketTypes.HELLO:
-                                onReceiveHello(packet);
-                                break;
-                            case PacketTypes.WELCOME:
-                                onReceiveWelcome(packet);
-                                break;
-                            case PacketTypes.KEY_REQ_PART1:
-                                onReceiveKeyReqPart1(packet);
-                                break;
-                            case PacketTypes.KEY_REQ_PART2:
-                                onReceiveKeyReqPart2(packet);
-                                break;
-                            case PacketTypes.SESSION_PART1:
-                                onReceiveSessionPart1(packet);
-                                break;
-                            case PacketTypes.SESSION_PART2:
-                                onReceiveSessionPart2(packet);
-                                break;
-                            case PacketTypes.DATA:
-                                onReceiveData(packet);
-                                break;
-                            case PacketTypes.ACK:
-                                onReceiveAck(packet);
-                                break;
-                            case PacketTypes.NACK:
-                                onReceiveNack(packet);
-                                break;
-                            case PacketTypes.SESSION_ACK:
-                                onReceiveSessionAck(packet);
-                                break;
-                            case PacketTypes.RETRANSMIT:
-                                onReceiveRetransmit(packet);
-                                break;
-                            case PacketTypes.ECHO:
-                                AsyncEvent e = pingWaiters.remove(packet.packetId);
-                                if( e != null) {
-                                    e.fire();
-                                } else {
-                                    threadSocket.send(receivedDatagram);
-                                }
-                                break;
-                            default:
-                                report(logLabel, () -> "received unknown packet type: " + packet.type, VerboseLevel.BASE);
-                                break;
-                        }
-                    } catch (Exception e) {
-                        callErrorCallbacks("SocketListenThread exception: " + e);
+                if (source != null) {
+                    buffer.flip();
+                    receivedCount.increment();
+                    if (!workerFor(source).queue.offer(new ReceivedDatagram(source, buffer))) {
+                        droppedCount.increment();
+                        releaseBuffer(buffer);
                     }
+                } else {
+                    releaseBuffer(buffer);
                 }
             }
 
-            socket.close();
-            socket.disconnect();
+            try {
+                threadChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
             report(logLabel, ()->"SocketListenThread has finished", VerboseLevel.BASE);
         }
 
 
+        /**
+         * Process received packet according to its type.
+         * @param packet parsed packet
+         * @param datagram datagram the packet was received in
+         */
+        private void processPacket(Packet packet, ReceivedDatagram datagram) throws Exception {
+            switch (packet.type) {
+                case PacketTypes.HELLO:
+                    onReceiveHello(packet);
+                    break;
+                case PacketTypes.WELCOME:
+                    onReceiveWelcome(packet);
+                    break;
+                case PacketTypes.KEY_REQ_PART1:
+                    onReceiveKeyReqPart1(packet);
+                    break;
+                case PacketTypes.KEY_REQ_PART2:
+                    onReceiveKeyReqPart2(packet);
+                    break;
+                case PacketTypes.SESSION_PART1:
+                    onReceiveSessionPart1(packet);
+                    break;
+                case PacketTypes.SESSION_PART2:
+                    onReceiveSessionPart2(packet);
+                    break;
+                case PacketTypes.DATA:
+                    onReceiveData(packet);
+                    break;
+                case PacketTypes.ACK:
+                    onReceiveAck(packet);
+                    break;
+                case PacketTypes.NACK:
+                    onReceiveNack(packet);
+                    break;
+                case PacketTypes.SESSION_ACK:
+                    onReceiveSessionAck(packet);
+                    break;
+                case PacketTypes.RETRANSMIT:
+                    onReceiveRetransmit(packet);
+                    break;
+                case PacketTypes.ECHO:
+                    AsyncEvent e = pingWaiters.remove(packet.packetId);
+                    if( e != null) {
+                        e.fire();
+                    } else {
+                        threadChannel.send(ByteBuffer.wrap(datagram.data), datagram.source);
+                    }
+                    break;
+                default:
+                    report(logLabel, () -> "received unknown packet type: " + packet.type, VerboseLevel.BASE);
+                    break;
+            }
+        }
+
+
         /**
          * We have received {@link PacketTypes#HELLO} packet. Should create localNonce and send it in reply.
          * @param packet received {@link Packet}
@@ -960,8 +1178,12 @@ public class UDPAdapter extends DatagramAdapter {
                         if (Arrays.equals(nonce, session.localNonce)) {
                             report(logLabel, () -> "session successfully verified", VerboseLevel.BASE);
                             sendSessionAck(session);
-                            session.reconstructSessionKey(sessionKey);
-                            session.state.set(Session.STATE_EXCHANGING);
+                            // senders check the state and use the key holding sendLock, so nothing is queued after
+                            // the queue is sent below
+                            synchronized (session.sendLock) {
+                                session.reconstructSessionKey(sessionKey);
+                                session.state.set(Session.STATE_EXCHANGING);
+                            }
                             session.sendAllFromOutputQueue();
                             session.pulseRetransmit();
                         }
@@ -980,20 +1202,17 @@ public class UDPAdapter extends DatagramAdapter {
          */
         private void onReceiveData(Packet packet) {
             if (packet.payload.length > 4) {
-                byte[] encryptedPayload = new byte[packet.payload.length - 4];
-                byte[] crc32 = new byte[4];
-                System.arraycopy(packet.payload, 0, encryptedPayload, 0, packet.payload.length-4);
-                System.arraycopy(packet.payload, packet.payload.length-4, crc32, 0, 4);
-                byte[] calcCrc32 = new Crc32().digest(encryptedPayload);
-                if (Arrays.equals(crc32, calcCrc32)) {
+                if (checkCrc32(packet.payload)) {
                     SessionReader sessionReader = getSessionReader(packet.senderNodeId);
                     if (sessionReader != null) {
-                        if (sessionReader.sessionKey != null) {
+                        SymmetricKey sessionKey = sessionReader.sessionKey;
+                        if (sessionKey != null) {
                             try {
-                                byte[] decrypted = new SymmetricKey(sessionReader.sessionKey.getKey()).etaDecrypt(encryptedPayload);
+                                int encryptedLength = packet.payload.length - 4;
+                                byte[] decrypted = new byte[Math.max(0, encryptedLength - sessionKey.getEtaOverhead())];
+                                sessionKey.etaDecrypt(packet.payload, 0, encryptedLength, decrypted, 0);
                                 if (decrypted.length > 2) {
-                                    byte[] payload = new byte[decrypted.length - 2];
-                                    System.arraycopy(decrypted, 0, payload, 0, payload.length);
+                                    byte[] payload = Arrays.copyOf(decrypted, decrypted.length - 2);
                                     sendAck(sessionReader, packet.packetId);
                                     sessionReader.protectFromDuples(packet.packetId, ()->receiver.accept(payload));
                                 } else {
@@ -1033,7 +1252,7 @@ public class UDPAdapter extends DatagramAdapter {
             Session session = getOrCreateSession(packet.senderNodeId);
             if (session != null) {
                 if (session.state.get() == Session.STATE_EXCHANGING) {
-                    Integer ackPacketId = Boss.load(new SymmetricKey(session.sessionKey.getKey()).etaDecrypt(packet.payload));
+                    Integer ackPacketId = Boss.load(session.sessionKey.etaDecrypt(packet.payload));
                     session.removePacketFromRetransmitMap(ackPacketId);
                 }
             }
@@ -1080,6 +1299,55 @@ public class UDPAdapter extends DatagramAdapter {
         }
     }
 
+    /**
+     * Parses received datagrams and processes packets of the remote nodes assigned to it, so the slow handshake with
+     * one node does not delay packets of the others.
+     */
+    private class ReceiveWorker extends Thread {
+
+        private final BlockingQueue<ReceivedDatagram> queue = new ArrayBlockingQueue<>(MAX_RECEIVE_QUEUE_SIZE);
+
+        ReceiveWorker(int index) {
+            setName("UDP-receive-worker-" + myNodeInfo.getNumber() + "-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                ReceivedDatagram datagram;
+                try {
+                    datagram = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    if (datagram.packet == null) {
+                        datagram.data = new byte[datagram.buffer.remaining()];
+                        datagram.buffer.get(datagram.data);
+                        releaseBuffer(datagram.buffer);
+                        datagram.buffer = null;
+                        datagram.packet = new Packet();
+                        datagram.packet.parseFromByteArray(datagram.data);
+                        // packet could come from unknown address or through the proxy: keep all packets of the
+                        // node in one thread
+                        if (datagram.packet.senderNodeId != 0) {
+                            ReceiveWorker owner = workerFor(datagram.packet.senderNodeId);
+                            if (owner != this) {
+                                if (!owner.queue.offer(datagram))
+                                    droppedCount.increment();
+                                continue;
+                            }
+                        }
+                    }
+                    socketListenThread.processPacket(datagram.packet, datagram);
+                } catch (Exception e) {
+                    callErrorCallbacks("SocketListenThread exception: " + e);
+                }
+            }
+        }
+    }
+
     private void onReceiveRetransmit(Packet packet) {
         Packet packetToRetransmit = new Packet();
         packetToRetransmit.parseFromByteArray(packet.payload);
@@ -1090,18 +1358,19 @@ public class UDPAdapter extends DatagramAdapter {
 
 
     /**
-     * Implements protection from duplication received packets.
+     * Implements protection from duplication received packets. The runnable is called holding the lock of this object,
+     * so packet handlers of a session never run concurrently with each other and with the timers.
      */
     private class DupleProtection {
         public Set<Integer> protectionFromDuple0 = new HashSet<>();
         public Set<Integer> protectionFromDuple1 = new HashSet<>();
-        public void protectFromDuples(Integer packetId, Runnable runnable) {
+        public synchronized void protectFromDuples(Integer packetId, Runnable runnable) {
             if (!protectionFromDuple0.contains(packetId) && !protectionFromDuple1.contains(packetId)) {
                 runnable.run();
                 protectionFromDuple0.add(packetId);
             }
         }
-        public void clearProtectionFromDupleBuffers() {
+        public synchronized void clearProtectionFromDupleBuffers() {
             protectionFromDuple1.clear();
             Set<Integer> tmp = protectionFromDuple1;
             protectionFromDuple1 = protectionFromDuple0;
@@ -1116,7 +1385,7 @@ public class UDPAdapter extends DatagramAdapter {
     private class Retransmitter extends DupleProtection {
         public ConcurrentHashMap<Integer,RetransmitItem> retransmitMap = new ConcurrentHashMap<>();
         public NodeInfo remoteNodeInfo;
-        public SymmetricKey sessionKey;
+        public volatile SymmetricKey sessionKey;
 
         public void addPacketToRetransmitMap(Integer packetId, Packet packet, byte[] sourcePayload) {
             retransmitMap.put(packetId, new RetransmitItem(packet, sourcePayload));
@@ -1137,7 +1406,7 @@ public class UDPAdapter extends DatagramAdapter {
             return Session.STATE_HANDSHAKE;
         }
 
-        public void pulseRetransmit() {
+        public synchronized void pulseRetransmit() {
             if (getState() == Session.STATE_EXCHANGING) {
                 retransmitMap.forEach((itkey, item)-> {
                     if (item.nextRetransmitTime.isBefore(Instant.now())) {
@@ -1178,9 +1447,14 @@ public class UDPAdapter extends DatagramAdapter {
      * it's local {@link Session}, and remote creates {@link SessionReader} for responding.
      * Session uses for handshaking and for transmit {@link PacketTypes#DATA}.
      * SessionReader uses for handshaking and for receive {@link PacketTypes#DATA}
+     * <p>
+     * Packets of a remote node are processed by one {@link ReceiveWorker}, but the session is also used by the timers
+     * and the sending threads: the handshake state is changed holding the session's lock, the state switch and the
+     * session key are also guarded by {@link Session#sendLock}.
      */
     private class Session extends Retransmitter {
 
+        private final Object sendLock = new Object();
         private byte[] localNonce;
         private byte[] remoteNonce;
         private BlockingQueue<OutputQueueItem> outputQueue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
@@ -1256,7 +1530,7 @@ public class UDPAdapter extends DatagramAdapter {
         /**
          * Changes session's state to {@link Session#STATE_HANDSHAKE}.
          */
-        public void startHandshake() {
+        public synchronized void startHandshake() {
             if (lastHandshakeRestartTime.plusMillis(HANDSHAKE_TIMEOUT_MILLIS).isBefore(Instant.now())) {
                 retransmitMap.forEach((k, v) -> {
                     v.retransmitCounter = 0;
@@ -0,0 +1,3 @@
+create index ix_items_id on items(id);
+create index ix_items_keeptill on items(keepTill);
+create index ix_follower_callbacks_stored_until on follower_callbacks(stored_until);
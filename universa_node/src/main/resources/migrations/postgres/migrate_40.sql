@@ -0,0 +1,11 @@
+create index ix_kept_items_ledger_id on kept_items(ledger_id);
+create index ix_kept_items_origin_ledger_id on kept_items(origin, ledger_id);
+create index ix_kept_items_parent_ledger_id on kept_items(parent, ledger_id);
+drop index if exists ix_keeping_items_origin;
+drop index if exists ix_keeping_items_parent;
+
+create index ix_ledger_state_created_at on ledger(state, created_at, id);
+
+create index ix_kept_items_tags_tag_value on kept_items_tags(tag, value, ledger_id);
+drop index if exists ix_kept_items_tags_tag;
+drop index if exists ix_kept_items_tags_value;
@@ -0,0 +1 @@
+create index ix_ledger_state_expires_at on ledger(state, expires_at, id);
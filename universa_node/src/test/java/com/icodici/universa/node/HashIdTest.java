@@ -3,15 +3,25 @@ package com.icodici.universa.node;
 import com.icodici.crypto.digest.Gost3411_2012_256;
 import com.icodici.crypto.digest.Sha3_256;
 import com.icodici.crypto.digest.Sha512_256;
+import com.icodici.universa.CompactHashId;
 import com.icodici.universa.HashId;
+import com.icodici.universa.HashIdMap;
+import com.icodici.universa.HashIdSet;
 import net.sergeych.tools.Do;
 import net.sergeych.utils.Base64;
 import net.sergeych.utils.Base64u;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.*;
@@ -84,4 +94,91 @@ HashIdTest {
 //        System.out.println("src: "+ Base64.encodeString(src));
 //        System.out.println("hid: "+ Base64.encodeString(hid));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void v3HashLargeAndStreamed() throws Exception {
+        // larger than the parallel threshold and not a multiple of the stream chunk
+        byte[] src = Do.randomBytes(3 * 1024 * 1024 + 17);
+        byte[] hid = HashId.of(src).getDigest();
+
+        assertArrayEquals(new Sha512_256().digest(src), Arrays.copyOfRange(hid, 0, 32));
+        assertArrayEquals(new Sha3_256().digest(src), Arrays.copyOfRange(hid, 32, 64));
+        assertArrayEquals(new Gost3411_2012_256().digest(src), Arrays.copyOfRange(hid, 64, 96));
+
+        assertArrayEquals(hid, HashId.of(new ByteArrayInputStream(src)).getDigest());
+        assertArrayEquals(hid, HashId.of(ByteBuffer.wrap(src)).getDigest());
+        ByteBuffer direct = ByteBuffer.allocateDirect(src.length + 5);
+        direct.put(new byte[5]).put(src).flip().position(5);
+        assertArrayEquals(hid, HashId.of(direct).getDigest());
+        assertEquals(5, direct.position());
+
+        byte[] small = Do.randomBytes(107);
+        assertEquals(HashId.of(small), HashId.of(new ByteArrayInputStream(small)));
+        assertEquals(HashId.of(new byte[0]), HashId.of(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void compact() throws Exception {
+        CompactHashId a = idA.toCompact();
+        assertEquals(a, idA1.toCompact());
+        assertEquals(a.hashCode(), idA1.toCompact().hashCode());
+        assertNotEquals(a, idB.toCompact());
+        assertEquals(idA, a.toHashId());
+        for (int i = 0; i < 100; i++) {
+            HashId x = HashId.withDigest(Do.randomNegativeBytes(96));
+            HashId y = HashId.withDigest(Do.randomNegativeBytes(96));
+            assertArrayEquals(x.getDigest(), x.toCompact().getDigest());
+            assertEquals(Integer.signum(x.compareTo(y)), Integer.signum(x.toCompact().compareTo(y.toCompact())));
+        }
+    }
+
+    @Test
+    public void hashIdMap() throws Exception {
+        Map<HashId, Integer> expected = new HashMap<>();
+        HashIdMap<Integer> map = new HashIdMap<>();
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            HashId id = HashId.createRandom();
+            ids.add(id);
+            assertNull(map.put(id, i));
+            expected.put(id, i);
+        }
+        for (int i = 0; i < 1000; i += 2)
+            assertEquals(i, (int) map.remove(HashId.withDigest(ids.get(i).getDigest())));
+        for (int i = 0; i < 1000; i += 2)
+            expected.remove(ids.get(i));
+        // reuse of the removed slots
+        for (int i = 0; i < 500; i++) {
+            HashId id = HashId.createRandom();
+            map.put(id, -i - 1);
+            expected.put(id, -i - 1);
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(1, (int) map.get(HashId.withDigest(ids.get(1).getDigest())));
+        assertNull(map.get(ids.get(0)));
+        assertNull(map.get("not a hash id"));
+
+        map.values().removeIf(v -> v < 0);
+        assertEquals(500, map.size());
+        Iterator<HashId> it = map.keySet().iterator();
+        while (it.hasNext())
+            if (map.get(it.next()) % 3 == 0)
+                it.remove();
+        for (Map.Entry<HashId, Integer> e : map.entrySet())
+            assertNotEquals(0, e.getValue() % 3);
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void hashIdSet() throws Exception {
+        Set<HashId> set = new HashIdSet(Arrays.asList(idA, idB));
+        assertTrue(set.contains(idA1));
+        assertFalse(set.add(idA1));
+        assertEquals(2, set.size());
+        assertTrue(set.remove(idA1));
+        assertFalse(set.contains(idA));
+        assertTrue(set.contains(idB));
+    }
+}
@@ -0,0 +1,60 @@
+package com.icodici.universa.node;
+
+import com.icodici.universa.TestKeys;
+import com.icodici.universa.contract.Contract;
+import net.sergeych.boss.Boss;
+import net.sergeych.tools.Binder;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackedItemCodecTest {
+
+    @Test
+    public void compressContract() throws Exception {
+        Contract contract = new Contract(TestKeys.privateKey(0));
+        contract.seal();
+        byte[] packed = contract.getPackedTransaction();
+
+        byte[] stored = PackedItemCodec.encode(packed);
+        assertEquals(PackedItemCodec.MARKER, stored[0]);
+        assertTrue(stored.length < packed.length);
+        assertArrayEquals(packed, PackedItemCodec.decode(stored));
+        assertEquals(contract.getId(), Contract.fromPackedTransaction(PackedItemCodec.decode(stored)).getId());
+    }
+
+    @Test
+    public void compressBoss() throws Exception {
+        Binder data = Binder.of("definition", Binder.of("created_at", 1, "issuer", "x"),
+                "state", Binder.of("created_at", 2, "owner", "y", "revision", 1),
+                "permissions", Binder.of("change_owner", "owner", "revoke", "issuer"));
+        byte[] packed = Boss.pack(Binder.of("data", Boss.pack(data), "type", "unicapsule", "version", 3));
+        assertNotEquals(PackedItemCodec.MARKER, packed[0]);
+
+        byte[] stored = PackedItemCodec.encode(packed);
+        assertArrayEquals(packed, PackedItemCodec.decode(stored));
+    }
+
+    @Test
+    public void keepIncompressible() throws Exception {
+        byte[] random = new byte[1000];
+        new Random(1).nextBytes(random);
+        random[0] = 0x0F;
+        assertSame(random, PackedItemCodec.encode(random));
+        // values stored before the compression are read as they are
+        assertSame(random, PackedItemCodec.decode(random));
+        assertNull(PackedItemCodec.decode(null));
+    }
+
+    @Test
+    public void rejectUnknownVersion() throws Exception {
+        try {
+            PackedItemCodec.decode(new byte[]{PackedItemCodec.MARKER, 99, 0, 0, 0, 1, 0});
+            fail("must throw");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.icodici.universa.node;
 
 import com.icodici.crypto.PrivateKey;
 import com.icodici.db.Db;
+import com.icodici.db.DbPool;
 import com.icodici.db.PooledDb;
 import com.icodici.universa.HashId;
 import com.icodici.universa.TestCase;
@@ -336,6 +337,155 @@ public class PostgresLedgerTest extends TestCase {
 
     }
 
+    @Test
+    public void bulkLookup() throws Exception {
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            ids.add(HashId.createRandom());
+        List<HashId> existing = ids.subList(0, 10);
+
+        assertTrue(ledger.getRecords(ids).isEmpty());
+
+        Map<HashId, StateRecord> created = ledger.findOrCreateAll(existing);
+        assertEquals(10, created.size());
+        for (HashId id : existing) {
+            assertEquals(ItemState.PENDING, created.get(id).getState());
+            assertNotEquals(0, created.get(id).getRecordId());
+        }
+        // second call finds the same records
+        Map<HashId, StateRecord> found = ledger.findOrCreateAll(existing);
+        for (HashId id : existing)
+            assertEquals(created.get(id).getRecordId(), found.get(id).getRecordId());
+
+        created.get(existing.get(0)).setState(ItemState.APPROVED).save();
+
+        Map<HashId, StateRecord> records = ledger.getRecords(ids);
+        assertEquals(10, records.size());
+        for (HashId id : existing)
+            assertEquals(created.get(id).getRecordId(), records.get(id).getRecordId());
+        assertEquals(ItemState.APPROVED, records.get(existing.get(0)).getState());
+
+        Set<HashId> bad = ledger.findBadReferencesOf(new HashSet<>(ids));
+        assertEquals(19, bad.size());
+        assertFalse(bad.contains(existing.get(0)));
+
+        for (StateRecord r : created.values())
+            r.destroy();
+        assertTrue(ledger.getRecords(ids).isEmpty());
+    }
+
+    @Test
+    public void recordCache() throws Exception {
+        ledger.enableCache(true);
+        try {
+            ledger.setCacheLimits(10, Duration.ofSeconds(60));
+            HashId id = HashId.createRandom();
+
+            // unknown hash is looked up in the database only once
+            assertNull(ledger.getRecord(id));
+            long negativeHits = ledger.getCacheStats().getLong("negativeHits", 0);
+            assertNull(ledger.getRecord(id));
+            assertEquals(negativeHits + 1, ledger.getCacheStats().getLong("negativeHits", 0));
+
+            // creating the record cancels the negative entry, and all get the same instance
+            StateRecord r = ledger.findOrCreate(id);
+            assertSame(r, ledger.getRecord(id));
+            r.setState(ItemState.APPROVED).save();
+            assertSame(r, ledger.getRecord(id));
+
+            // evicted records are still shared while referenced
+            List<StateRecord> others = new ArrayList<>();
+            for (int i = 0; i < 50; i++)
+                others.add(ledger.findOrCreate(HashId.createRandom()));
+            assertSame(r, ledger.getRecord(id));
+            assertTrue(ledger.getCacheStats().getLong("strongSize", 0) <= 10);
+
+            r.destroy();
+            assertNull(ledger.getRecord(id));
+            for (StateRecord x : others)
+                x.destroy();
+
+            Binder stats = ledger.getCacheStats();
+            assertEquals(10, stats.getIntOrThrow("maxSize"));
+            assertTrue(stats.getLong("hits", 0) > 0);
+            assertTrue(stats.getLong("misses", 0) > 0);
+            assertTrue(stats.getLong("negativeHits", 0) >= 1);
+            // 50 records went through the cache of 10
+            assertTrue(stats.getLong("evictions", 0) > 0);
+            assertTrue(stats.getLong("strongSize", 0) <= 10);
+        } finally {
+            ledger.setCacheLimits(PostgresLedger.DEFAULT_CACHE_SIZE, PostgresLedger.DEFAULT_NEGATIVE_CACHE_TTL);
+            ledger.enableCache(false);
+        }
+    }
+
+    @Test
+    public void batchedConcurrentSaves() throws Exception {
+        ledger.setWriteBatching(Duration.ofMillis(2), 64, Duration.ofMillis(50));
+        try {
+            ExecutorService es = Executors.newFixedThreadPool(32);
+            List<Future<StateRecord>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                futures.add(es.submit(() -> {
+                    StateRecord r = new StateRecord(ledger);
+                    r.setId(HashId.createRandom());
+                    r.setState(ItemState.PENDING);
+                    r.save();
+                    r.setState(ItemState.APPROVED);
+                    r.save();
+                    return r;
+                }));
+            }
+            List<StateRecord> records = new ArrayList<>();
+            for (Future<StateRecord> f : futures)
+                records.add(f.get());
+            es.shutdown();
+
+            Set<Long> recordIds = new HashSet<>();
+            for (StateRecord r : records) {
+                assertNotEquals(0, r.getRecordId());
+                recordIds.add(r.getRecordId());
+                StateRecord loaded = ledger.getRecord(r.getId());
+                assertEquals(r.getRecordId(), loaded.getRecordId());
+                assertEquals(ItemState.APPROVED, loaded.getState());
+            }
+            assertEquals(records.size(), recordIds.size());
+
+            // inserting existing hash fails the batch and is reported to the caller
+            StateRecord duplicate = new StateRecord(ledger);
+            duplicate.setId(records.get(0).getId());
+            duplicate.setState(ItemState.PENDING);
+            try {
+                duplicate.save();
+                fail("duplicate hash should not be saved");
+            } catch (Ledger.Failure e) {
+                // expected
+            }
+
+            for (StateRecord r : records)
+                r.destroy();
+            assertNull(ledger.getRecord(records.get(1).getId()));
+
+            Binder stats = ledger.getWriteBatchingStats();
+            long batches = stats.getBinderOrThrow("batchSize").getLong("count", 0);
+            assertTrue(batches > 0);
+            assertTrue(stats.getLongOrThrow("failedBatches") >= 1);
+
+            // the thread holding a connection writes directly, not waiting for the batch with it
+            try (PooledDb db = (PooledDb) ledger.getDb()) {
+                StateRecord r = new StateRecord(ledger);
+                r.setId(HashId.createRandom());
+                r.setState(ItemState.PENDING);
+                r.save();
+                assertNotEquals(0, r.getRecordId());
+                r.destroy();
+            }
+            assertEquals(batches, ledger.getWriteBatchingStats().getBinderOrThrow("batchSize").getLong("count", 0));
+        } finally {
+            ledger.setWriteBatching(Duration.ZERO, 0, Duration.ZERO);
+        }
+    }
+
 //    @Test
     public void saveOneRecordManyTimes() throws Exception {
         HashId hashId = HashId.createRandom();
@@ -635,6 +785,128 @@ public class PostgresLedgerTest extends TestCase {
         }
     }
 
+    @Test
+    public void ledgerCleanupInChunks() throws Exception {
+        List<HashId> expired = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            HashId id = HashId.createRandom();
+            StateRecord r = ledger.findOrCreate(id);
+            r.setExpiresAt(ZonedDateTime.now().minusSeconds(10 + i));
+            r.save();
+            expired.add(id);
+        }
+
+        // chunks of 2 rows and a budget too small to finish at once: runs should continue from where they stopped
+        ledger.setCleanupLimits(2, Duration.ofMillis(1), Duration.ofMillis(5));
+        long passes = ledger.getCleanupStats().getLongOrThrow("passes");
+        for (int i = 0; i < 100 && ledger.getCleanupStats().getLongOrThrow("passes") == passes; i++)
+            ledger.cleanup(false);
+        assertEquals(passes + 1, ledger.getCleanupStats().getLongOrThrow("passes"));
+
+        for (HashId id : expired) {
+            try (ResultSet rs = ledger.getDb().statement("select count(*) from ledger where hash = ?", id.getDigest()).executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+        }
+        assertTrue(ledger.getCleanupStats().getBinderOrThrow("deleted").getLongOrThrow("ledger") >= expired.size());
+    }
+
+    @Test
+    public void partitionedItemsCleanup() throws Exception {
+        ledger.convertItemsToPartitioned(Duration.ofSeconds(5));
+        // partitions are created ahead by the maintenance, not by putItem
+        ledger.enableItemsPartitioning(Duration.ofSeconds(5), Duration.ofMinutes(1));
+
+        Contract contract = new Contract(TestKeys.privateKey(0));
+        contract.seal();
+        StateRecord r = ledger.findOrCreate(contract.getId());
+        r.setExpiresAt(ZonedDateTime.now().plusMonths(1));
+        r.save();
+        Instant keepTill = Instant.now().plusSeconds(1);
+        ledger.putItem(r, contract, keepTill);
+        assertNotNull(ledger.getItem(r));
+
+        Contract kept = new Contract(TestKeys.privateKey(0));
+        kept.seal();
+        StateRecord r2 = ledger.findOrCreate(kept.getId());
+        r2.setExpiresAt(ZonedDateTime.now().plusMonths(1));
+        r2.save();
+        ledger.putItem(r2, kept, Instant.now().plusSeconds(30));
+
+        // wait for the span of the first item to be over
+        long spanEnd = (keepTill.getEpochSecond() / 5 + 1) * 5;
+        while (Instant.now().getEpochSecond() <= spanEnd)
+            Thread.sleep(200);
+
+        long dropped = ledger.getCleanupStats().getBinderOrThrow("itemsPartitions").getLongOrThrow("dropped");
+        ledger.cleanup(false);
+        assertTrue(ledger.getCleanupStats().getBinderOrThrow("itemsPartitions").getLongOrThrow("dropped") > dropped);
+
+        assertNull(ledger.getItem(r));
+        assertNotNull(ledger.getItem(r2));
+    }
+
+    @Test
+    public void keptItemsKeysetPagination() throws Exception {
+        Contract contract = new Contract(TestKeys.privateKey(0));
+        contract.seal();
+        HashId origin = contract.getOrigin();
+        List<StateRecord> records = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            StateRecord r = ledger.findOrCreate(contract.getId());
+            r.setState(ItemState.APPROVED);
+            r.setExpiresAt(ZonedDateTime.now().plusMonths(1).plusMinutes(i));
+            r.save();
+            ledger.putKeepingItem(r, contract);
+            records.add(r);
+            contract = contract.createRevision(TestKeys.privateKey(0));
+            contract.seal();
+        }
+        // expires_at is nullable, such records should be paged too, also when the page ends with one
+        try (PooledDb db = (PooledDb) ledger.getDb()) {
+            db.update("update ledger set expires_at = null where id = ? or id = ?",
+                    records.get(1).getRecordId(), records.get(3).getRecordId());
+        }
+        List<HashId> nullIds = Arrays.asList(records.get(3).getId(), records.get(1).getId());
+
+        for (String sortBy : new String[]{"", "state.createdAt", "state.expiresAt"}) {
+            for (String sortOrder : new String[]{"DESC", "ASC"}) {
+                Binder all = ledger.getKeepingBy("state.origin", origin, null, 10, 0, sortBy, sortOrder);
+                List<HashId> expected = new ArrayList<>();
+                for (Object id : all.getListOrThrow("contractIds"))
+                    expected.add(HashId.withDigest((byte[]) id));
+                assertEquals(5, expected.size());
+
+                List<HashId> paged = new ArrayList<>();
+                String after = null;
+                do {
+                    Binder page = ledger.getKeepingByCursor("state.origin", origin, null, 2, after, sortBy, sortOrder);
+                    if (page == null)
+                        break;
+                    for (Object id : page.getListOrThrow("contractIds"))
+                        paged.add(HashId.withDigest((byte[]) id));
+                    after = page.getString("nextCursor", null);
+                } while (after != null);
+                assertEquals(expected, paged);
+                // nulls are the highest, as postgres orders them by default
+                if (sortBy.equals("state.expiresAt")) {
+                    if (sortOrder.equals("DESC"))
+                        assertEquals(nullIds, paged.subList(0, 2));
+                    else
+                        assertEquals(Arrays.asList(nullIds.get(1), nullIds.get(0)), paged.subList(3, 5));
+                }
+            }
+        }
+
+        try {
+            ledger.getKeepingByCursor("state.origin", origin, null, 2, "broken", "", "DESC");
+            fail("must throw");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
 
     @Test
     public void paymentSaveTest() throws Exception {
@@ -1462,4 +1734,80 @@ public class PostgresLedgerTest extends TestCase {
         System.out.println("SUCCESS");
     }
 
+    @Test
+    public void dbPoolLimits() throws Exception {
+        DbPool pool = new DbPool(CONNECTION_STRING, new Properties(), 2);
+        pool.setMaxWait(Duration.ofMillis(300));
+        ExecutorService es = Executors.newFixedThreadPool(3);
+        try {
+            CountDownLatch taken = new CountDownLatch(2);
+            CountDownLatch release = new CountDownLatch(1);
+            List<Future<?>> holders = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                holders.add(es.submit(() -> {
+                    try (PooledDb db = pool.db()) {
+                        try (ResultSet rs = db.cachedStatement("SELECT ?::int", 1).executeQuery()) {
+                            assertTrue(rs.next());
+                            assertEquals(1, rs.getInt(1));
+                        }
+                        taken.countDown();
+                        release.await();
+                    }
+                    return null;
+                }));
+            }
+            assertTrue(taken.await(10, TimeUnit.SECONDS));
+
+            // all the connections are in use: the third thread should fail in time instead of hanging
+            Future<Boolean> third = es.submit(() -> {
+                try (PooledDb db = pool.db()) {
+                    return true;
+                } catch (SQLException e) {
+                    return false;
+                }
+            });
+            assertFalse(third.get(5, TimeUnit.SECONDS));
+            Binder stats = pool.getStats();
+            assertEquals(2, stats.getIntOrThrow("inUse"));
+            assertEquals(1, stats.getIntOrThrow("timeouts"));
+
+            release.countDown();
+            for (Future<?> f : holders)
+                f.get(5, TimeUnit.SECONDS);
+            assertEquals(2, pool.getIdleConnections());
+
+            // returned connections are reused, no new ones are opened, and the cached statement gets fresh parameters
+            try (PooledDb db = pool.db()) {
+                try (ResultSet rs = db.cachedStatement("SELECT ?::int", 42).executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(42, rs.getInt(1));
+                }
+                try (ResultSet rs = db.cachedStatement("SELECT ?::int", 43).executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(43, rs.getInt(1));
+                }
+            }
+            assertEquals(2, pool.getTotalConnections());
+            assertEquals(2, pool.getStats().getIntOrThrow("created"));
+
+            // idle connections are closed by the timer, without any connection returned
+            pool.setMaxIdleTime(Duration.ofMillis(200), 1);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getTotalConnections() > 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertEquals(1, pool.getTotalConnections());
+            assertEquals(1, pool.getStats().getIntOrThrow("evicted"));
+
+            // idle connections are closed down to the minimum
+            pool.setMaxIdleTime(Duration.ZERO, 1);
+            try (PooledDb db = pool.db()) {
+                assertFalse(db.isClosed());
+            }
+            assertEquals(1, pool.getTotalConnections());
+        } finally {
+            es.shutdownNow();
+            pool.close();
+        }
+    }
+
 }
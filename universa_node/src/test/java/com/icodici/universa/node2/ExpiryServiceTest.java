@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import net.sergeych.tools.Binder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiryServiceTest {
+
+    private final List<TestEntry> fired = Collections.synchronizedList(new ArrayList<>());
+
+    private class TestEntry extends ExpiryService.Entry {
+        @Override
+        protected void expire() {
+            fired.add(this);
+        }
+    }
+
+    @Test
+    public void expireAndCount() throws Exception {
+        // long period: the test advances the service itself
+        ExpiryService service = new ExpiryService(1, 60000);
+        try {
+            ExpiryService.Group a = service.group("a");
+            ExpiryService.Group b = service.group("b");
+            assertTrue(a == service.group("a"));
+
+            long now = System.currentTimeMillis();
+            TestEntry e1 = new TestEntry();
+            TestEntry e2 = new TestEntry();
+            TestEntry e3 = new TestEntry();
+            assertTrue(a.schedule(e1, now + 10));
+            assertTrue(a.schedule(e2, now + 10));
+            assertTrue(b.schedule(e3, now + 60000));
+            assertFalse(b.schedule(new TestEntry(), now - 1000));
+            assertEquals(3, service.size());
+
+            assertTrue(a.cancel(e2));
+            assertFalse(a.cancel(e2));
+
+            Thread.sleep(15);
+            assertEquals(1, service.advance());
+            assertEquals(1, fired.size());
+            assertTrue(fired.get(0) == e1);
+            assertFalse(e1.isScheduled());
+            assertTrue(e3.isScheduled());
+
+            Binder stats = service.getStats();
+            assertEquals(1, stats.getIntOrThrow("waiting"));
+            Binder as = stats.getBinderOrThrow("a");
+            assertEquals(0, as.getIntOrThrow("waiting"));
+            assertEquals(2, as.getIntOrThrow("scheduled"));
+            assertEquals(1, as.getIntOrThrow("cancelled"));
+            assertEquals(1, as.getIntOrThrow("expired"));
+            Binder bs = stats.getBinderOrThrow("b");
+            assertEquals(1, bs.getIntOrThrow("waiting"));
+            assertEquals(1, bs.getIntOrThrow("expired"));
+
+            // rescheduling moves the entry to the other group
+            assertTrue(a.schedule(e3, System.currentTimeMillis() + 10));
+            assertEquals(0, b.getStats().getIntOrThrow("waiting"));
+            assertEquals(1, a.getStats().getIntOrThrow("waiting"));
+            Thread.sleep(15);
+            assertEquals(1, service.advance());
+            assertEquals(2, a.getExpiredCount());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void expireInBackground() throws Exception {
+        ExpiryService service = new ExpiryService(1, 5);
+        try {
+            TestEntry e = new TestEntry();
+            service.group("a").schedule(e, System.currentTimeMillis() + 20);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fired.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(1, fired.size());
+            assertEquals(0, service.size());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
@@ -14,6 +14,9 @@ import org.junit.Test;
 import java.time.Duration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class ItemCacheTest {
     @Test
@@ -26,4 +29,47 @@ public class ItemCacheTest {
         c.cleanUp();
         assertEquals(null, c.get(i1.getId()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void evictByWeight() throws Exception {
+        ItemCache c = new ItemCache(Duration.ofMinutes(5), 3 * ItemCache.DEFAULT_ITEM_WEIGHT, ItemCache.ALWAYS_ADMIT);
+        TestItem i1 = new TestItem(true);
+        TestItem i2 = new TestItem(true);
+        TestItem i3 = new TestItem(true);
+        TestItem i4 = new TestItem(true);
+        c.put(i1, ItemResult.UNDEFINED);
+        c.put(i2, ItemResult.UNDEFINED);
+        c.put(i3, ItemResult.UNDEFINED);
+        // touched record gets a second chance
+        assertNotNull(c.get(i1.getId()));
+        c.put(i4, ItemResult.UNDEFINED);
+        assertEquals(3, c.size());
+        assertTrue(c.getWeight() <= c.getMaxWeight());
+        assertEquals(1, c.getEvictionCount());
+        assertNotNull(c.get(i1.getId()));
+        assertNull(c.get(i2.getId()));
+        assertNotNull(c.get(i4.getId()));
+        c.shutdown();
+    }
+
+    @Test
+    public void frequencyAdmission() throws Exception {
+        ItemCache c = new ItemCache(Duration.ofMinutes(5), 2 * ItemCache.DEFAULT_ITEM_WEIGHT, ItemCache.tinyLfu(16));
+        TestItem i1 = new TestItem(true);
+        TestItem i2 = new TestItem(true);
+        TestItem i3 = new TestItem(true);
+        c.put(i1, ItemResult.UNDEFINED);
+        c.put(i2, ItemResult.UNDEFINED);
+        for (int i = 0; i < 5; i++) {
+            c.get(i1.getId());
+            c.get(i2.getId());
+        }
+        // one-off item should not displace popular ones
+        c.put(i3, ItemResult.UNDEFINED);
+        assertEquals(1, c.getRejectionCount());
+        assertNull(c.get(i3.getId()));
+        assertNotNull(c.get(i1.getId()));
+        assertNotNull(c.get(i2.getId()));
+        c.shutdown();
+    }
+}
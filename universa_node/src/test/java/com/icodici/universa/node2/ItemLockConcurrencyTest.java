@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import com.icodici.universa.HashId;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Locking modes of {@link ItemLock}; unlike {@link ItemLockTest} these do not depend on garbage collection, so they run
+ * in the sequence.
+ */
+public class ItemLockConcurrencyTest {
+
+    private int count = 0;
+
+    @Test
+    public void tryLockTimeout() throws Exception {
+        ItemLock il = new ItemLock();
+        HashId id = HashId.createRandom();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                il.synchronize(id, lock -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            il.trySynchronize(id, 50, TimeUnit.MILLISECONDS, lock -> count++);
+            fail("should time out");
+        } catch (TimeoutException e) {
+            assertEquals(1, il.getTimeoutCount());
+        }
+        release.countDown();
+        holder.join();
+        il.trySynchronize(id, 50, TimeUnit.MILLISECONDS, lock -> count++);
+        assertEquals(1, count);
+        assertTrue(il.getContendedCount() >= 1);
+    }
+
+    @Test
+    public void sharedMode() throws Exception {
+        ItemLock il = new ItemLock();
+        HashId id = HashId.createRandom();
+        CountDownLatch bothInside = new CountDownLatch(2);
+        Runnable reader = () -> {
+            try {
+                il.synchronizeShared(id, lock -> {
+                    bothInside.countDown();
+                    try {
+                        return bothInside.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        };
+        Thread t1 = new Thread(reader);
+        Thread t2 = new Thread(reader);
+        t1.start();
+        t2.start();
+        // two shared holders should be inside together
+        assertTrue(bothInside.await(5, TimeUnit.SECONDS));
+        t1.join();
+        t2.join();
+        il.synchronize(id, lock -> count++);
+        assertEquals(1, count);
+    }
+}
@@ -1043,6 +1043,76 @@ public class MainTest {
         ts.nodes.forEach(x -> x.shutdown());
     }
 
+    @Test(timeout = 30000)
+    public void waitForState() throws Exception {
+        TestSpace ts = prepareTestSpace(TestKeys.privateKey(0));
+        ts.nodes.forEach(m -> m.config.setIsFreeRegistrationsAllowedFromYaml(true));
+
+        Contract contract = new Contract(TestKeys.privateKey(0));
+        contract.seal();
+
+        ItemResult itemResult = ts.client.register(contract.getPackedTransaction(), 0);
+        if (itemResult.state.isPending())
+            itemResult = ts.client.waitForState(contract.getId(), 8000);
+        assertEquals(ItemState.APPROVED, itemResult.state);
+
+        // final and unknown states are answered without waiting
+        long started = System.currentTimeMillis();
+        assertEquals(ItemState.APPROVED, ts.client.waitForState(contract.getId(), 8000).state);
+        assertEquals(ItemState.UNDEFINED, ts.client.waitForState(HashId.createRandom(), 8000).state);
+        assertTrue(System.currentTimeMillis() - started < 3000);
+
+        ts.nodes.forEach(x -> x.shutdown());
+    }
+
+    @Test(timeout = 30000)
+    public void getStates() throws Exception {
+        TestSpace ts = prepareTestSpace(TestKeys.privateKey(0));
+        ts.nodes.forEach(m -> m.config.setIsFreeRegistrationsAllowedFromYaml(true));
+
+        Contract approved = new Contract(TestKeys.privateKey(0));
+        approved.seal();
+        assertEquals(ItemState.APPROVED, ts.client.register(approved.getPackedTransaction(), 8000).state);
+
+        Contract revoking = approved.createRevision(TestKeys.privateKey(0));
+        revoking.seal();
+        assertEquals(ItemState.APPROVED, ts.client.register(revoking.getPackedTransaction(), 8000).state);
+
+        HashId unknown = HashId.createRandom();
+        List<HashId> ids = asList(revoking.getId(), unknown, approved.getId());
+        List<ItemResult> results = ts.client.getStates(ids);
+        assertEquals(3, results.size());
+        assertEquals(ItemState.APPROVED, results.get(0).state);
+        assertEquals(ItemState.UNDEFINED, results.get(1).state);
+        assertEquals(ItemState.REVOKED, results.get(2).state);
+        for (int i = 0; i < 3; i++)
+            assertEquals(ts.client.getState(ids.get(i)).state, results.get(i).state);
+
+        ts.nodes.forEach(x -> x.shutdown());
+    }
+
+    @Test(timeout = 60000)
+    public void getStatesOverKeyLimit() throws Exception {
+        List<Main> mm = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            mm.add(createMain("node" + (i + 1), false));
+        Main main = mm.get(0);
+        // not whitelisted key, so the requests are limited
+        Client client = new Client(TestKeys.privateKey(3), main.myInfo, null);
+
+        // more ids than the key could request one by one in a minute, and more than one batch
+        int count = main.config.getLimitRequestsForKeyPerMinute() * 2 + 300;
+        List<HashId> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            ids.add(HashId.createRandom());
+        List<ItemResult> results = client.getStates(ids);
+        assertEquals(count, results.size());
+        for (ItemResult r : results)
+            assertEquals(ItemState.UNDEFINED, r.state);
+
+        mm.forEach(x -> x.shutdown());
+    }
+
     private TestSpace prepareTestSpace() throws Exception {
         return prepareTestSpace(TestKeys.privateKey(3));
     }
@@ -406,6 +406,19 @@ public class ScriptEngineTest {
         assertEquals(0, contract.execJS(js.getBytes()));
     }
 
+    @Test
+    public void jsInContract_execIsolated() throws Exception {
+        Contract contract = new Contract(TestKeys.privateKey(0));
+        String js = "";
+        js += "result = (typeof seen === 'undefined') ? 'fresh' : 'reused';";
+        js += "var seen = jsApiParams[0];";
+        contract.getDefinition().setJS(js.getBytes(), "client script.js", new JSApiScriptParameters());
+        contract.seal();
+        // compiled script and engine are reused, but every execution has its own globals
+        for (int i = 0; i < 20; i++)
+            assertEquals("fresh", contract.execJS(js.getBytes(), "run" + i));
+    }
+
     @Test
     public void jsInContract_execParams() throws Exception {
         Contract contract = new Contract(TestKeys.privateKey(0));
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.sergeych@gmail.com>
+ *
+ */
+
+package com.icodici.universa.node2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    private class TestEntry extends TimingWheel.Entry {
+        private final long at;
+
+        private TestEntry(long at) {
+            this.at = at;
+        }
+
+        @Override
+        protected void onExpired() {
+            fired.add(this);
+        }
+    }
+
+    private List<TestEntry> fired = new ArrayList<>();
+
+    @Test
+    public void expireInOrder() throws Exception {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        List<TestEntry> entries = new ArrayList<>();
+        // near, middle and far entries to pass through all levels
+        for (long at : new long[]{5, 15, 640, 650, 41_000, 2_700_000, 200_000_000}) {
+            TestEntry e = new TestEntry(at);
+            assertTrue(wheel.schedule(e, at));
+            entries.add(e);
+        }
+        assertEquals(entries.size(), wheel.size());
+        for (TestEntry e : entries) {
+            wheel.advance(e.at - 10);
+            assertFalse(fired.contains(e));
+            wheel.advance(e.at + 10);
+            assertTrue(fired.contains(e));
+        }
+        assertEquals(entries, fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void failingEntryDoesNotStopOthers() throws Exception {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        TestEntry failing = new TestEntry(100) {
+            @Override
+            protected void onExpired() {
+                throw new IllegalStateException("test failure");
+            }
+        };
+        TestEntry e1 = new TestEntry(100);
+        TestEntry e2 = new TestEntry(100);
+        wheel.schedule(failing, 100);
+        wheel.schedule(e1, 100);
+        wheel.schedule(e2, 100);
+        assertEquals(3, wheel.advance(200));
+        assertTrue(fired.contains(e1));
+        assertTrue(fired.contains(e2));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelAndReschedule() throws Exception {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        TestEntry e1 = new TestEntry(100);
+        TestEntry e2 = new TestEntry(100);
+        wheel.schedule(e1, 100);
+        wheel.schedule(e2, 100);
+        assertTrue(wheel.cancel(e1));
+        assertFalse(wheel.cancel(e1));
+        wheel.schedule(e2, 500);
+        wheel.advance(200);
+        assertEquals(0, fired.size());
+        wheel.advance(510);
+        assertEquals(1, fired.size());
+        assertFalse(wheel.schedule(e1, 300));
+    }
+}